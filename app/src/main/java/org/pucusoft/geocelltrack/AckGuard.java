@@ -0,0 +1,49 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@link TelemetrySink.Callback} de un solo uso con plazo: el primero entre el ack, la falla y
+ * {@link #expire} llega al callback real; lo que venga después se ignora.
+ *
+ * Firebase no falla una escritura con la red trabada o detrás de un portal cautivo: la deja en cola
+ * en memoria sin límite. Al vencer el plazo la escritura se da por fallida (disyuntor y caja negra);
+ * si el ack llega tarde ya no se procesa, y el drenado reescribe las mismas claves deterministas.
+ *
+ * Sin dependencias de Android.
+ */
+final class AckGuard implements TelemetrySink.Callback {
+
+    private final TelemetrySink.Callback delegate;
+    private final AtomicBoolean settled = new AtomicBoolean();
+
+    AckGuard(TelemetrySink.Callback delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onAck() {
+        if (settled.compareAndSet(false, true)) delegate.onAck();
+    }
+
+    @Override
+    public void onFailure(Exception e) {
+        if (settled.compareAndSet(false, true)) delegate.onFailure(e);
+    }
+
+    /**
+     * Da la escritura por fallida si todavía no se resolvió.
+     *
+     * @return true si venció en esta llamada.
+     */
+    boolean expire(long waitedMs) {
+        if (!settled.compareAndSet(false, true)) return false;
+        delegate.onFailure(new TimeoutException("Sin ack del destino tras " + waitedMs + " ms"));
+        return true;
+    }
+
+    boolean isSettled() {
+        return settled.get();
+    }
+}
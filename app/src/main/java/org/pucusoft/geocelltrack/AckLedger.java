@@ -0,0 +1,157 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Ledger en disco de secuencias ya confirmadas por el backend.
+ *
+ * Se guarda como rangos [inicio, fin] ordenados y fusionados: como las secuencias se confirman casi
+ * en orden, unos pocos rangos cubren todo el historial. Al superar {@link #MAX_RANGES} se descartan
+ * los rangos más antiguos (esas secuencias ya no pueden seguir en la caja negra).
+ */
+final class AckLedger {
+
+    static final int MAX_RANGES = 512;
+
+    private final File file;
+    private long[] starts = new long[16];
+    private long[] ends = new long[16];
+    private int count;
+
+    private AckLedger(File file) {
+        this.file = file;
+    }
+
+    static AckLedger open(File file) throws IOException {
+        AckLedger ledger = new AckLedger(file);
+        if (file.isFile()) ledger.load();
+        return ledger;
+    }
+
+    synchronized boolean isAcked(long seq) {
+        int i = floorIndex(seq);
+        return i >= 0 && seq <= ends[i];
+    }
+
+    synchronized void markAcked(long seq) throws IOException {
+        if (add(seq)) persist();
+    }
+
+    /** Marca varias secuencias con una sola escritura a disco. */
+    synchronized void markAcked(long[] seqs, int length) throws IOException {
+        boolean changed = false;
+        for (int i = 0; i < length; i++) changed |= add(seqs[i]);
+        if (changed) persist();
+    }
+
+    synchronized int rangeCount() {
+        return count;
+    }
+
+    // Índice del último rango con inicio <= seq, o -1
+    private int floorIndex(long seq) {
+        int lo = 0, hi = count - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= seq) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    private boolean add(long seq) {
+        int i = floorIndex(seq);
+        if (i >= 0 && seq <= ends[i]) return false;
+
+        boolean joinsPrev = i >= 0 && ends[i] == seq - 1;
+        boolean joinsNext = i + 1 < count && starts[i + 1] == seq + 1;
+        if (joinsPrev && joinsNext) {
+            ends[i] = ends[i + 1];
+            remove(i + 1);
+        } else if (joinsPrev) {
+            ends[i] = seq;
+        } else if (joinsNext) {
+            starts[i + 1] = seq;
+        } else {
+            insert(i + 1, seq);
+            if (count > MAX_RANGES) remove(0);
+        }
+        return true;
+    }
+
+    private void insert(int index, long seq) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        System.arraycopy(starts, index, starts, index + 1, count - index);
+        System.arraycopy(ends, index, ends, index + 1, count - index);
+        starts[index] = seq;
+        ends[index] = seq;
+        count++;
+    }
+
+    private void remove(int index) {
+        System.arraycopy(starts, index + 1, starts, index, count - index - 1);
+        System.arraycopy(ends, index + 1, ends, index, count - index - 1);
+        count--;
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int n = in.readInt();
+            if (n < 0 || n > MAX_RANGES) return;
+            long[] s = new long[Math.max(16, n)];
+            long[] e = new long[Math.max(16, n)];
+            CRC32 crc = new CRC32();
+            for (int i = 0; i < n; i++) {
+                s[i] = in.readLong();
+                e[i] = in.readLong();
+                updateCrc(crc, s[i], e[i]);
+            }
+            if (in.readLong() != crc.getValue()) return; // Ledger corrupto: se empieza vacío
+            starts = s;
+            ends = e;
+            count = n;
+        } catch (EOFException e) {
+            // Ledger truncado: se empieza vacío
+        }
+    }
+
+    private void persist() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            CRC32 crc = new CRC32();
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeLong(starts[i]);
+                out.writeLong(ends[i]);
+                updateCrc(crc, starts[i], ends[i]);
+            }
+            out.writeLong(crc.getValue());
+            out.flush();
+            fos.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) throw new IOException("No se pudo persistir el ledger de acks");
+    }
+
+    private static void updateCrc(CRC32 crc, long start, long end) {
+        for (int shift = 56; shift >= 0; shift -= 8) crc.update((int) (start >>> shift));
+        for (int shift = 56; shift >= 0; shift -= 8) crc.update((int) (end >>> shift));
+    }
+}
@@ -0,0 +1,119 @@
+package org.pucusoft.geocelltrack;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import java.io.File;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker de WorkManager que vacía la caja negra cuando hay red.
+ *
+ * Corre fuera del bucle de recolección y sobrevive a que {@link TrackerService} no esté activo:
+ * WorkManager persiste la solicitud y la ejecuta cuando vuelve la conectividad. Cada lote confirmado
+ * es un checkpoint (avanza el cursor del journal), así que un drenado interrumpido retoma donde quedó.
+ */
+public class BacklogDrainWorker extends Worker {
+
+    private static final String TAG = "BacklogDrainWorker";
+
+    static final String UNIQUE_WORK_NAME = "geocelltrack_backlog_drain";
+    static final String KEY_USER_ID = "userId";
+    static final String PROGRESS_DRAINED = "drained";
+    static final String PROGRESS_PENDING_BYTES = "pending_bytes";
+
+    static final String JOURNAL_DIR = "offline_journal";
+    // Tamaño de lote del drenado (configurable en GeoCellTrackPrefs)
+    static final String PREF_DRAIN_CHUNK_SIZE = "drain_chunk_size";
+    static final String PREF_DRAIN_CHUNK_MAX_BYTES = "drain_chunk_max_bytes";
+
+    private static final long BACKOFF_INITIAL_SECONDS = 30;
+
+    public BacklogDrainWorker(@NonNull Context context, @NonNull WorkerParameters params) {
+        super(context, params);
+    }
+
+    /**
+     * Programa un drenado con restricción de red y backoff exponencial. Si ya hay uno pendiente
+     * o en curso, se conserva el existente.
+     */
+    public static void enqueue(@NonNull Context context, @NonNull String userId) {
+        enqueue(context, userId, false);
+    }
+
+    /**
+     * Como {@link #enqueue(Context, String)}, pero con {@code now} reemplaza el drenado existente
+     * para que no siga esperando su backoff (p. ej. al volver la red). Cortar uno en curso es seguro:
+     * solo se descarta de la caja negra lo confirmado y las claves son deterministas.
+     */
+    public static void enqueue(@NonNull Context context, @NonNull String userId, boolean now) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(BacklogDrainWorker.class)
+                .setConstraints(constraints)
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_INITIAL_SECONDS, TimeUnit.SECONDS)
+                .setInputData(new Data.Builder().putString(KEY_USER_ID, userId).build())
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(UNIQUE_WORK_NAME,
+                now ? ExistingWorkPolicy.REPLACE : ExistingWorkPolicy.KEEP, request);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        Context context = getApplicationContext();
+        SharedPreferences prefs = context.getSharedPreferences("GeoCellTrackPrefs", Context.MODE_PRIVATE);
+        String userId = getInputData().getString(KEY_USER_ID);
+        if (userId == null || userId.isEmpty()) userId = prefs.getString("userId", null);
+        if (userId == null || userId.isEmpty()) {
+            Log.w(TAG, "Sin userId: no se puede drenar la caja negra.");
+            return Result.failure();
+        }
+
+        int drained = 0;
+        try {
+            OfflineJournal journal = OfflineJournal.open(new File(context.getFilesDir(), JOURNAL_DIR));
+            BacklogDrainer drainer = new BacklogDrainer(journal, DeliveryLedger.get(context),
+                    TrackerService.telemetrySink(context), userId,
+                    new PayloadEncoder(userId, TimeZone.getDefault(), TrackerService.towerIndex(context)),
+                    prefs.getInt(PREF_DRAIN_CHUNK_SIZE, BacklogDrainer.DEFAULT_CHUNK_SIZE),
+                    prefs.getLong(PREF_DRAIN_CHUNK_MAX_BYTES, BacklogDrainer.DEFAULT_CHUNK_MAX_BYTES));
+
+            while (!isStopped()) {
+                int n = drainer.drainChunk();
+                if (n == 0) break;
+                drained += n;
+                setProgressAsync(new Data.Builder()
+                        .putInt(PROGRESS_DRAINED, drained)
+                        .putLong(PROGRESS_PENDING_BYTES, journal.pendingBytes())
+                        .build());
+            }
+            if (isStopped()) {
+                Log.d(TAG, "Drenado detenido tras " + drained + " puntos. Se retomará desde el último lote.");
+                return Result.retry();
+            }
+            Log.d(TAG, "Caja negra vacía. Puntos drenados: " + drained);
+            return Result.success();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        } catch (Exception e) {
+            Log.w(TAG, "Drenado interrumpido tras " + drained + " puntos. Reintento con backoff.", e);
+            return Result.retry();
+        }
+    }
+}
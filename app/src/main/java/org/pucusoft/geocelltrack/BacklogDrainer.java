@@ -0,0 +1,107 @@
+package org.pucusoft.geocelltrack;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Drena la caja negra ({@link OfflineJournal}) hacia {@code geocelltrack/tracker/{userId}/{yyyyMMdd}/{HH}} por lotes,
+ * a través de un {@link TelemetrySink}.
+ *
+ * Cada lote viaja en una sola escritura multi-ruta ({@code updateChildren}), en vez de un
+ * {@code push().setValue()} por punto. Cada punto se escribe bajo su clave determinista
+ * ({@link DeliveryLedger#keyFor}), así que reenviar un lote es idempotente, y los puntos que el
+ * {@link DeliveryLedger} ya registra como confirmados se omiten. El cursor del journal solo avanza
+ * cuando el destino confirma el lote: si falla, los puntos siguen en disco para el próximo intento.
+ */
+final class BacklogDrainer {
+
+    private static final String TAG = "BacklogDrainer";
+
+    static final int DEFAULT_CHUNK_SIZE = 200;
+    static final long DEFAULT_CHUNK_MAX_BYTES = 256 * 1024;
+
+    private static final long ACK_TIMEOUT_SECONDS = 60;
+
+    private final OfflineJournal journal;
+    private final DeliveryLedger ledger;
+    private final TelemetrySink sink;
+    private final String userId;
+    private final int chunkSize;
+    private final long chunkMaxBytes;
+    // Columnas reutilizadas entre lotes: decodificar un lote no crea un objeto por punto
+    private final PendingBatch pending;
+    private final DataPoint row = new DataPoint();
+    private final PayloadEncoder encoder;
+
+    BacklogDrainer(@NonNull OfflineJournal journal, @NonNull DeliveryLedger ledger,
+                   @NonNull TelemetrySink sink, @NonNull String userId, @NonNull PayloadEncoder encoder,
+                   int chunkSize, long chunkMaxBytes) {
+        this.journal = journal;
+        this.ledger = ledger;
+        this.sink = sink;
+        this.userId = userId;
+        this.encoder = encoder;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.chunkMaxBytes = Math.max(1, chunkMaxBytes);
+        this.pending = new PendingBatch(this.chunkSize);
+    }
+
+    /**
+     * Envía el siguiente lote de la caja negra y bloquea hasta que el destino lo confirme.
+     * Solo se debe llamar desde un hilo de fondo (p. ej. {@link BacklogDrainWorker}).
+     *
+     * @return registros consumidos de la caja negra en este lote; 0 si está vacía.
+     */
+    synchronized int drainChunk() throws IOException, ExecutionException, InterruptedException, TimeoutException {
+        OfflineJournal.Batch batch = journal.peek(chunkSize, chunkMaxBytes);
+        if (batch.isEmpty()) return 0;
+
+        pending.clear();
+        for (byte[] record : batch.records) {
+            if (!pending.addRecord(record)) Log.w(TAG, "Punto ilegible en la caja negra. Se descarta.");
+        }
+
+        Map<String, Object> updates = new HashMap<>(pending.size() * 2);
+        long[] seqs = new long[pending.size()];
+        int seqCount = 0;
+        int alreadyAcked = 0;
+        for (int i = 0; i < pending.size(); i++) {
+            long seq = pending.seq[i];
+            if (seq < 0) {
+                // Punto anterior a las secuencias: la clave sale de su timestamp, así el reintento
+                // de un lote que el destino aplicó sin confirmar vuelve a caer en el mismo nodo
+                DataPoint legacy = pending.get(i, row);
+                updates.put(TrackPartition.path(legacy.timestampMs, ledger.legacyKeyFor(legacy.timestampMs)),
+                        encoder.toFirebaseMap(legacy));
+                continue;
+            }
+            if (ledger.isAcked(seq)) {
+                alreadyAcked++;
+                continue;
+            }
+            DataPoint dataPoint = pending.get(i, row);
+            updates.put(TrackPartition.path(dataPoint.timestampMs, ledger.keyFor(seq)), encoder.toFirebaseMap(dataPoint));
+            seqs[seqCount++] = seq;
+        }
+
+        if (!updates.isEmpty()) {
+            TelemetrySink.awaitBatch(sink, userId, updates, ACK_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            Log.d(TAG, "Lote confirmado: " + updates.size() + " puntos (" + batch.bytes() + " bytes)");
+        }
+        if (alreadyAcked > 0) Log.d(TAG, "Omitidos " + alreadyAcked + " puntos ya confirmados.");
+        // Checkpoint: primero el ledger, luego el cursor. Si el proceso muere entre ambos,
+        // el lote se relee pero sus puntos ya figuran como confirmados.
+        ledger.markAcked(seqs, seqCount);
+        journal.commit(batch);
+        pending.clear();
+        return batch.size();
+    }
+}
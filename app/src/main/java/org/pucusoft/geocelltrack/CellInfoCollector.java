@@ -0,0 +1,378 @@
+package org.pucusoft.geocelltrack;
+
+import android.Manifest;
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.telephony.CellIdentityCdma;
+import android.telephony.CellIdentityGsm;
+import android.telephony.CellIdentityLte;
+import android.telephony.CellIdentityNr;
+import android.telephony.CellIdentityTdscdma;
+import android.telephony.CellIdentityWcdma;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoCdma;
+import android.telephony.CellInfoGsm;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellInfoTdscdma;
+import android.telephony.CellInfoWcdma;
+import android.telephony.CellSignalStrength;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Recolector de celdas y de los bloques estáticos {@code hardware}/{@code sim}.
+ *
+ * Usa un {@link TelephonyManager} por suscripción activa (dual SIM) y lee la caché del módem con
+ * {@code getAllCellInfo}, que no dispara un escaneo. Solo cuando esa caché es más vieja que
+ * {@code maxCellAgeMs} pide {@code requestCellInfoUpdate} en segundo plano a cada suscripción:
+ * el resultado queda para el próximo tick, sin bloquear este.
+ *
+ * De los bloques {@code hardware}/{@code sim} solo se guarda la identidad del equipo y de la SIM;
+ * los campos de la red servidora (operador, MCC/MNC y país de la red) se leen en cada tick, porque
+ * cambian con el roaming. La lista de suscripciones y la identidad de la SIM se descartan cuando
+ * cambian las suscripciones activas (entre {@link #start()} y {@link #stop()}).
+ *
+ * Se usa desde un único hilo con {@link android.os.Looper}, el mismo del {@code executor}.
+ */
+final class CellInfoCollector {
+
+    private static final String TAG = "CellInfoCollector";
+
+    private final Context context;
+    private final Executor executor;
+    private List<TelephonyManager> managers;
+    // Identidad cacheada; los bloques completos se reutilizan mientras la red no cambie
+    private Map<String, Object> hardwareIdentity;
+    private Map<String, Object> simIdentity;
+    private Map<String, Object> hardwareBlock;
+    private Map<String, Object> simBlock;
+    private int pendingRefreshes;
+    private SubscriptionManager.OnSubscriptionsChangedListener subscriptionsListener;
+
+    CellInfoCollector(@NonNull Context context, @NonNull Executor executor) {
+        this.context = context.getApplicationContext();
+        this.executor = executor;
+    }
+
+    /**
+     * Empieza a escuchar cambios de suscripciones (SIM insertada o quitada, cambio de SIM de datos).
+     * Llamar desde el hilo del {@code executor}: antes de API 30 el listener usa su Looper.
+     */
+    void start() {
+        SubscriptionManager subscriptions = context.getSystemService(SubscriptionManager.class);
+        if (subscriptions == null || subscriptionsListener != null) return;
+        subscriptionsListener = new SubscriptionManager.OnSubscriptionsChangedListener() {
+            @Override
+            public void onSubscriptionsChanged() {
+                managers = null;
+                simIdentity = null;
+                simBlock = null;
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            subscriptions.addOnSubscriptionsChangedListener(executor, subscriptionsListener);
+        } else {
+            subscriptions.addOnSubscriptionsChangedListener(subscriptionsListener);
+        }
+    }
+
+    void stop() {
+        SubscriptionManager subscriptions = context.getSystemService(SubscriptionManager.class);
+        if (subscriptions != null && subscriptionsListener != null) {
+            subscriptions.removeOnSubscriptionsChangedListener(subscriptionsListener);
+        }
+        subscriptionsListener = null;
+    }
+
+    // --- Celdas ---
+
+    /**
+     * Celdas visibles en todas las suscripciones (deduplicadas por clave), o null si no hay
+     * permiso o el módem no reporta nada.
+     */
+    @SuppressLint("MissingPermission")
+    @SuppressWarnings("deprecation")
+    @Nullable
+    CellSnapshot collect(long maxCellAgeMs) {
+        if (!hasPermission(Manifest.permission.ACCESS_FINE_LOCATION)) return null;
+        Map<String, CellObservation> cells = new LinkedHashMap<>();
+        long newestMs = Long.MIN_VALUE;
+        for (TelephonyManager tm : managers()) {
+            List<CellInfo> infos;
+            try {
+                infos = tm.getAllCellInfo();
+            } catch (SecurityException e) {
+                return null;
+            }
+            if (infos == null) continue;
+            String networkMcc = networkMcc(tm);
+            for (CellInfo info : infos) {
+                CellObservation cell = toObservation(info, networkMcc);
+                if (cell == null) continue;
+                // Si la misma celda aparece en dos suscripciones gana la registrada
+                CellObservation existing = cells.get(cell.key());
+                if (existing == null || (!existing.registered && cell.registered)) cells.put(cell.key(), cell);
+                newestMs = Math.max(newestMs, info.getTimeStamp() / 1_000_000L);
+            }
+        }
+        if (newestMs == Long.MIN_VALUE || SystemClock.elapsedRealtime() - newestMs > maxCellAgeMs) requestRefresh();
+        if (cells.isEmpty()) return null;
+        // La servidora primero
+        List<CellObservation> ordered = new ArrayList<>(cells.values());
+        Collections.sort(ordered, (a, b) -> Boolean.compare(b.registered, a.registered));
+        return CellSnapshot.full(ordered.toArray(new CellObservation[0]));
+    }
+
+    // Una actualización por suscripción: cada módem lógico tiene su propia caché de celdas
+    @SuppressLint("MissingPermission")
+    private void requestRefresh() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q || pendingRefreshes > 0) return;
+        List<TelephonyManager> all = managers();
+        pendingRefreshes = all.size();
+        for (TelephonyManager tm : all) {
+            try {
+                tm.requestCellInfoUpdate(executor, new TelephonyManager.CellInfoCallback() {
+                    @Override
+                    public void onCellInfo(@NonNull List<CellInfo> cellInfo) {
+                        pendingRefreshes--;
+                    }
+
+                    @Override
+                    public void onError(int errorCode, @Nullable Throwable detail) {
+                        pendingRefreshes--;
+                        Log.w(TAG, "requestCellInfoUpdate falló: " + errorCode);
+                    }
+                });
+            } catch (SecurityException e) {
+                pendingRefreshes--;
+            }
+        }
+    }
+
+    /**
+     * @param networkMcc MCC de la red de la suscripción; CDMA no lo reporta en la celda y sin él no
+     *                   hay identidad global (ni búsqueda en {@link CellTowerIndex})
+     */
+    @Nullable
+    @SuppressWarnings("deprecation")
+    static CellObservation toObservation(CellInfo info, @Nullable String networkMcc) {
+        CellObservation c = new CellObservation();
+        c.registered = info.isRegistered();
+        CellSignalStrength signal;
+        if (info instanceof CellInfoLte) {
+            CellIdentityLte id = ((CellInfoLte) info).getCellIdentity();
+            CellSignalStrengthLte lte = ((CellInfoLte) info).getCellSignalStrength();
+            c.type = CellObservation.LTE;
+            c.mcc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? id.getMccString() : legacyMcc(id.getMcc());
+            c.mnc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? id.getMncString() : legacyMnc(id.getMnc());
+            c.area = value(id.getTac());
+            c.cid = cid(id.getCi());
+            c.physId = value(id.getPci());
+            c.channel = value(id.getEarfcn());
+            c.rsrp = value(lte.getRsrp());
+            c.rsrq = value(lte.getRsrq());
+            signal = lte;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && info instanceof CellInfoNr) {
+            CellIdentityNr id = (CellIdentityNr) ((CellInfoNr) info).getCellIdentity();
+            CellSignalStrengthNr nr = (CellSignalStrengthNr) ((CellInfoNr) info).getCellSignalStrength();
+            c.type = CellObservation.NR;
+            c.mcc = id.getMccString();
+            c.mnc = id.getMncString();
+            c.area = value(id.getTac());
+            c.cid = id.getNci() == CellInfo.UNAVAILABLE_LONG ? CellObservation.NO_CID : id.getNci();
+            c.physId = value(id.getPci());
+            c.channel = value(id.getNrarfcn());
+            c.rsrp = value(nr.getSsRsrp());
+            c.rsrq = value(nr.getSsRsrq());
+            signal = nr;
+        } else if (info instanceof CellInfoGsm) {
+            CellIdentityGsm id = ((CellInfoGsm) info).getCellIdentity();
+            c.type = CellObservation.GSM;
+            c.mcc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? id.getMccString() : legacyMcc(id.getMcc());
+            c.mnc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? id.getMncString() : legacyMnc(id.getMnc());
+            c.area = value(id.getLac());
+            c.cid = cid(id.getCid());
+            c.physId = value(id.getBsic());
+            c.channel = value(id.getArfcn());
+            signal = ((CellInfoGsm) info).getCellSignalStrength();
+        } else if (info instanceof CellInfoWcdma) {
+            CellIdentityWcdma id = ((CellInfoWcdma) info).getCellIdentity();
+            c.type = CellObservation.WCDMA;
+            c.mcc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? id.getMccString() : legacyMcc(id.getMcc());
+            c.mnc = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? id.getMncString() : legacyMnc(id.getMnc());
+            c.area = value(id.getLac());
+            c.cid = cid(id.getCid());
+            c.physId = value(id.getPsc());
+            c.channel = value(id.getUarfcn());
+            signal = ((CellInfoWcdma) info).getCellSignalStrength();
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && info instanceof CellInfoTdscdma) {
+            CellIdentityTdscdma id = ((CellInfoTdscdma) info).getCellIdentity();
+            c.type = CellObservation.TDSCDMA;
+            c.mcc = id.getMccString();
+            c.mnc = id.getMncString();
+            c.area = value(id.getLac());
+            c.cid = cid(id.getCid());
+            c.physId = value(id.getCpid());
+            c.channel = value(id.getUarfcn());
+            signal = ((CellInfoTdscdma) info).getCellSignalStrength();
+        } else if (info instanceof CellInfoCdma) {
+            CellIdentityCdma id = ((CellInfoCdma) info).getCellIdentity();
+            c.type = CellObservation.CDMA;
+            c.mcc = networkMcc;
+            int sid = value(id.getSystemId());
+            c.mnc = sid == DataPoint.NO_VALUE ? null : String.valueOf(sid);
+            c.area = value(id.getNetworkId());
+            c.cid = cid(id.getBasestationId());
+            signal = ((CellInfoCdma) info).getCellSignalStrength();
+        } else {
+            return null;
+        }
+        c.dbm = value(signal.getDbm());
+        c.level = signal.getLevel();
+        c.asu = value(signal.getAsuLevel());
+        return c;
+    }
+
+    // Los 3 primeros dígitos de getNetworkOperator (MCC+MNC), o null si la red no está disponible
+    @Nullable
+    private static String networkMcc(TelephonyManager tm) {
+        String networkOperator = tm.getNetworkOperator();
+        return networkOperator != null && networkOperator.length() >= 5 ? networkOperator.substring(0, 3) : null;
+    }
+
+    // CellInfo.UNAVAILABLE (Integer.MAX_VALUE) y los -1 heredados de APIs viejas
+    private static int value(int raw) {
+        return raw == Integer.MAX_VALUE || raw == -1 ? DataPoint.NO_VALUE : raw;
+    }
+
+    private static long cid(int raw) {
+        int v = value(raw);
+        return v == DataPoint.NO_VALUE ? CellObservation.NO_CID : v;
+    }
+
+    // API 26-27: MCC/MNC solo como enteros (se pierden los ceros a la izquierda del MNC)
+    private static String legacyMcc(int mcc) {
+        return value(mcc) == DataPoint.NO_VALUE ? null : String.format(Locale.US, "%03d", mcc);
+    }
+
+    private static String legacyMnc(int mnc) {
+        return value(mnc) == DataPoint.NO_VALUE ? null : String.format(Locale.US, "%02d", mnc);
+    }
+
+    // --- Bloques hardware/sim ---
+
+    /** Identidad del equipo (cacheada) más el operador de red actual. */
+    @SuppressLint({"MissingPermission", "HardwareIds"})
+    @SuppressWarnings("deprecation")
+    Map<String, Object> hardwareBlock(@Nullable String deviceUuid) {
+        TelephonyManager tm = managers().get(0);
+        if (hardwareIdentity == null) {
+            Map<String, Object> node = new HashMap<>();
+            if (deviceUuid != null) node.put("device_uuid", deviceUuid);
+            node.put("modelo", Build.MODEL);
+            node.put("fabricante", Build.MANUFACTURER);
+            node.put("producto", Build.PRODUCT);
+            node.put("dispositivo", Build.DEVICE);
+            node.put("api_level", (long) Build.VERSION.SDK_INT);
+            node.put("android_version", Build.VERSION.RELEASE);
+            if (hasPermission(Manifest.permission.READ_PHONE_STATE)) {
+                try {
+                    node.put("imei", tm.getImei());
+                } catch (SecurityException e) {
+                    // Android 10+: el IMEI solo está disponible para apps privilegiadas
+                }
+            }
+            hardwareIdentity = node;
+        }
+        String networkOperator = tm.getNetworkOperator();
+        String networkOperatorName = tm.getNetworkOperatorName();
+        if (hardwareBlock == null
+                || !Objects.equals(networkOperator, hardwareBlock.get("network_operator"))
+                || !Objects.equals(networkOperatorName, hardwareBlock.get("network_operator_name"))) {
+            Map<String, Object> node = new HashMap<>(hardwareIdentity);
+            node.put("network_operator", networkOperator);
+            node.put("network_operator_name", networkOperatorName);
+            hardwareBlock = node;
+        }
+        return hardwareBlock;
+    }
+
+    /** Identidad de la SIM (cacheada hasta que cambien las suscripciones) más la red servidora actual. */
+    Map<String, Object> simBlock() {
+        TelephonyManager tm = managers().get(0);
+        if (simIdentity == null) {
+            Map<String, Object> node = new HashMap<>();
+            node.put("operador_codigo", tm.getSimOperator());
+            node.put("operador_nombre", tm.getSimOperatorName());
+            node.put("pais_sim", tm.getSimCountryIso());
+            node.put("suscripciones", (long) managers().size());
+            simIdentity = node;
+            simBlock = null;
+        }
+        String networkOperator = tm.getNetworkOperator();
+        boolean hasNetwork = networkOperator != null && networkOperator.length() >= 5;
+        String mcc = hasNetwork ? networkOperator.substring(0, 3) : null;
+        String mnc = hasNetwork ? networkOperator.substring(3) : null;
+        String country = tm.getNetworkCountryIso();
+        if (simBlock == null
+                || !Objects.equals(mcc, simBlock.get("mcc_red"))
+                || !Objects.equals(mnc, simBlock.get("mnc_red"))
+                || !Objects.equals(country, simBlock.get("pais_red"))) {
+            Map<String, Object> node = new HashMap<>(simIdentity);
+            if (hasNetwork) {
+                node.put("mcc_red", mcc);
+                node.put("mnc_red", mnc);
+            }
+            node.put("pais_red", country);
+            simBlock = node;
+        }
+        return simBlock;
+    }
+
+    // --- Suscripciones ---
+
+    @SuppressLint("MissingPermission")
+    private List<TelephonyManager> managers() {
+        if (managers != null) return managers;
+        TelephonyManager base = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        List<TelephonyManager> list = new ArrayList<>();
+        // Sin permiso no se cachea: al concederlo la próxima lectura ya ve todas las suscripciones
+        boolean canList = hasPermission(Manifest.permission.READ_PHONE_STATE);
+        if (canList) {
+            SubscriptionManager subscriptions = context.getSystemService(SubscriptionManager.class);
+            List<SubscriptionInfo> active = subscriptions != null ? subscriptions.getActiveSubscriptionInfoList() : null;
+            if (active != null) {
+                for (SubscriptionInfo info : active) list.add(base.createForSubscriptionId(info.getSubscriptionId()));
+            }
+        }
+        if (list.isEmpty()) list.add(base);
+        if (canList) managers = list;
+        return list;
+    }
+
+    private boolean hasPermission(String permission) {
+        return ContextCompat.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+    }
+}
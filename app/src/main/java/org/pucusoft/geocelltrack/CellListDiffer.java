@@ -0,0 +1,69 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Convierte la lista completa de celdas de cada punto subido en un diff contra el punto anterior.
+ *
+ * El diff lleva solo las celdas nuevas, las que cambiaron de registro o cuya señal varió más de
+ * {@link #DBM_EPSILON} dB (además de la servidora, que siempre va), y las claves de las que ya no
+ * se ven. Cada {@link #FULL_LIST_EVERY} puntos se envía la lista completa para que un lector pueda
+ * reconstruir el estado sin leer todo el historial.
+ *
+ * Se aplica solo a puntos que efectivamente se suben, en orden de secuencia. No es thread-safe.
+ */
+final class CellListDiffer {
+
+    static final int FULL_LIST_EVERY = 10;
+    static final int DBM_EPSILON = 3;
+
+    // Lo que el lector conoce: la última versión enviada de cada celda
+    private Map<String, CellObservation> known = new HashMap<>();
+    private int sinceFull = FULL_LIST_EVERY;
+
+    /** Reescribe {@code p.cells} como diff (o lista completa si toca). */
+    void apply(DataPoint p) {
+        if (p.cells == null) return;
+        CellObservation[] current = p.cells.cells;
+
+        if (++sinceFull >= FULL_LIST_EVERY) {
+            sinceFull = 0;
+            known = new HashMap<>(current.length * 2);
+            for (CellObservation c : current) known.put(c.key(), c);
+            p.cells.fullList = true;
+            return;
+        }
+
+        Map<String, CellObservation> next = new HashMap<>(current.length * 2);
+        List<CellObservation> changed = new ArrayList<>(current.length);
+        for (CellObservation c : current) {
+            CellObservation previous = known.remove(c.key());
+            if (c.registered || previous == null || changed(previous, c)) {
+                changed.add(c);
+                next.put(c.key(), c);
+            } else {
+                next.put(c.key(), previous);
+            }
+        }
+        String[] removed = known.keySet().toArray(new String[0]);
+        known = next;
+
+        p.cells.fullList = false;
+        p.cells.cells = changed.toArray(new CellObservation[0]);
+        p.cells.removed = removed;
+    }
+
+    /** Fuerza lista completa en el próximo punto (p. ej. tras perder puntos). */
+    void reset() {
+        sinceFull = FULL_LIST_EVERY;
+    }
+
+    private static boolean changed(CellObservation previous, CellObservation current) {
+        if (previous.registered != current.registered) return true;
+        if ((previous.dbm == DataPoint.NO_VALUE) != (current.dbm == DataPoint.NO_VALUE)) return true;
+        return current.dbm != DataPoint.NO_VALUE && Math.abs(current.dbm - previous.dbm) > DBM_EPSILON;
+    }
+}
@@ -0,0 +1,132 @@
+package org.pucusoft.geocelltrack;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Una celda vista por el módem en un tick (servidora o vecina), con campos primitivos.
+ *
+ * Los campos genéricos se reinterpretan según la tecnología al escribir el payload:
+ * {@code area} es LAC (GSM/WCDMA/TD-SCDMA), TAC (LTE/NR) o NID (CDMA); {@code cid} es el cell id o
+ * el BID de CDMA; {@code physId} es BSIC, PSC o PCI; en CDMA {@code mnc} lleva el SID.
+ * Los ausentes se marcan con {@link DataPoint#NO_VALUE} ({@link #NO_CID} para {@code cid}).
+ */
+final class CellObservation {
+
+    static final byte GSM = 1;
+    static final byte WCDMA = 2;
+    static final byte LTE = 3;
+    static final byte NR = 4;
+    static final byte CDMA = 5;
+    static final byte TDSCDMA = 6;
+
+    static final long NO_CID = Long.MIN_VALUE;
+
+    byte type;
+    boolean registered;
+    String mcc;
+    String mnc;
+    int area = DataPoint.NO_VALUE;
+    long cid = NO_CID;
+    int physId = DataPoint.NO_VALUE;
+    int channel = DataPoint.NO_VALUE;
+    int dbm = DataPoint.NO_VALUE;
+    int level = DataPoint.NO_VALUE;
+    int asu = DataPoint.NO_VALUE;
+    int rsrp = DataPoint.NO_VALUE;
+    int rsrq = DataPoint.NO_VALUE;
+
+    private String key;
+
+    /**
+     * Identidad estable de la celda para los diffs entre ticks. Con identidad global (MCC/MNC/área/
+     * cid) se usa esa; las vecinas LTE/NR suelen traer solo PCI y canal.
+     */
+    String key() {
+        if (key == null) {
+            key = cid != NO_CID
+                    ? typeName() + "-" + mcc + "-" + mnc + "-" + area + "-" + cid
+                    : typeName() + "-p" + physId + "-c" + channel;
+        }
+        return key;
+    }
+
+    boolean hasGlobalId() {
+        return cid != NO_CID && mcc != null && mnc != null && area != DataPoint.NO_VALUE;
+    }
+
+    String typeName() {
+        switch (type) {
+            case GSM: return "GSM";
+            case WCDMA: return "WCDMA";
+            case LTE: return "LTE";
+            case NR: return "NR";
+            case CDMA: return "CDMA";
+            case TDSCDMA: return "TDSCDMA";
+            default: return "DESCONOCIDA";
+        }
+    }
+
+    // --- Formato binario (sección de celdas del registro de la caja negra) ---
+
+    void writeTo(ByteBuffer buf) {
+        buf.put(type)
+                .put((byte) (registered ? 1 : 0));
+        putString(buf, mcc);
+        putString(buf, mnc);
+        buf.putInt(area)
+                .putLong(cid)
+                .putInt(physId)
+                .putInt(channel)
+                .putInt(dbm)
+                .putInt(level)
+                .putInt(asu)
+                .putInt(rsrp)
+                .putInt(rsrq);
+    }
+
+    int encodedSize() {
+        return 2 + stringSize(mcc) + stringSize(mnc) + 4 + 8 + 4 * 7;
+    }
+
+    static CellObservation readFrom(ByteBuffer buf) {
+        CellObservation c = new CellObservation();
+        c.type = buf.get();
+        c.registered = buf.get() != 0;
+        c.mcc = getString(buf);
+        c.mnc = getString(buf);
+        c.area = buf.getInt();
+        c.cid = buf.getLong();
+        c.physId = buf.getInt();
+        c.channel = buf.getInt();
+        c.dbm = buf.getInt();
+        c.level = buf.getInt();
+        c.asu = buf.getInt();
+        c.rsrp = buf.getInt();
+        c.rsrq = buf.getInt();
+        return c;
+    }
+
+    // Cadenas cortas: longitud en un byte, 0xFF = null
+    static void putString(ByteBuffer buf, String value) {
+        if (value == null) {
+            buf.put((byte) 0xFF);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length >= 0xFF) throw new IllegalArgumentException("Cadena demasiado larga: " + value);
+        buf.put((byte) bytes.length).put(bytes);
+    }
+
+    static String getString(ByteBuffer buf) {
+        int length = buf.get() & 0xFF;
+        if (length == 0xFF) return null;
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static int stringSize(String value) {
+        return 1 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+}
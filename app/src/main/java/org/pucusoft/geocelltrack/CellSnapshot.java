@@ -0,0 +1,98 @@
+package org.pucusoft.geocelltrack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Celdas de un punto. Al recolectar es la lista completa de celdas visibles; después de
+ * {@link CellListDiffer} puede ser un diff: solo las celdas nuevas o con cambios, más las claves de
+ * las que desaparecieron. La servidora siempre va incluida.
+ *
+ * La posición estimada por {@link CellTrilateration} se calcula sobre la lista completa, antes del
+ * diff, y viaja con el snapshot.
+ */
+final class CellSnapshot {
+
+    private static final String[] NO_KEYS = new String[0];
+
+    CellObservation[] cells;
+    boolean fullList = true;
+    String[] removed = NO_KEYS;
+    int visible;
+    int registered;
+
+    // Posición estimada con las antenas (grados × 1e7, como DataPoint); radio NaN = sin estimación
+    int positionLatE7 = DataPoint.NO_VALUE;
+    int positionLonE7 = DataPoint.NO_VALUE;
+    float positionRadiusM = Float.NaN;
+    int positionCells;
+
+    static CellSnapshot full(CellObservation[] cells) {
+        CellSnapshot snapshot = new CellSnapshot();
+        snapshot.cells = cells;
+        snapshot.visible = cells.length;
+        for (CellObservation c : cells) if (c.registered) snapshot.registered++;
+        return snapshot;
+    }
+
+    /** Celda servidora (la primera registrada) o null. */
+    CellObservation serving() {
+        for (CellObservation c : cells) if (c.registered) return c;
+        return null;
+    }
+
+    void setPosition(double lat, double lon, float radiusM, int cells) {
+        positionLatE7 = DataPoint.toE7(lat);
+        positionLonE7 = DataPoint.toE7(lon);
+        positionRadiusM = radiusM;
+        positionCells = cells;
+    }
+
+    boolean hasPosition() {
+        return !Float.isNaN(positionRadiusM);
+    }
+
+    // --- Formato binario ---
+
+    void writeTo(ByteBuffer buf) {
+        buf.put((byte) (fullList ? 1 : 0))
+                .putShort((short) visible)
+                .putShort((short) registered)
+                .putShort((short) cells.length);
+        for (CellObservation c : cells) c.writeTo(buf);
+        buf.putShort((short) removed.length);
+        for (String key : removed) CellObservation.putString(buf, key);
+        buf.putInt(positionLatE7)
+                .putInt(positionLonE7)
+                .putFloat(positionRadiusM)
+                .put((byte) positionCells);
+    }
+
+    int encodedSize() {
+        int size = 1 + 2 + 2 + 2 + 2 + 4 + 4 + 4 + 1;
+        for (CellObservation c : cells) size += c.encodedSize();
+        for (String key : removed) size += CellObservation.stringSize(key);
+        return size;
+    }
+
+    /** Lee un snapshot; {@code withPosition} es false para registros v2, anteriores a la estimación. */
+    static CellSnapshot readFrom(ByteBuffer buf, boolean withPosition) {
+        CellSnapshot snapshot = new CellSnapshot();
+        snapshot.fullList = buf.get() != 0;
+        snapshot.visible = buf.getShort() & 0xFFFF;
+        snapshot.registered = buf.getShort() & 0xFFFF;
+        snapshot.cells = new CellObservation[buf.getShort() & 0xFFFF];
+        for (int i = 0; i < snapshot.cells.length; i++) snapshot.cells[i] = CellObservation.readFrom(buf);
+        int removed = buf.getShort() & 0xFFFF;
+        if (removed > 0) {
+            snapshot.removed = new String[removed];
+            for (int i = 0; i < removed; i++) snapshot.removed[i] = CellObservation.getString(buf);
+        }
+        if (withPosition) {
+            snapshot.positionLatE7 = buf.getInt();
+            snapshot.positionLonE7 = buf.getInt();
+            snapshot.positionRadiusM = buf.getFloat();
+            snapshot.positionCells = buf.get() & 0xFF;
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,181 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base local de ubicaciones de antenas (BTS), sin red: archivo binario ordenado, mapeado en memoria
+ * y consultado con búsqueda binaria.
+ *
+ * Formato (big-endian), generado por {@link CellTowerIndexBuilder}:
+ * <pre>
+ *   cabecera  [magic "GCTI":int][versión:short][flags:short][cantidad:int][fuente: 1 byte largo + 19 bytes]
+ *   registro  [mcc:short][mnc:short][área:int][cid:long][lat E7:int][lon E7:int]   (24 bytes)
+ * </pre>
+ * Los registros están ordenados por (mcc, mnc, área, cid) sin duplicados. Para CDMA la clave es
+ * (mcc, SID, NID, BID), igual que en los dumps de OpenCelliD y en {@link CellObservation}.
+ *
+ * Una consulta son ~log2(n) lecturas absolutas sobre el mapeo: no asigna memoria ni hace I/O
+ * explícito (las páginas las trae el kernel). Es inmutable y thread-safe.
+ */
+final class CellTowerIndex {
+
+    static final String FILE_NAME = "celltowers.idx";
+
+    static final int MAGIC = 0x47435449; // "GCTI"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 24;
+    static final int SOURCE_MAX_BYTES = 19;
+    // flags: las coordenadas son estimaciones (p. ej. centroides de mediciones colaborativas)
+    static final short FLAG_ESTIMATED = 1;
+
+    private static final double E7 = 1e7;
+
+    private static final Map<String, CellTowerIndex> SHARED = new HashMap<>();
+
+    private final ByteBuffer map;
+    private final int count;
+    private final boolean estimated;
+    private final String source;
+    private final long fileLength;
+    private final long fileModified;
+
+    private CellTowerIndex(ByteBuffer map, int count, boolean estimated, String source,
+                           long fileLength, long fileModified) {
+        this.map = map;
+        this.count = count;
+        this.estimated = estimated;
+        this.source = source;
+        this.fileLength = fileLength;
+        this.fileModified = fileModified;
+    }
+
+    /** Mapea el índice en modo solo lectura. Falla si el archivo no tiene el formato esperado. */
+    static CellTowerIndex open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_SIZE) throw new IOException("Índice de antenas truncado: " + file);
+            // El mapeo sigue siendo válido después de cerrar el canal
+            ByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+            if (map.getInt(0) != MAGIC) throw new IOException("No es un índice de antenas: " + file);
+            short version = map.getShort(4);
+            if (version != VERSION) throw new IOException("Versión de índice no soportada: " + version);
+            short flags = map.getShort(6);
+            int count = map.getInt(8);
+            if (count < 0 || HEADER_SIZE + (long) count * RECORD_SIZE != length) {
+                throw new IOException("Índice de antenas inconsistente (" + count + " registros, "
+                        + length + " bytes): " + file);
+            }
+            int sourceLength = map.get(12) & 0xFF;
+            String source = null;
+            if (sourceLength > 0 && sourceLength <= SOURCE_MAX_BYTES) {
+                byte[] bytes = new byte[sourceLength];
+                for (int i = 0; i < sourceLength; i++) bytes[i] = map.get(13 + i);
+                source = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return new CellTowerIndex(map, count, (flags & FLAG_ESTIMATED) != 0, source,
+                    length, file.lastModified());
+        }
+    }
+
+    /**
+     * Índice compartido del proceso para {@code file}, o {@code null} si el archivo no existe.
+     * Se vuelve a mapear si el archivo fue reemplazado (cambió tamaño o fecha).
+     */
+    static CellTowerIndex shared(File file) throws IOException {
+        synchronized (SHARED) {
+            String key = file.getCanonicalPath();
+            CellTowerIndex index = SHARED.get(key);
+            if (!file.isFile()) {
+                SHARED.remove(key);
+                return null;
+            }
+            if (index == null || index.fileLength != file.length() || index.fileModified != file.lastModified()) {
+                index = open(file);
+                SHARED.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /** Si las coordenadas son estimaciones y no posiciones relevadas de la antena. */
+    boolean estimated() {
+        return estimated;
+    }
+
+    /** Origen de los datos (p. ej. "opencellid"), o {@code null} si el índice no lo declara. */
+    String source() {
+        return source;
+    }
+
+    /** Índice del registro de la celda, o -1 si no está. */
+    int find(int mcc, int mnc, int area, long cid) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareAt(mid, mcc, mnc, area, cid);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Índice del registro de la celda observada, o -1 si no está o le falta identidad global. */
+    int find(CellObservation c) {
+        if (!c.hasGlobalId()) return -1;
+        int mcc = parseCode(c.mcc);
+        int mnc = parseCode(c.mnc);
+        if (mcc < 0 || mnc < 0) return -1;
+        return find(mcc, mnc, c.area, c.cid);
+    }
+
+    double lat(int index) {
+        return map.getInt(offset(index) + 16) / E7;
+    }
+
+    double lon(int index) {
+        return map.getInt(offset(index) + 20) / E7;
+    }
+
+    private int compareAt(int index, int mcc, int mnc, int area, long cid) {
+        int at = offset(index);
+        int c = Integer.compare(map.getShort(at), mcc);
+        if (c != 0) return c;
+        c = Integer.compare(map.getShort(at + 2), mnc);
+        if (c != 0) return c;
+        c = Integer.compare(map.getInt(at + 4), area);
+        if (c != 0) return c;
+        return Long.compare(map.getLong(at + 8), cid);
+    }
+
+    private static int offset(int index) {
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    // MCC/MNC llegan como texto ("716", "06"); se comparan como número, igual que en los dumps CSV
+    static int parseCode(String code) {
+        if (code == null || code.isEmpty() || code.length() > 3) return -1;
+        int value = 0;
+        for (int i = 0; i < code.length(); i++) {
+            char ch = code.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+}
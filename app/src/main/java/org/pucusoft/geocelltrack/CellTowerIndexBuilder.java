@@ -0,0 +1,275 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Convierte dumps CSV de antenas (OpenCelliD / Mozilla Location Service) al formato de
+ * {@link CellTowerIndex}.
+ *
+ * Columnas reconocidas por nombre en la cabecera: {@code mcc}, {@code net|mnc}, {@code area|lac|tac},
+ * {@code cell|cid|cell_id}, {@code lat}, {@code lon}. Sin cabecera se asume el orden de OpenCelliD
+ * ({@code radio,mcc,net,area,cell,unit,lon,lat,...}). Las filas inválidas se descartan y, ante
+ * claves repetidas, se conserva la primera.
+ *
+ * Uso: {@code CellTowerIndexBuilder <entrada.csv[.gz]> <salida.idx> [--source nombre] [--mcc 716,...] [--exact]}
+ * (también con {@code ./gradlew :tools:run --args="..."}).
+ */
+final class CellTowerIndexBuilder {
+
+    private int size;
+    private long[] keys = new long[1024];  // mcc(16) | mnc(16) | área(32)
+    private long[] cids = new long[1024];
+    private int[] lats = new int[1024];
+    private int[] lons = new int[1024];
+
+    private String source;
+    private boolean estimated = true;
+    private int[] mccFilter;
+    private long skipped;
+
+    CellTowerIndexBuilder source(String source) {
+        if (source != null && source.getBytes(StandardCharsets.UTF_8).length > CellTowerIndex.SOURCE_MAX_BYTES) {
+            throw new IllegalArgumentException("Nombre de fuente demasiado largo: " + source);
+        }
+        this.source = source;
+        return this;
+    }
+
+    /** Marca las coordenadas como estimadas (por defecto) o como posiciones relevadas. */
+    CellTowerIndexBuilder estimated(boolean estimated) {
+        this.estimated = estimated;
+        return this;
+    }
+
+    /** Conserva solo las antenas de estos MCC (p. ej. un índice por país). */
+    CellTowerIndexBuilder mccFilter(int... mccs) {
+        this.mccFilter = mccs.length == 0 ? null : mccs.clone();
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long skipped() {
+        return skipped;
+    }
+
+    /** Agrega una antena. Devuelve false si la fila no es válida o no pasa el filtro de MCC. */
+    boolean add(int mcc, int mnc, int area, long cid, double lat, double lon) {
+        if (mcc < 0 || mcc > 999 || mnc < 0 || mnc > 999 || area < 0 || cid < 0
+                || !(lat >= -90 && lat <= 90) || !(lon >= -180 && lon <= 180)
+                || (lat == 0 && lon == 0)) {
+            skipped++;
+            return false;
+        }
+        if (mccFilter != null && !contains(mccFilter, mcc)) return false;
+        if (size == keys.length) grow();
+        keys[size] = key(mcc, mnc, area);
+        cids[size] = cid;
+        lats[size] = (int) Math.round(lat * 1e7);
+        lons[size] = (int) Math.round(lon * 1e7);
+        size++;
+        return true;
+    }
+
+    /** Lee un CSV completo (la primera línea puede ser cabecera). */
+    CellTowerIndexBuilder readCsv(Reader reader) throws IOException {
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        // Orden de OpenCelliD por defecto
+        int mccCol = 1, mncCol = 2, areaCol = 3, cidCol = 4, lonCol = 6, latCol = 7;
+        String line = in.readLine();
+        if (line != null && line.toLowerCase(Locale.US).contains("mcc")) {
+            String[] header = line.toLowerCase(Locale.US).split(",", -1);
+            mccCol = column(header, "mcc");
+            mncCol = column(header, "net", "mnc");
+            areaCol = column(header, "area", "lac", "tac");
+            cidCol = column(header, "cell", "cid", "cell_id");
+            latCol = column(header, "lat");
+            lonCol = column(header, "lon");
+            line = in.readLine();
+        }
+        int maxCol = Math.max(Math.max(Math.max(mccCol, mncCol), Math.max(areaCol, cidCol)), Math.max(latCol, lonCol));
+
+        for (; line != null; line = in.readLine()) {
+            if (line.isEmpty()) continue;
+            String[] f = line.split(",", -1);
+            if (f.length <= maxCol) {
+                skipped++;
+                continue;
+            }
+            try {
+                add(Integer.parseInt(f[mccCol].trim()), Integer.parseInt(f[mncCol].trim()),
+                        Integer.parseInt(f[areaCol].trim()), Long.parseLong(f[cidCol].trim()),
+                        Double.parseDouble(f[latCol].trim()), Double.parseDouble(f[lonCol].trim()));
+            } catch (NumberFormatException e) {
+                skipped++;
+            }
+        }
+        return this;
+    }
+
+    /** Ordena, descarta duplicados y escribe el índice. Devuelve la cantidad de registros escritos. */
+    int writeTo(File file) throws IOException {
+        int[] order = sortedOrder();
+
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (i == 0 || !sameKey(order[i - 1], order[i])) order[unique++] = order[i];
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            writeHeader(out, unique);
+            for (int i = 0; i < unique; i++) {
+                int r = order[i];
+                long key = keys[r];
+                out.writeShort((int) (key >>> 48));
+                out.writeShort((int) (key >>> 32) & 0xFFFF);
+                out.writeInt((int) key);
+                out.writeLong(cids[r]);
+                out.writeInt(lats[r]);
+                out.writeInt(lons[r]);
+            }
+        }
+        if (file.exists() && !file.delete()) throw new IOException("No se pudo reemplazar " + file);
+        if (!tmp.renameTo(file)) throw new IOException("No se pudo renombrar " + tmp + " a " + file);
+        return unique;
+    }
+
+    private void writeHeader(DataOutputStream out, int count) throws IOException {
+        out.writeInt(CellTowerIndex.MAGIC);
+        out.writeShort(CellTowerIndex.VERSION);
+        out.writeShort(estimated ? CellTowerIndex.FLAG_ESTIMATED : 0);
+        out.writeInt(count);
+        byte[] name = source == null ? new byte[0] : source.getBytes(StandardCharsets.UTF_8);
+        out.writeByte(name.length);
+        out.write(name);
+        out.write(new byte[CellTowerIndex.HEADER_SIZE - 13 - name.length]);
+    }
+
+    /**
+     * Índices de las filas ordenados por clave. Merge sort sobre {@code int[]} (8 bytes por fila con el
+     * auxiliar) en vez de {@code Integer[]} con comparador, que en un dump mundial no entra en el heap.
+     * Es estable: ante claves repetidas queda primero la fila leída antes.
+     */
+    private int[] sortedOrder() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) order[i] = i;
+        int[] buffer = new int[size];
+        for (int width = 1; width < size; width *= 2) {
+            for (int lo = 0; lo < size - width; lo += 2 * width) {
+                merge(order, buffer, lo, lo + width, Math.min(lo + 2 * width, size));
+            }
+        }
+        return order;
+    }
+
+    private void merge(int[] order, int[] buffer, int lo, int mid, int hi) {
+        // Tramos ya en orden (dumps ordenados por país y operador): no hay nada que mezclar
+        if (compareRows(order[mid - 1], order[mid]) <= 0) return;
+        System.arraycopy(order, lo, buffer, lo, hi - lo);
+        int i = lo, j = mid;
+        for (int k = lo; k < hi; k++) {
+            if (i < mid && (j >= hi || compareRows(buffer[i], buffer[j]) <= 0)) {
+                order[k] = buffer[i++];
+            } else {
+                order[k] = buffer[j++];
+            }
+        }
+    }
+
+    private int compareRows(int a, int b) {
+        int c = compareKeys(keys[a], keys[b]);
+        return c != 0 ? c : Long.compare(cids[a], cids[b]);
+    }
+
+    private boolean sameKey(int a, int b) {
+        return keys[a] == keys[b] && cids[a] == cids[b];
+    }
+
+    // Mismo orden que CellTowerIndex: mcc y mnc como short, área como int con signo
+    private static int compareKeys(long a, long b) {
+        int c = Integer.compare((int) (a >>> 48), (int) (b >>> 48));
+        if (c != 0) return c;
+        c = Integer.compare((int) (a >>> 32) & 0xFFFF, (int) (b >>> 32) & 0xFFFF);
+        if (c != 0) return c;
+        return Integer.compare((int) a, (int) b);
+    }
+
+    private static long key(int mcc, int mnc, int area) {
+        return ((long) mcc << 48) | ((long) mnc << 32) | (area & 0xFFFFFFFFL);
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        cids = Arrays.copyOf(cids, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        lons = Arrays.copyOf(lons, capacity);
+    }
+
+    private static int column(String[] header, String... names) throws IOException {
+        for (int i = 0; i < header.length; i++) {
+            String h = header[i].trim();
+            for (String name : names) if (h.equals(name)) return i;
+        }
+        throw new IOException("Falta la columna " + names[0] + " en la cabecera del CSV");
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) if (v == value) return true;
+        return false;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: CellTowerIndexBuilder <entrada.csv[.gz]> <salida.idx> "
+                    + "[--source nombre] [--mcc 716,...] [--exact]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        CellTowerIndexBuilder builder = new CellTowerIndexBuilder().source("opencellid");
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--source":
+                    builder.source(args[++i]);
+                    break;
+                case "--mcc":
+                    String[] parts = args[++i].split(",");
+                    int[] mccs = new int[parts.length];
+                    for (int j = 0; j < parts.length; j++) mccs[j] = Integer.parseInt(parts[j].trim());
+                    builder.mccFilter(mccs);
+                    break;
+                case "--exact":
+                    builder.estimated(false);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        try (InputStream raw = new FileInputStream(input);
+             InputStream in = input.getName().endsWith(".gz") ? new GZIPInputStream(raw, 1 << 16) : raw) {
+            builder.readCsv(new InputStreamReader(in, StandardCharsets.UTF_8));
+        }
+        int written = builder.writeTo(output);
+        System.out.printf(Locale.US, "%d antenas escritas en %s (%d filas descartadas, %d bytes, %.1f s)%n",
+                written, output, builder.skipped(), output.length(), (System.nanoTime() - start) / 1e9);
+    }
+}
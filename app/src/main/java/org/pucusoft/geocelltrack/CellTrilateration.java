@@ -0,0 +1,202 @@
+package org.pucusoft.geocelltrack;
+
+/**
+ * Estima la posición del dispositivo a partir de las celdas visibles y la ubicación de sus antenas
+ * ({@link CellTowerIndex}), sin GPS ni red.
+ *
+ * Cada celda con antena conocida da un ancla y una distancia estimada con un modelo log-distancia
+ * sobre su potencia (RSSI/RSCP o RSRP según la tecnología). Con una o dos anclas el resultado es el
+ * centroide ponderado; con tres o más se refina por mínimos cuadrados (Gauss-Newton) partiendo del
+ * centroide. El radio de error combina el residuo del ajuste con la incertidumbre del modelo.
+ *
+ * No asigna memoria por llamada: los buffers son de la instancia y el resultado queda en sus campos.
+ * Una instancia por hilo.
+ */
+final class CellTrilateration {
+
+    static final int MAX_ANCHORS = 16;
+    static final int MIN_ANCHORS_TRIANGULATION = 3;
+
+    // Modelo log-distancia: potencia de referencia a REF_DISTANCE_M y exponente de pérdida urbano
+    static final double REF_DISTANCE_M = 100;
+    static final double REF_DBM_RSSI = -55;   // GSM/CDMA (RSSI), WCDMA/TD-SCDMA (RSCP)
+    static final double REF_DBM_RSRP = -75;   // LTE/NR: potencia por elemento de recurso
+    static final double PATH_LOSS_EXPONENT = 3.2;
+    static final double MIN_RANGE_M = 50;
+    static final double MAX_RANGE_M = 35_000;
+    // Con ~6 dB de shadowing la distancia estimada tiene un error del orden de la mitad
+    static final double SHADOWING_FRACTION = 0.5;
+
+    static final int MAX_ITERATIONS = 10;
+    static final double CONVERGED_M = 1.0;
+
+    private static final double EARTH_RADIUS_M = 6_371_008.8;
+    private static final double DEG = Math.PI / 180;
+
+    private final CellTowerIndex towers;
+
+    // Anclas en metros sobre un plano local centrado en la primera antena
+    private final int[] tower = new int[MAX_ANCHORS];
+    private final double[] x = new double[MAX_ANCHORS];
+    private final double[] y = new double[MAX_ANCHORS];
+    private final double[] range = new double[MAX_ANCHORS];
+    private final double[] weight = new double[MAX_ANCHORS];
+    private double solvedX;
+    private double solvedY;
+
+    // Resultado de la última estimación
+    double lat;
+    double lon;
+    double radiusM;
+    int anchors;
+
+    CellTrilateration(CellTowerIndex towers) {
+        this.towers = towers;
+    }
+
+    /** Si la última estimación usó suficientes anclas para multilateración. */
+    boolean triangulated() {
+        return anchors >= MIN_ANCHORS_TRIANGULATION;
+    }
+
+    /** Estima la posición y la guarda en el snapshot. Devuelve false si ninguna antena es conocida. */
+    boolean applyTo(CellSnapshot snapshot) {
+        if (snapshot == null || !estimate(snapshot.cells)) return false;
+        snapshot.setPosition(lat, lon, (float) radiusM, anchors);
+        return true;
+    }
+
+    /** Estima la posición con las celdas dadas. Devuelve false si ninguna antena es conocida. */
+    boolean estimate(CellObservation[] cells) {
+        int n = collectAnchors(cells);
+        anchors = n;
+        if (n == 0) return false;
+
+        // Centroide ponderado (más peso a las antenas más cercanas)
+        double sw = 0, cx = 0, cy = 0;
+        for (int i = 0; i < n; i++) {
+            double w = 1 / range[i];
+            sw += w;
+            cx += w * x[i];
+            cy += w * y[i];
+        }
+        cx /= sw;
+        cy /= sw;
+
+        double px = cx, py = cy;
+        if (n >= MIN_ANCHORS_TRIANGULATION && solve(n, cx, cy)) {
+            px = solvedX;
+            py = solvedY;
+        }
+        radiusM = errorRadius(n, px, py);
+
+        double lat0 = towers.lat(tower[0]);
+        double lon0 = towers.lon(tower[0]);
+        lat = lat0 + py / EARTH_RADIUS_M / DEG;
+        lon = lon0 + px / (EARTH_RADIUS_M * Math.cos(lat0 * DEG)) / DEG;
+        return true;
+    }
+
+    /**
+     * Gauss-Newton sobre sum w_i (|p - a_i| - d_i)^2 con w_i = 1/d_i^2 (error relativo a la
+     * distancia). Devuelve false si el sistema es degenerado (anclas colineales) o diverge.
+     */
+    private boolean solve(int n, double startX, double startY) {
+        double px = startX, py = startY;
+        for (int iter = 0; iter < MAX_ITERATIONS; iter++) {
+            double a11 = 0, a12 = 0, a22 = 0, b1 = 0, b2 = 0;
+            for (int i = 0; i < n; i++) {
+                double dx = px - x[i];
+                double dy = py - y[i];
+                double r = Math.max(Math.sqrt(dx * dx + dy * dy), 1);
+                double jx = dx / r;
+                double jy = dy / r;
+                double res = r - range[i];
+                double w = weight[i];
+                a11 += w * jx * jx;
+                a12 += w * jx * jy;
+                a22 += w * jy * jy;
+                b1 -= w * jx * res;
+                b2 -= w * jy * res;
+            }
+            double det = a11 * a22 - a12 * a12;
+            if (Math.abs(det) < 1e-12 * (a11 + a22) * (a11 + a22)) return false;
+            double stepX = (a22 * b1 - a12 * b2) / det;
+            double stepY = (a11 * b2 - a12 * b1) / det;
+            px += stepX;
+            py += stepY;
+            if (Double.isNaN(px) || Double.isNaN(py)) return false;
+            if (Math.abs(stepX) + Math.abs(stepY) < CONVERGED_M) break;
+        }
+        // Un ajuste que se aleja más que la mayor distancia modelada no es creíble
+        double maxRange = 0;
+        for (int i = 0; i < n; i++) maxRange = Math.max(maxRange, range[i]);
+        if (Math.hypot(px - startX, py - startY) > 2 * maxRange) return false;
+        solvedX = px;
+        solvedY = py;
+        return true;
+    }
+
+    private double errorRadius(int n, double px, double py) {
+        double sw = 0, sr = 0, minRange = Double.MAX_VALUE;
+        for (int i = 0; i < n; i++) {
+            double res = Math.hypot(px - x[i], py - y[i]) - range[i];
+            double w = 1 / range[i];
+            sw += w;
+            sr += w * res * res;
+            minRange = Math.min(minRange, range[i]);
+        }
+        return Math.max(Math.sqrt(sr / sw), Math.max(SHADOWING_FRACTION * minRange, MIN_RANGE_M));
+    }
+
+    private int collectAnchors(CellObservation[] cells) {
+        if (towers == null || cells == null) return 0;
+        int n = 0;
+        double lat0 = 0, lon0 = 0, cosLat0 = 1;
+        for (int c = 0; c < cells.length && n < MAX_ANCHORS; c++) {
+            CellObservation cell = cells[c];
+            int signal = signalDbm(cell);
+            if (signal == DataPoint.NO_VALUE) continue;
+            int t = towers.find(cell);
+            if (t < 0 || contains(tower, n, t)) continue;
+
+            double tLat = towers.lat(t);
+            double tLon = towers.lon(t);
+            if (n == 0) {
+                lat0 = tLat;
+                lon0 = tLon;
+                cosLat0 = Math.cos(lat0 * DEG);
+            }
+            double ax = (tLon - lon0) * DEG * EARTH_RADIUS_M * cosLat0;
+            double ay = (tLat - lat0) * DEG * EARTH_RADIUS_M;
+            // Una antena a más de dos radios máximos de la primera es un dato erróneo de la base
+            if (Math.hypot(ax, ay) > 2 * MAX_RANGE_M) continue;
+
+            double d = rangeM(cell.type, signal);
+            tower[n] = t;
+            x[n] = ax;
+            y[n] = ay;
+            range[n] = d;
+            weight[n] = 1 / (d * d);
+            n++;
+        }
+        return n;
+    }
+
+    /** Distancia estimada a la antena según el modelo log-distancia, acotada a un rango físico. */
+    static double rangeM(byte type, int dbm) {
+        double ref = type == CellObservation.LTE || type == CellObservation.NR ? REF_DBM_RSRP : REF_DBM_RSSI;
+        double d = REF_DISTANCE_M * Math.pow(10, (ref - dbm) / (10 * PATH_LOSS_EXPONENT));
+        return Math.min(Math.max(d, MIN_RANGE_M), MAX_RANGE_M);
+    }
+
+    private static int signalDbm(CellObservation c) {
+        if (c.dbm != DataPoint.NO_VALUE) return c.dbm;
+        return c.type == CellObservation.LTE || c.type == CellObservation.NR ? c.rsrp : DataPoint.NO_VALUE;
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) if (values[i] == value) return true;
+        return false;
+    }
+}
@@ -0,0 +1,105 @@
+package org.pucusoft.geocelltrack;
+
+/**
+ * Disyuntor para la subida: tras {@code failureThreshold} fallas seguidas se abre y, mientras está
+ * abierto, las escrituras no se intentan (los puntos van directo a la caja negra). Pasado el
+ * enfriamiento deja pasar una sola escritura de prueba (semiabierto): si se confirma vuelve a
+ * cerrarse; si falla se abre de nuevo con el doble de enfriamiento, hasta {@code maxOpenMs}.
+ *
+ * {@link #reset()} permite una prueba inmediata, p. ej. cuando vuelve la red. Los tiempos son de
+ * un reloj monótono que pasa quien llama (en Android, {@code SystemClock.elapsedRealtime()}).
+ *
+ * Sin dependencias de Android. No es thread-safe; se usa desde el hilo del pipeline.
+ */
+final class CircuitBreaker {
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 3;
+    static final long DEFAULT_OPEN_MS = 30_000;
+    static final long DEFAULT_MAX_OPEN_MS = 10 * 60_000;
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long baseOpenMs;
+    private final long maxOpenMs;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openMs;
+    private long openUntilMs;
+    private boolean probeInFlight;
+    private long rejected;
+    private long trips;
+
+    CircuitBreaker(int failureThreshold, long openMs, long maxOpenMs) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.baseOpenMs = Math.max(0, openMs);
+        this.maxOpenMs = Math.max(this.baseOpenMs, maxOpenMs);
+        this.openMs = this.baseOpenMs;
+    }
+
+    /** true si la escritura se puede intentar ahora; en semiabierto, solo la primera. */
+    boolean allowRequest(long nowMs) {
+        if (state == State.OPEN && nowMs >= openUntilMs) state = State.HALF_OPEN;
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (!probeInFlight) {
+                    probeInFlight = true;
+                    return true;
+                }
+                rejected++;
+                return false;
+            default:
+                rejected++;
+                return false;
+        }
+    }
+
+    void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        openMs = baseOpenMs;
+        probeInFlight = false;
+    }
+
+    void onFailure(long nowMs) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            openMs = Math.min(maxOpenMs, openMs * 2);
+            open(nowMs);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(nowMs);
+        }
+    }
+
+    /** Termina el enfriamiento: la próxima escritura sale como prueba. */
+    void reset() {
+        if (state == State.CLOSED) return;
+        state = State.HALF_OPEN;
+        probeInFlight = false;
+        openUntilMs = 0;
+    }
+
+    State state(long nowMs) {
+        return state == State.OPEN && nowMs >= openUntilMs ? State.HALF_OPEN : state;
+    }
+
+    /** Escrituras que no se intentaron por estar abierto. */
+    long rejected() {
+        return rejected;
+    }
+
+    /** Veces que se abrió. */
+    long trips() {
+        return trips;
+    }
+
+    private void open(long nowMs) {
+        state = State.OPEN;
+        openUntilMs = nowMs + openMs;
+        probeInFlight = false;
+        trips++;
+    }
+}
@@ -0,0 +1,92 @@
+package org.pucusoft.geocelltrack;
+
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Estado de la red por defecto a partir de los callbacks de {@link ConnectivityManager}, sin
+ * consultar al sistema en cada tick. Se considera en línea una red con salida a internet validada
+ * por el sistema (un portal cautivo o una red sin salida cuentan como fuera de línea).
+ *
+ * Los cambios se avisan en el {@link Handler} indicado, solo cuando el estado cambia.
+ */
+final class ConnectivityMonitor {
+
+    private static final String TAG = "ConnectivityMonitor";
+
+    interface Listener {
+        void onConnectivityChanged(boolean online);
+    }
+
+    private final ConnectivityManager connectivityManager;
+    private final Handler handler;
+    private final Listener listener;
+    private volatile boolean online;
+    private boolean registered;
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+            update(isUsable(capabilities));
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            update(false);
+        }
+    };
+
+    ConnectivityMonitor(@NonNull ConnectivityManager connectivityManager, @NonNull Handler handler,
+                        @NonNull Listener listener) {
+        this.connectivityManager = connectivityManager;
+        this.handler = handler;
+        this.listener = listener;
+    }
+
+    /** Toma el estado actual y empieza a escuchar los cambios de la red por defecto. */
+    void start() {
+        if (registered) return;
+        Network active = connectivityManager.getActiveNetwork();
+        online = active != null && isUsable(connectivityManager.getNetworkCapabilities(active));
+        try {
+            connectivityManager.registerDefaultNetworkCallback(callback, handler);
+            registered = true;
+        } catch (RuntimeException e) {
+            // Límite de callbacks por app: sin monitor, se asume en línea y decide el disyuntor
+            Log.w(TAG, "No se pudo registrar el callback de red", e);
+            online = true;
+        }
+    }
+
+    void stop() {
+        if (!registered) return;
+        registered = false;
+        try {
+            connectivityManager.unregisterNetworkCallback(callback);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Callback de red ya liberado", e);
+        }
+    }
+
+    boolean isOnline() {
+        return online;
+    }
+
+    private void update(boolean nowOnline) {
+        if (nowOnline == online) return;
+        online = nowOnline;
+        Log.d(TAG, nowOnline ? "Red disponible" : "Sin red");
+        listener.onConnectivityChanged(nowOnline);
+    }
+
+    private static boolean isUsable(NetworkCapabilities capabilities) {
+        return capabilities != null
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+    }
+}
@@ -0,0 +1,113 @@
+package org.pucusoft.geocelltrack;
+
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Wake lock acotado a cada ciclo recolectar → codificar → subir.
+ *
+ * Cada ciclo toma el wake lock con {@link #begin(String)} y lo suelta con {@link Cycle#end()} en su
+ * paso terminal (subida confirmada, caja negra, punto suprimido). Los ciclos que se solapan (un
+ * lote de ubicación mientras sigue pendiente la subida anterior) comparten el mismo wake lock: se
+ * toma al abrir el primero y se suelta al cerrar el último.
+ *
+ * Todo ciclo tiene un tope duro de {@link #CYCLE_TIMEOUT_MS}: el propio wake lock se pide con ese
+ * timeout (lo hace cumplir el sistema aunque el proceso se trabe) y además el ciclo se cierra solo
+ * al vencer, por ejemplo si Firebase nunca responde sin red. Antes de cerrarlo se avisa al
+ * {@link TimeoutListener} del ciclo, para que el pipeline dé por fallido lo que quedó en vuelo
+ * (caja negra y disyuntor) en vez de solo soltar el wake lock. El tiempo despierto se registra en
+ * {@link WakeTimeAccounting}.
+ *
+ * Se usa solo desde el hilo del pipeline.
+ */
+final class CycleWakeLock {
+
+    private static final String TAG = "CycleWakeLock";
+
+    static final long CYCLE_TIMEOUT_MS = 30 * 1000;
+
+    @Nullable private final PowerManager.WakeLock wakeLock;
+    private final Handler handler;
+    private final WakeTimeAccounting accounting;
+
+    private int activeCycles;
+    private long heldSinceElapsed;
+
+    interface TimeoutListener {
+        /** El ciclo venció sin llegar a su paso terminal; se cierra apenas vuelve esta llamada. */
+        void onCycleTimeout(Cycle cycle);
+    }
+
+    /** Un ciclo abierto. {@link #end()} es idempotente. */
+    final class Cycle {
+        private final String name;
+        @Nullable private final TimeoutListener onTimeout;
+        private boolean ended;
+        private final Runnable timeout = new Runnable() {
+            @Override
+            public void run() {
+                if (ended) return;
+                Log.w(TAG, "Ciclo '" + name + "' superó " + CYCLE_TIMEOUT_MS / 1000 + " s. Se suelta el wake lock.");
+                accounting.onCycleTimedOut();
+                if (onTimeout != null) onTimeout.onCycleTimeout(Cycle.this);
+                end();
+            }
+        };
+
+        private Cycle(String name, @Nullable TimeoutListener onTimeout) {
+            this.name = name;
+            this.onTimeout = onTimeout;
+        }
+
+        void end() {
+            if (ended) return;
+            ended = true;
+            handler.removeCallbacks(timeout);
+            // Tras releaseAll() los ciclos viejos ya no cuentan
+            if (activeCycles > 0 && --activeCycles == 0) release();
+        }
+    }
+
+    CycleWakeLock(@Nullable PowerManager powerManager, Handler handler, WakeTimeAccounting accounting) {
+        this.handler = handler;
+        this.accounting = accounting;
+        if (powerManager != null) {
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GeoCellTrack::TrackerCycle");
+            // Un solo nivel: el conteo de ciclos lo lleva esta clase
+            wakeLock.setReferenceCounted(false);
+        } else {
+            wakeLock = null;
+        }
+    }
+
+    /** @param onTimeout se llama en el hilo del pipeline si el ciclo vence, antes de cerrarlo */
+    Cycle begin(String name, @Nullable TimeoutListener onTimeout) {
+        Cycle cycle = new Cycle(name, onTimeout);
+        accounting.onCycleStarted();
+        if (activeCycles++ == 0) heldSinceElapsed = SystemClock.elapsedRealtime();
+        // Sin conteo de referencias, cada acquire renueva el timeout del sistema para el ciclo más nuevo
+        if (wakeLock != null) wakeLock.acquire(CYCLE_TIMEOUT_MS);
+        handler.postDelayed(cycle.timeout, CYCLE_TIMEOUT_MS);
+        return cycle;
+    }
+
+    int activeCycles() {
+        return activeCycles;
+    }
+
+    /** Cierra todo al destruir el servicio. */
+    void releaseAll() {
+        if (activeCycles == 0) return;
+        activeCycles = 0;
+        release();
+    }
+
+    private void release() {
+        accounting.onAwake(SystemClock.elapsedRealtime() - heldSinceElapsed);
+        if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+    }
+}
@@ -0,0 +1,209 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.lang.reflect.Type;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Punto de rastreo tipado con campos primitivos (sin HashMap ni Double en caja por tick).
+ *
+ * Coordenadas en grados × 1e7 ({@code int}, precisión ~1 cm); los valores ausentes se marcan con
+ * {@link #NO_VALUE} (enteros) o {@code NaN} (flotantes). Los bloques {@code hardware} y {@code sim}
+ * son estáticos durante la sesión: todos los puntos comparten la misma instancia, no se copian.
+ *
+ * El formato binario de {@link #encode()} es el que se guarda en la caja negra; el payload que
+ * se sube lo arma {@link PayloadEncoder}.
+ */
+final class DataPoint {
+
+    static final int NO_VALUE = Integer.MIN_VALUE;
+    static final String FIELD_SEQ = "seq";
+
+    // v2 agrega la sección de celdas al final; v3 la posición estimada por celdas; v4 el origen de la
+    // ubicación. Las versiones anteriores se siguen leyendo
+    static final byte FORMAT_VERSION = 4;
+    static final byte FORMAT_VERSION_V3 = 3;
+    static final byte FORMAT_VERSION_V2 = 2;
+    static final byte FORMAT_VERSION_V1 = 1;
+
+    // Origen de lat/lon: fix crudo del proveedor, fix suavizado por KalmanSmoother, o solo celdas suavizadas
+    static final byte LOCATION_FUSED = 0;
+    static final byte LOCATION_SMOOTHED = 1;
+    static final byte LOCATION_CELLS = 2;
+
+    // versión + seq + timestamp + lat + lon + 4 floats + fixTime + dbm
+    static final int FIXED_SIZE = 1 + 8 + 8 + 4 + 4 + 4 * 4 + 8 + 4;
+
+    private static final Gson GSON = new Gson();
+    private static final Type BLOCK_TYPE = new TypeToken<Map<String, Object>>(){}.getType();
+
+    long seq;
+    long timestampMs;
+
+    int latE7 = NO_VALUE;
+    int lonE7 = NO_VALUE;
+    float accuracyM = Float.NaN;
+    float altitudeM = Float.NaN;
+    float speedMps = Float.NaN;
+    float bearingDeg = Float.NaN;
+    long fixTimeMs;
+    byte locationSource = LOCATION_FUSED;
+
+    int dbm = NO_VALUE;
+
+    Map<String, Object> hardware;
+    Map<String, Object> sim;
+
+    // Celdas del tick (null si no hay lectura de celdas)
+    CellSnapshot cells;
+
+    boolean hasLocation() {
+        return latE7 != NO_VALUE && lonE7 != NO_VALUE;
+    }
+
+    void setLocation(double lat, double lon) {
+        latE7 = toE7(lat);
+        lonE7 = toE7(lon);
+    }
+
+    double lat() { return latE7 / 1e7; }
+
+    double lon() { return lonE7 / 1e7; }
+
+    static int toE7(double degrees) {
+        return (int) Math.round(degrees * 1e7);
+    }
+
+    // --- Formato binario de la caja negra ---
+
+    byte[] encode() {
+        byte[] hw = encodeBlock(hardware);
+        byte[] sm = encodeBlock(sim);
+        int cellsSize = 1 + (cells != null ? cells.encodedSize() : 0);
+        ByteBuffer buf = ByteBuffer.allocate(FIXED_SIZE + 4 + hw.length + sm.length + cellsSize + 1);
+        buf.put(FORMAT_VERSION)
+                .putLong(seq)
+                .putLong(timestampMs)
+                .putInt(latE7)
+                .putInt(lonE7)
+                .putFloat(accuracyM)
+                .putFloat(altitudeM)
+                .putFloat(speedMps)
+                .putFloat(bearingDeg)
+                .putLong(fixTimeMs)
+                .putInt(dbm);
+        buf.putShort((short) hw.length).put(hw);
+        buf.putShort((short) sm.length).put(sm);
+        if (cells != null) {
+            buf.put((byte) 1);
+            cells.writeTo(buf);
+        } else {
+            buf.put((byte) 0);
+        }
+        buf.put(locationSource);
+        return buf.array();
+    }
+
+    static boolean isBinaryRecord(byte[] record) {
+        return record.length >= FIXED_SIZE && record[0] >= FORMAT_VERSION_V1 && record[0] <= FORMAT_VERSION;
+    }
+
+    /** Origen de la ubicación (desde v4); los registros anteriores solo tenían fixes crudos. */
+    static byte decodeLocationSource(byte version, ByteBuffer buf) {
+        return version > FORMAT_VERSION_V3 ? buf.get() : LOCATION_FUSED;
+    }
+
+    /** Sección de celdas (desde v2); null si el registro no trae celdas. */
+    static CellSnapshot decodeCells(byte version, ByteBuffer buf) {
+        if (version == FORMAT_VERSION_V1 || buf.get() == 0) return null;
+        return CellSnapshot.readFrom(buf, version > FORMAT_VERSION_V2);
+    }
+
+    /**
+     * Decodifica un registro de la caja negra. También acepta los registros JSON que guardaban
+     * versiones anteriores. Devuelve null si el registro es ilegible.
+     */
+    static DataPoint decode(byte[] record) {
+        if (record.length > 0 && record[0] == '{') return decodeLegacyJson(record);
+        if (!isBinaryRecord(record)) return null;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            byte version = buf.get();
+            DataPoint p = new DataPoint();
+            p.seq = buf.getLong();
+            p.timestampMs = buf.getLong();
+            p.latE7 = buf.getInt();
+            p.lonE7 = buf.getInt();
+            p.accuracyM = buf.getFloat();
+            p.altitudeM = buf.getFloat();
+            p.speedMps = buf.getFloat();
+            p.bearingDeg = buf.getFloat();
+            p.fixTimeMs = buf.getLong();
+            p.dbm = buf.getInt();
+            p.hardware = decodeBlock(buf);
+            p.sim = decodeBlock(buf);
+            p.cells = decodeCells(version, buf);
+            p.locationSource = decodeLocationSource(version, buf);
+            return p;
+        } catch (BufferUnderflowException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    static byte[] encodeBlock(Map<String, Object> block) {
+        if (block == null || block.isEmpty()) return new byte[0];
+        return GSON.toJson(block).getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Map<String, Object> decodeBlock(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return parseBlock(bytes);
+    }
+
+    static Map<String, Object> parseBlock(byte[] json) {
+        if (json.length == 0) return new HashMap<>();
+        return GSON.fromJson(new String(json, StandardCharsets.UTF_8), BLOCK_TYPE);
+    }
+
+    // --- Compatibilidad con los mapas JSON de versiones anteriores ---
+
+    private static DataPoint decodeLegacyJson(byte[] record) {
+        try {
+            Map<String, Object> map = GSON.fromJson(new String(record, StandardCharsets.UTF_8), BLOCK_TYPE);
+            return map != null ? fromLegacyMap(map) : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /** Convierte un punto guardado como mapa JSON (donde Gson leyó los enteros como Double). */
+    @SuppressWarnings("unchecked")
+    static DataPoint fromLegacyMap(Map<String, Object> map) {
+        DataPoint p = new DataPoint();
+        Object seq = map.get(FIELD_SEQ);
+        p.seq = seq instanceof Number ? ((Number) seq).longValue() : -1;
+        Object ts = map.get("timestamp");
+        p.timestampMs = ts instanceof Number ? ((Number) ts).longValue() : 0;
+        Object location = map.get("location");
+        if (location instanceof Map) {
+            Object lat = ((Map<String, Object>) location).get("lat");
+            Object lon = ((Map<String, Object>) location).get("lon");
+            if (lat instanceof Number && lon instanceof Number) {
+                p.setLocation(((Number) lat).doubleValue(), ((Number) lon).doubleValue());
+            }
+        }
+        Object hardware = map.get("hardware");
+        p.hardware = hardware instanceof Map ? (Map<String, Object>) hardware : new HashMap<>();
+        Object sim = map.get("sim");
+        p.sim = sim instanceof Map ? (Map<String, Object>) sim : new HashMap<>();
+        return p;
+    }
+}
@@ -0,0 +1,77 @@
+package org.pucusoft.geocelltrack;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Estado de entrega exactly-once del dispositivo: secuencia monotónica por punto, clave determinista
+ * en Firebase y ledger en disco de secuencias ya confirmadas.
+ *
+ * Compartido por {@link TrackerService} (envío en vivo) y {@link BacklogDrainWorker} (caja negra):
+ * un punto confirmado por cualquiera de los dos no se vuelve a escribir.
+ */
+final class DeliveryLedger {
+
+    private static final String PREF_DEVICE_UUID = "device_uuid";
+    private static final String SEQUENCE_FILE = "tracker_seq";
+    private static final String LEDGER_FILE = "ack_ledger";
+
+    private static DeliveryLedger instance;
+
+    private final String deviceUuid;
+    private final String deviceTag;
+    private final SequenceGenerator sequence;
+    private final AckLedger acks;
+
+    private DeliveryLedger(String deviceUuid, SequenceGenerator sequence, AckLedger acks) {
+        this.deviceUuid = deviceUuid;
+        this.deviceTag = deviceUuid.replace("-", "").substring(0, 12);
+        this.sequence = sequence;
+        this.acks = acks;
+    }
+
+    static synchronized DeliveryLedger get(@NonNull Context context) throws IOException {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            File dir = app.getFilesDir();
+            instance = new DeliveryLedger(deviceUuid(app),
+                    SequenceGenerator.open(new File(dir, SEQUENCE_FILE)),
+                    AckLedger.open(new File(dir, LEDGER_FILE)));
+        }
+        return instance;
+    }
+
+    private static String deviceUuid(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences("GeoCellTrackPrefs", Context.MODE_PRIVATE);
+        String uuid = prefs.getString(PREF_DEVICE_UUID, null);
+        if (uuid == null) {
+            uuid = UUID.randomUUID().toString();
+            prefs.edit().putString(PREF_DEVICE_UUID, uuid).apply();
+        }
+        return uuid;
+    }
+
+    String deviceUuid() { return deviceUuid; }
+
+    String deviceTag() { return deviceTag; }
+
+    long nextSeq() throws IOException { return sequence.next(); }
+
+    String keyFor(long seq) { return SequenceGenerator.key(deviceTag, seq); }
+
+    /** Clave determinista de un punto sin secuencia (anterior al ledger), derivada de su timestamp. */
+    String legacyKeyFor(long timestampMs) { return String.format(Locale.US, "%s-t%013d", deviceTag, timestampMs); }
+
+    boolean isAcked(long seq) { return acks.isAcked(seq); }
+
+    void markAcked(long seq) throws IOException { acks.markAcked(seq); }
+
+    void markAcked(long[] seqs, int length) throws IOException { acks.markAcked(seqs, length); }
+}
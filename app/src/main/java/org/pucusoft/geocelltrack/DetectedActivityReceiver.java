@@ -18,15 +18,50 @@ public class DetectedActivityReceiver extends BroadcastReceiver {
             ActivityRecognitionResult result = ActivityRecognitionResult.extractResult(intent);
             if (result != null) {
                 DetectedActivity mostProbableActivity = result.getMostProbableActivity();
-                
-                // Aquí puedes enviar un broadcast local al servicio para que cambie el intervalo
-                // Por ahora, solo lo mostraremos en el log
                 Log.d(TAG, "Actividad Detectada: " + getActivityString(mostProbableActivity.getType()) + 
                              " (" + mostProbableActivity.getConfidence() + "%)");
+
+                // La actividad más probable puede ser TILTING/UNKNOWN: se toma la mejor que tenga modo
+                DetectedActivity best = null;
+                MotionStateMachine.Mode bestMode = null;
+                for (DetectedActivity activity : result.getProbableActivities()) {
+                    MotionStateMachine.Mode mode = toMode(activity.getType());
+                    if (mode != null && (best == null || activity.getConfidence() > best.getConfidence())) {
+                        best = activity;
+                        bestMode = mode;
+                    }
+                }
+                if (bestMode != null) forwardToService(context, bestMode, best.getConfidence());
             }
         }
     }
 
+    // El servicio mantiene la máquina de estados; el receptor solo le reenvía la lectura
+    private void forwardToService(Context context, MotionStateMachine.Mode mode, int confidence) {
+        Intent serviceIntent = new Intent(context, TrackerService.class)
+                .setAction(TrackerService.ACTION_ACTIVITY_UPDATE)
+                .putExtra(TrackerService.EXTRA_ACTIVITY_MODE, mode.name())
+                .putExtra(TrackerService.EXTRA_ACTIVITY_CONFIDENCE, confidence);
+        try {
+            context.startService(serviceIntent);
+        } catch (IllegalStateException e) {
+            // Sin servicio en primer plano no hay rastreo activo que ajustar
+            Log.w(TAG, "No se pudo entregar la actividad al servicio", e);
+        }
+    }
+
+    static MotionStateMachine.Mode toMode(int detectedActivityType) {
+        switch (detectedActivityType) {
+            case DetectedActivity.STILL: return MotionStateMachine.Mode.STILL;
+            case DetectedActivity.WALKING:
+            case DetectedActivity.ON_FOOT: return MotionStateMachine.Mode.WALKING;
+            case DetectedActivity.RUNNING:
+            case DetectedActivity.ON_BICYCLE: return MotionStateMachine.Mode.RUNNING;
+            case DetectedActivity.IN_VEHICLE: return MotionStateMachine.Mode.IN_VEHICLE;
+            default: return null; // TILTING, UNKNOWN
+        }
+    }
+
     private String getActivityString(int detectedActivityType) {
         switch (detectedActivityType) {
             case DetectedActivity.IN_VEHICLE: return "IN_VEHICLE";
@@ -0,0 +1,76 @@
+package org.pucusoft.geocelltrack;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.lifecycle.LiveData;
+
+import java.util.function.LongFunction;
+
+/**
+ * Tiempo transcurrido desde el inicio del rastreo, derivado de un único instante de inicio.
+ *
+ * Solo hace tick mientras tiene observadores activos (una pantalla visible): {@link #onActive()}
+ * publica el valor actual y agenda el siguiente en el próximo borde de segundo, y
+ * {@link #onInactive()} lo detiene. Sin observadores no hay Handler, ni despertares, ni formateo;
+ * quien necesite el valor lo calcula al momento con {@link #elapsedMs()}.
+ *
+ * Se usa desde el hilo principal, salvo {@link #elapsedMs()}, que se puede llamar desde cualquiera.
+ */
+final class ElapsedTimeLiveData<T> extends LiveData<T> {
+
+    private static final long NOT_STARTED = -1;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LongFunction<T> format;
+    private volatile long startElapsedMs = NOT_STARTED;
+
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            long elapsed = elapsedMs();
+            if (elapsed < 0) return;
+            setValue(format.apply(elapsed));
+            // Alineado al borde de segundo: un tick por cambio visible, sin deriva
+            mainHandler.postAtTime(this, SystemClock.uptimeMillis() + 1000 - elapsed % 1000);
+        }
+    };
+
+    /** @param format valor a publicar a partir de los milisegundos transcurridos */
+    ElapsedTimeLiveData(LongFunction<T> format) {
+        this.format = format;
+    }
+
+    /** Fija el inicio ({@code SystemClock.elapsedRealtime()}); si alguien observa, arranca el tick. */
+    void start(long startElapsedMs) {
+        this.startElapsedMs = startElapsedMs;
+        if (hasActiveObservers()) restartTick();
+    }
+
+    void stop() {
+        startElapsedMs = NOT_STARTED;
+        mainHandler.removeCallbacks(tick);
+    }
+
+    /** Milisegundos desde el inicio, o -1 si el rastreo no empezó. */
+    long elapsedMs() {
+        long start = startElapsedMs;
+        return start == NOT_STARTED ? NOT_STARTED : SystemClock.elapsedRealtime() - start;
+    }
+
+    @Override
+    protected void onActive() {
+        restartTick();
+    }
+
+    @Override
+    protected void onInactive() {
+        mainHandler.removeCallbacks(tick);
+    }
+
+    private void restartTick() {
+        mainHandler.removeCallbacks(tick);
+        tick.run();
+    }
+}
@@ -0,0 +1,49 @@
+package org.pucusoft.geocelltrack;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link TelemetrySink} sobre Firebase Realtime Database: cada lote es un {@code updateChildren}
+ * multi-ruta (atómico) y el latido un {@code setValue} sobre su nodo fijo.
+ */
+final class FirebaseTelemetrySink implements TelemetrySink {
+
+    private final DatabaseReference root;
+
+    FirebaseTelemetrySink(@NonNull DatabaseReference root) {
+        this.root = root;
+    }
+
+    static FirebaseTelemetrySink defaultInstance() {
+        return new FirebaseTelemetrySink(FirebaseDatabase.getInstance().getReference(ROOT));
+    }
+
+    @Override
+    public void writeBatch(String userId, Map<String, Object> points, Executor executor, Callback callback) {
+        root.child(TRACKER).child(userId).updateChildren(points)
+                .addOnSuccessListener(executor, aVoid -> callback.onAck())
+                .addOnFailureListener(executor, callback::onFailure);
+    }
+
+    @Override
+    public void writeHeartbeat(String userId, String deviceTag, Map<String, Object> heartbeat, Executor executor,
+                               Callback callback) {
+        root.child(HEARTBEATS).child(userId).child(deviceTag).setValue(heartbeat)
+                .addOnSuccessListener(executor, aVoid -> callback.onAck())
+                .addOnFailureListener(executor, callback::onFailure);
+    }
+
+    @Override
+    public void writeSession(String userId, String sessionId, Map<String, Object> header, Executor executor,
+                             Callback callback) {
+        root.child(SESSIONS).child(userId).child(sessionId).setValue(header)
+                .addOnSuccessListener(executor, aVoid -> callback.onAck())
+                .addOnFailureListener(executor, callback::onFailure);
+    }
+}
@@ -0,0 +1,261 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import okhttp3.Call;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * {@link TelemetrySink} hacia un endpoint HTTP propio: las escrituras se juntan en un lote NDJSON
+ * (las mismas líneas {@code {"ruta":...,"escrito_ms":...,"valor":{...}}} que {@link NdjsonFileSink}),
+ * se comprimen con gzip y se envían en un único POST.
+ *
+ * El lote sale cuando junta {@code maxBatchChars} caracteres sin comprimir o cuando la escritura más
+ * antigua lleva {@code maxDelayMs} esperando, lo que ocurra primero; {@link #flush()} lo envía ya.
+ * El envío en vivo y el drenado llaman a {@link #flush()} tras cada lote (ver
+ * {@link TelemetrySink#writeNow}); el disparador por tiempo agrupa latidos y cabeceras de sesión.
+ * Una escritura nunca se parte entre dos POST. Los acks dependen de la respuesta: un 2xx confirma
+ * todas las escrituras del lote y cualquier otra respuesta, o un error de red, las rechaza todas
+ * (los puntos vuelven a la caja negra). El endpoint debe aplicar cada línea como un upsert por
+ * {@code ruta}: las claves son deterministas y un reintento no duplica puntos.
+ *
+ * Thread-safe.
+ */
+final class HttpNdjsonSink implements TelemetrySink, Closeable {
+
+    static final MediaType NDJSON = MediaType.get("application/x-ndjson; charset=utf-8");
+    static final int DEFAULT_MAX_BATCH_CHARS = 256 * 1024;
+    static final long DEFAULT_MAX_DELAY_MS = 15_000;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final String authToken;
+    private final int maxBatchChars;
+    private final long maxDelayMs;
+    private final ScheduledExecutorService timer;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rawBytes = new AtomicLong();
+    private final AtomicLong sentBytes = new AtomicLong();
+
+    // Lote en formación; protegido por this
+    private StringBuilder lines = new StringBuilder();
+    private int lineCount;
+    private List<Waiter> waiters = new ArrayList<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    /** @param authToken token Bearer del endpoint, o null/vacío si no lo exige */
+    HttpNdjsonSink(OkHttpClient client, String url, String authToken, int maxBatchChars, long maxDelayMs) {
+        this.client = client;
+        this.url = url;
+        this.authToken = authToken;
+        this.maxBatchChars = Math.max(1, maxBatchChars);
+        this.maxDelayMs = Math.max(0, maxDelayMs);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "HttpNdjsonSink");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void writeBatch(String userId, Map<String, Object> points, Executor executor, Callback callback) {
+        String prefix = ROOT + "/" + TRACKER + "/" + userId + "/";
+        StringWriter out = new StringWriter(points.size() * 512);
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Object> e : points.entrySet()) {
+                NdjsonFileSink.writeLine(out, prefix + e.getKey(), now, e.getValue());
+            }
+        } catch (IOException | RuntimeException e) {
+            executor.execute(() -> callback.onFailure(e));
+            return;
+        }
+        enqueue(out, points.size(), executor, callback);
+    }
+
+    @Override
+    public void writeHeartbeat(String userId, String deviceTag, Map<String, Object> heartbeat, Executor executor,
+                               Callback callback) {
+        writeSingle(ROOT + "/" + HEARTBEATS + "/" + userId + "/" + deviceTag, heartbeat, executor, callback);
+    }
+
+    @Override
+    public void writeSession(String userId, String sessionId, Map<String, Object> header, Executor executor,
+                             Callback callback) {
+        writeSingle(ROOT + "/" + SESSIONS + "/" + userId + "/" + sessionId, header, executor, callback);
+    }
+
+    @Override
+    public void flush() {
+        Pending batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (batch != null) post(batch);
+    }
+
+    /** Envía lo pendiente y deja de aceptar escrituras; no espera los POST en vuelo. */
+    @Override
+    public void close() {
+        Pending batch;
+        synchronized (this) {
+            closed = true;
+            batch = take();
+        }
+        if (batch != null) post(batch);
+        timer.shutdown();
+    }
+
+    long requests() {
+        return requests.get();
+    }
+
+    /** NDJSON enviado, sin comprimir. */
+    long rawBytes() {
+        return rawBytes.get();
+    }
+
+    /** Cuerpos gzip enviados. */
+    long sentBytes() {
+        return sentBytes.get();
+    }
+
+    private void writeSingle(String path, Map<String, Object> value, Executor executor, Callback callback) {
+        StringWriter out = new StringWriter(512);
+        try {
+            NdjsonFileSink.writeLine(out, path, System.currentTimeMillis(), value);
+        } catch (IOException | RuntimeException e) {
+            executor.execute(() -> callback.onFailure(e));
+            return;
+        }
+        enqueue(out, 1, executor, callback);
+    }
+
+    private void enqueue(StringWriter out, int count, Executor executor, Callback callback) {
+        Pending full = null;
+        synchronized (this) {
+            if (closed) {
+                executor.execute(() -> callback.onFailure(new IOException("Destino HTTP cerrado")));
+                return;
+            }
+            lines.append(out.getBuffer());
+            lineCount += count;
+            waiters.add(new Waiter(executor, callback));
+            if (lines.length() >= maxBatchChars) {
+                full = take();
+            } else if (scheduledFlush == null) {
+                scheduledFlush = timer.schedule(this::flush, maxDelayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) post(full);
+    }
+
+    // Llamar con el lock tomado
+    private Pending take() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        if (waiters.isEmpty()) return null;
+        Pending batch = new Pending(lines.toString(), lineCount, waiters);
+        lines = new StringBuilder(Math.min(lines.capacity(), maxBatchChars + 4096));
+        lineCount = 0;
+        waiters = new ArrayList<>();
+        return batch;
+    }
+
+    private void post(Pending batch) {
+        byte[] raw = batch.body.getBytes(StandardCharsets.UTF_8);
+        byte[] body;
+        try {
+            body = gzip(raw);
+        } catch (IOException e) {
+            batch.fail(e);
+            return;
+        }
+        Request.Builder request = new Request.Builder()
+                .url(url)
+                .header("Content-Encoding", "gzip")
+                .header("X-GeoCellTrack-Lineas", Integer.toString(batch.lineCount))
+                .post(RequestBody.create(body, NDJSON));
+        if (authToken != null && !authToken.isEmpty()) request.header("Authorization", "Bearer " + authToken);
+
+        requests.incrementAndGet();
+        rawBytes.addAndGet(raw.length);
+        sentBytes.addAndGet(body.length);
+        client.newCall(request.build()).enqueue(new okhttp3.Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                batch.fail(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (Response r = response) {
+                    if (r.isSuccessful()) {
+                        batch.ack();
+                    } else {
+                        batch.fail(new IOException("El endpoint respondió HTTP " + r.code()));
+                    }
+                }
+            }
+        });
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out, 8192)) {
+            gz.write(raw);
+        }
+        return out.toByteArray();
+    }
+
+    private static final class Waiter {
+        final Executor executor;
+        final Callback callback;
+
+        Waiter(Executor executor, Callback callback) {
+            this.executor = executor;
+            this.callback = callback;
+        }
+    }
+
+    private static final class Pending {
+        final String body;
+        final int lineCount;
+        final List<Waiter> waiters;
+
+        Pending(String body, int lineCount, List<Waiter> waiters) {
+            this.body = body;
+            this.lineCount = lineCount;
+            this.waiters = waiters;
+        }
+
+        void ack() {
+            for (Waiter w : waiters) w.executor.execute(w.callback::onAck);
+        }
+
+        void fail(Exception e) {
+            for (Waiter w : waiters) w.executor.execute(() -> w.callback.onFailure(e));
+        }
+    }
+}
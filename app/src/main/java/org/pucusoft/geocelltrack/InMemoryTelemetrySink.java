@@ -0,0 +1,162 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link TelemetrySink} en memoria para pruebas y pruebas de carga sin un proyecto de Firebase.
+ *
+ * Guarda cada valor por ruta ({@code tracker/{userId}/{clave}}, {@code latidos/...},
+ * {@code sesiones/...}) con la misma semántica que la base real: un lote se aplica entero o no se
+ * aplica, y reescribir una clave la sobrescribe. La latencia de cada ack y las fallas (una
+ * proporción aleatoria con semilla fija, o las próximas N escrituras) son configurables.
+ *
+ * Thread-safe.
+ */
+final class InMemoryTelemetrySink implements TelemetrySink, Closeable {
+
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong points = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private volatile long latencyMs;
+    private double failureRate;
+    private int failNext;
+    private Random random = new Random(0);
+    private ScheduledExecutorService timer;
+
+    /** Demora de cada ack (y de cada falla). 0 responde en el mismo hilo que escribe. */
+    InMemoryTelemetrySink latencyMs(long latencyMs) {
+        this.latencyMs = Math.max(0, latencyMs);
+        return this;
+    }
+
+    /** Proporción de escrituras que fallan, con una semilla fija para que la corrida sea reproducible. */
+    synchronized InMemoryTelemetrySink failureRate(double failureRate, long seed) {
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+        return this;
+    }
+
+    /** Las próximas {@code n} escrituras fallan, además de la proporción aleatoria. */
+    synchronized InMemoryTelemetrySink failNext(int n) {
+        failNext = n;
+        return this;
+    }
+
+    @Override
+    public void writeBatch(String userId, Map<String, Object> batch, Executor executor, Callback callback) {
+        if (shouldFail()) {
+            respond(executor, callback, false);
+            return;
+        }
+        String prefix = TRACKER + "/" + userId + "/";
+        for (Map.Entry<String, Object> e : batch.entrySet()) values.put(prefix + e.getKey(), e.getValue());
+        batches.incrementAndGet();
+        points.addAndGet(batch.size());
+        respond(executor, callback, true);
+    }
+
+    @Override
+    public void writeHeartbeat(String userId, String deviceTag, Map<String, Object> heartbeat, Executor executor,
+                               Callback callback) {
+        if (shouldFail()) {
+            respond(executor, callback, false);
+            return;
+        }
+        values.put(HEARTBEATS + "/" + userId + "/" + deviceTag, heartbeat);
+        respond(executor, callback, true);
+    }
+
+    @Override
+    public void writeSession(String userId, String sessionId, Map<String, Object> header, Executor executor,
+                             Callback callback) {
+        if (shouldFail()) {
+            respond(executor, callback, false);
+            return;
+        }
+        values.put(SESSIONS + "/" + userId + "/" + sessionId, header);
+        respond(executor, callback, true);
+    }
+
+    /** Valor guardado en la ruta (p. ej. {@code tracker/u1/clave}), o null. */
+    Object get(String path) {
+        return values.get(path);
+    }
+
+    /** Puntos distintos guardados para el usuario (las reescrituras no cuentan dos veces). */
+    int pointCount(String userId) {
+        String prefix = TRACKER + "/" + userId + "/";
+        int n = 0;
+        for (String path : values.keySet()) {
+            if (path.startsWith(prefix)) n++;
+        }
+        return n;
+    }
+
+    long batches() {
+        return batches.get();
+    }
+
+    /** Puntos escritos en lotes confirmados, reescrituras incluidas. */
+    long points() {
+        return points.get();
+    }
+
+    long failures() {
+        return failures.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) timer.shutdownNow();
+        timer = null;
+    }
+
+    private synchronized boolean shouldFail() {
+        boolean fail = failNext > 0;
+        if (fail) {
+            failNext--;
+        } else if (failureRate > 0) {
+            fail = random.nextDouble() < failureRate;
+        }
+        if (fail) failures.incrementAndGet();
+        return fail;
+    }
+
+    private void respond(Executor executor, Callback callback, boolean ok) {
+        Runnable deliver = () -> executor.execute(() -> {
+            if (ok) {
+                callback.onAck();
+            } else {
+                callback.onFailure(new IOException("Falla inyectada"));
+            }
+        });
+        long latency = latencyMs;
+        if (latency == 0) {
+            deliver.run();
+        } else {
+            timer().schedule(deliver, latency, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "InMemoryTelemetrySink");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+}
@@ -0,0 +1,185 @@
+package org.pucusoft.geocelltrack;
+
+/**
+ * Filtro de Kalman de velocidad constante que fusiona los fixes del proveedor fused con las
+ * posiciones estimadas por celdas, cada una pesada por su precisión.
+ *
+ * El estado vive en metros sobre un plano local (este/norte) centrado en la primera medición:
+ * posición y velocidad por eje. Como el ruido de medición es isótropo y el de proceso es el mismo
+ * en ambos ejes, los dos ejes comparten una única covarianza 2×2; cada paso es O(1) y no asigna.
+ *
+ * Las mediciones cuya innovación cae fuera de la compuerta ({@link #GATE_SIGMA2}) se descartan
+ * como saltos de multipath; si se descartan {@link #MAX_REJECTIONS} seguidas, el salto es real
+ * (p. ej. a la salida de un túnel) y el filtro se reinicia en la nueva medición. También se
+ * reinicia tras {@link #MAX_GAP_MS} sin mediciones.
+ *
+ * No es thread-safe; se usa desde el hilo del pipeline.
+ */
+final class KalmanSmoother {
+
+    // Compuerta sobre la distancia de Mahalanobis al cuadrado (2 grados de libertad, ~4σ)
+    static final double GATE_SIGMA2 = 16;
+    static final int MAX_REJECTIONS = 3;
+    static final long MAX_GAP_MS = 10 * 60 * 1000;
+    // Por debajo de esta velocidad el rumbo es ruido
+    static final double MIN_SPEED_FOR_BEARING_MPS = 0.5;
+    static final double MIN_SIGMA_M = 1;
+    // El plano local se recentra antes de que la aproximación plana pierda precisión
+    static final double RECENTER_M = 10_000;
+
+    private static final double EARTH_RADIUS_M = 6_371_008.8;
+    private static final double DEG = Math.PI / 180;
+
+    // Desvío de la aceleración (m/s²) del modelo de velocidad constante
+    private double accelerationStd = accelerationStdFor(MotionStateMachine.Mode.WALKING);
+
+    private boolean initialized;
+    private long lastTimeMs;
+    private int rejections;
+
+    // Plano local
+    private double lat0;
+    private double lon0;
+    private double metersPerDegLon;
+
+    // Estado por eje: posición (m) y velocidad (m/s)
+    private double px, vx;
+    private double py, vy;
+    // Covarianza compartida [[pp, pv], [pv, vv]]
+    private double pp, pv, vv;
+
+    /** Desvío de aceleración típico de cada modo: quieto casi no se mueve, el vehículo acelera fuerte. */
+    static double accelerationStdFor(MotionStateMachine.Mode mode) {
+        switch (mode) {
+            case STILL: return 0.05;
+            case WALKING: return 0.5;
+            case RUNNING: return 1.0;
+            case IN_VEHICLE: return 2.5;
+            default: return 1.0;
+        }
+    }
+
+    void setAccelerationStd(double accelerationStd) {
+        this.accelerationStd = accelerationStd;
+    }
+
+    boolean initialized() {
+        return initialized;
+    }
+
+    /**
+     * Incorpora una medición de posición con su desvío en metros (radio de precisión del fix o
+     * radio de error de la estimación por celdas).
+     *
+     * @return true si la medición se usó; false si es anterior al estado o quedó fuera de la compuerta.
+     */
+    boolean update(long timeMs, double lat, double lon, double sigmaM) {
+        double r = Math.max(sigmaM, MIN_SIGMA_M);
+        r *= r;
+        if (!initialized || timeMs - lastTimeMs > MAX_GAP_MS) {
+            reset(timeMs, lat, lon, r);
+            return true;
+        }
+        long dtMs = timeMs - lastTimeMs;
+        if (dtMs <= 0) return false; // El mismo fix repetido (getLastLocation) no es una medición nueva
+
+        predict(dtMs / 1000.0);
+        lastTimeMs = timeMs;
+
+        double zx = (lon - lon0) * metersPerDegLon;
+        double zy = (lat - lat0) * DEG * EARTH_RADIUS_M;
+        double ix = zx - px;
+        double iy = zy - py;
+        double s = pp + r;
+        if ((ix * ix + iy * iy) / s > GATE_SIGMA2) {
+            if (++rejections >= MAX_REJECTIONS) {
+                reset(timeMs, lat, lon, r);
+                return true;
+            }
+            return false;
+        }
+        rejections = 0;
+
+        // Ganancia [kp, kv] = P H^T / S con H = [1, 0]
+        double kp = pp / s;
+        double kv = pv / s;
+        px += kp * ix;
+        vx += kv * ix;
+        py += kp * iy;
+        vy += kv * iy;
+        // P = (I - K H) P
+        double npp = (1 - kp) * pp;
+        double npv = (1 - kp) * pv;
+        double nvv = vv - kv * pv;
+        pp = npp;
+        pv = npv;
+        vv = nvv;
+        if (Math.abs(px) + Math.abs(py) > RECENTER_M) recenter();
+        return true;
+    }
+
+    private void recenter() {
+        double lat = lat();
+        double lon = lon();
+        lat0 = lat;
+        lon0 = lon;
+        metersPerDegLon = DEG * EARTH_RADIUS_M * Math.cos(lat * DEG);
+        px = py = 0;
+    }
+
+    private void predict(double dt) {
+        if (dt <= 0) return;
+        px += vx * dt;
+        py += vy * dt;
+        // P = F P F^T + Q, con F = [[1, dt], [0, 1]] y Q de aceleración blanca
+        double q = accelerationStd * accelerationStd;
+        double dt2 = dt * dt;
+        double npp = pp + 2 * dt * pv + dt2 * vv + q * dt2 * dt / 3;
+        double npv = pv + dt * vv + q * dt2 / 2;
+        double nvv = vv + q * dt;
+        pp = npp;
+        pv = npv;
+        vv = nvv;
+    }
+
+    private void reset(long timeMs, double lat, double lon, double r) {
+        initialized = true;
+        lastTimeMs = timeMs;
+        rejections = 0;
+        lat0 = lat;
+        lon0 = lon;
+        metersPerDegLon = DEG * EARTH_RADIUS_M * Math.cos(lat * DEG);
+        px = py = 0;
+        vx = vy = 0;
+        pp = r;
+        pv = 0;
+        // Velocidad inicial desconocida: del orden de un vehículo en ciudad
+        vv = 15 * 15;
+    }
+
+    // --- Estado suavizado ---
+
+    double lat() {
+        return lat0 + py / (DEG * EARTH_RADIUS_M);
+    }
+
+    double lon() {
+        return lon0 + px / metersPerDegLon;
+    }
+
+    /** Desvío de la posición suavizada en metros. */
+    double sigmaM() {
+        return Math.sqrt(pp);
+    }
+
+    double speedMps() {
+        return Math.hypot(vx, vy);
+    }
+
+    /** Rumbo en grados [0, 360) desde el norte, o NaN si la velocidad es demasiado baja. */
+    double bearingDeg() {
+        if (speedMps() < MIN_SPEED_FOR_BEARING_MPS) return Double.NaN;
+        double deg = Math.toDegrees(Math.atan2(vx, vy));
+        return deg < 0 ? deg + 360 : deg;
+    }
+}
@@ -0,0 +1,55 @@
+package org.pucusoft.geocelltrack;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.lifecycle.LiveData;
+
+import java.util.function.Function;
+
+/**
+ * Último payload confirmado, como JSON para la UI.
+ *
+ * Guarda el {@link DataPoint} y lo codifica recién en el hilo principal, y solo si hay
+ * observadores activos: con la pantalla cerrada un ack no cuesta ninguna serialización extra.
+ * Al volver un observador, {@link #onActive()} publica el punto más nuevo si todavía no se mostró.
+ *
+ * {@link #postPoint(DataPoint)} se puede llamar desde cualquier hilo; la función de codificación
+ * siempre corre en el principal, así que puede reutilizar su propio {@link PayloadEncoder}.
+ */
+final class LatestPayloadLiveData extends LiveData<String> {
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Function<DataPoint, String> encode;
+    private final Runnable publish = this::publish;
+    private volatile DataPoint latest;
+    private DataPoint published; // solo hilo principal
+
+    /** @param encode codificación del punto, llamada solo desde el hilo principal */
+    LatestPayloadLiveData(Function<DataPoint, String> encode) {
+        this.encode = encode;
+    }
+
+    /** Registra el punto más nuevo; se codifica únicamente si alguien lo está mirando. */
+    void postPoint(DataPoint point) {
+        latest = point;
+        if (hasActiveObservers()) mainHandler.post(publish);
+    }
+
+    @Override
+    protected void onActive() {
+        publish();
+    }
+
+    @Override
+    protected void onInactive() {
+        mainHandler.removeCallbacks(publish);
+    }
+
+    private void publish() {
+        DataPoint point = latest;
+        if (point == null || point == published || !hasActiveObservers()) return;
+        published = point;
+        setValue(encode.apply(point));
+    }
+}
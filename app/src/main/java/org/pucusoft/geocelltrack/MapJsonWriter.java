@@ -0,0 +1,170 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link JsonWriter} que en vez de texto arma un árbol de {@code Map}/{@code List}, listo para
+ * {@code DatabaseReference.setValue}/{@code updateChildren}.
+ *
+ * Permite que {@link PayloadEncoder} defina el payload una sola vez y lo emita tanto como bytes
+ * JSON como en el formato que exige el SDK de Firebase. Los enteros se guardan como {@code Long}.
+ */
+final class MapJsonWriter extends JsonWriter {
+
+    private static final Writer UNWRITABLE = new Writer() {
+        @Override public void write(char[] buffer, int offset, int count) { throw new AssertionError(); }
+        @Override public void flush() { throw new AssertionError(); }
+        @Override public void close() { throw new AssertionError(); }
+    };
+
+    private final Deque<Object> stack = new ArrayDeque<>();
+    private String pendingName;
+    private Object root;
+
+    MapJsonWriter() {
+        super(UNWRITABLE);
+    }
+
+    /** Objeto raíz escrito (normalmente un {@code Map<String, Object>}). */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> getMap() {
+        if (!stack.isEmpty() || !(root instanceof Map)) {
+            throw new IllegalStateException("No se escribió un objeto JSON completo");
+        }
+        return (Map<String, Object>) root;
+    }
+
+    @Override
+    public JsonWriter beginObject() throws IOException {
+        Map<String, Object> map = new HashMap<>();
+        put(map);
+        stack.push(map);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endObject() throws IOException {
+        if (stack.isEmpty() || !(stack.peek() instanceof Map) || pendingName != null) {
+            throw new IllegalStateException("endObject fuera de lugar");
+        }
+        stack.pop();
+        return this;
+    }
+
+    @Override
+    public JsonWriter beginArray() throws IOException {
+        List<Object> list = new ArrayList<>();
+        put(list);
+        stack.push(list);
+        return this;
+    }
+
+    @Override
+    public JsonWriter endArray() throws IOException {
+        if (stack.isEmpty() || !(stack.peek() instanceof List)) {
+            throw new IllegalStateException("endArray fuera de lugar");
+        }
+        stack.pop();
+        return this;
+    }
+
+    @Override
+    public JsonWriter name(String name) throws IOException {
+        if (stack.isEmpty() || !(stack.peek() instanceof Map) || pendingName != null) {
+            throw new IllegalStateException("name fuera de un objeto");
+        }
+        pendingName = name;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) throws IOException {
+        put(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() throws IOException {
+        put(null);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) throws IOException {
+        put(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Boolean value) throws IOException {
+        put(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(double value) throws IOException {
+        put(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(float value) throws IOException {
+        put((double) value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter jsonValue(String value) {
+        throw new UnsupportedOperationException("JSON crudo no se puede convertir a mapa");
+    }
+
+    @Override
+    public JsonWriter value(long value) throws IOException {
+        put(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(Number value) throws IOException {
+        if (value == null) return nullValue();
+        put(value instanceof Integer || value instanceof Short || value instanceof Byte
+                ? (Object) value.longValue() : value);
+        return this;
+    }
+
+    @Override
+    public void flush() {
+        // Nada que vaciar
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!stack.isEmpty()) throw new IOException("Documento incompleto");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void put(Object value) {
+        if (stack.isEmpty()) {
+            if (root != null) throw new IllegalStateException("Solo se admite un valor raíz");
+            root = value;
+            return;
+        }
+        Object top = stack.peek();
+        if (top instanceof List) {
+            ((List<Object>) top).add(value);
+        } else {
+            if (pendingName == null) throw new IllegalStateException("Falta name() antes del valor");
+            if (value != null) ((Map<String, Object>) top).put(pendingName, value);
+            pendingName = null;
+        }
+    }
+}
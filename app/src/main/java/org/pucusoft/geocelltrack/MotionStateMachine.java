@@ -0,0 +1,104 @@
+package org.pucusoft.geocelltrack;
+
+/**
+ * Máquina de estados de movimiento que decide el intervalo de recolección a partir de
+ * Activity Recognition.
+ *
+ * Reglas:
+ * <ul>
+ *   <li>Se ignoran lecturas con confianza menor a {@link #MIN_CONFIDENCE}.</li>
+ *   <li>Subir a un modo más activo (intervalo más corto) es inmediato: al arrancar un vehículo no
+ *       se pierde fidelidad.</li>
+ *   <li>Bajar a un modo menos activo exige que el nuevo modo se sostenga un tiempo mínimo
+ *       ({@link #STILL_DWELL_MS} para quieto, {@link #DOWNGRADE_DWELL_MS} para el resto), así un
+ *       semáforo o una lectura suelta no cambian el modo.</li>
+ * </ul>
+ *
+ * Sin dependencias de Android: el tiempo lo pasa el llamador ({@code SystemClock.elapsedRealtime()}).
+ * No es thread-safe; se usa desde el hilo del pipeline.
+ */
+final class MotionStateMachine {
+
+    static final long INTERVALO_QUIETO = 5 * 60 * 1000;   // 5 minutos
+    static final long INTERVALO_CAMINANDO = 70 * 1000;    // 70 segundos
+    static final long INTERVALO_CORRIENDO = 45 * 1000;    // 45 segundos
+    static final long INTERVALO_VEHICULO = 20 * 1000;     // 20 segundos
+
+    static final int MIN_CONFIDENCE = 60;
+    static final long STILL_DWELL_MS = 2 * 60 * 1000;
+    static final long DOWNGRADE_DWELL_MS = 60 * 1000;
+    // Tope de la cadencia de Activity Recognition: quieto, notar que el agente arrancó no espera el tick de 5 min
+    static final long MAX_ACTIVITY_INTERVAL_MS = STILL_DWELL_MS;
+
+    enum Mode {
+        STILL(INTERVALO_QUIETO),
+        WALKING(INTERVALO_CAMINANDO),
+        RUNNING(INTERVALO_CORRIENDO),
+        IN_VEHICLE(INTERVALO_VEHICULO);
+
+        final long intervalMs;
+
+        Mode(long intervalMs) {
+            this.intervalMs = intervalMs;
+        }
+    }
+
+    private Mode mode;
+    private Mode candidate;
+    private long candidateSinceMs;
+
+    /** Arranca en {@code WALKING}: el intervalo previo a la detección de actividad. */
+    MotionStateMachine() {
+        this(Mode.WALKING);
+    }
+
+    MotionStateMachine(Mode initial) {
+        this.mode = initial;
+    }
+
+    Mode mode() {
+        return mode;
+    }
+
+    long intervalMs() {
+        return mode.intervalMs;
+    }
+
+    /**
+     * Cadencia a pedir a Activity Recognition en el modo actual: la del tick, así cada lectura cae
+     * cerca de un despertar que ya ocurre, acotada por {@link #MAX_ACTIVITY_INTERVAL_MS}.
+     */
+    long activityIntervalMs() {
+        return Math.min(mode.intervalMs, MAX_ACTIVITY_INTERVAL_MS);
+    }
+
+    /**
+     * Procesa una lectura de actividad.
+     *
+     * @return true si el modo cambió (el llamador debe reprogramar la recolección).
+     */
+    boolean onActivity(Mode detected, int confidence, long nowMs) {
+        if (detected == null || confidence < MIN_CONFIDENCE) return false;
+
+        if (detected == mode) {
+            candidate = null;
+            return false;
+        }
+        if (detected.intervalMs < mode.intervalMs) {
+            return switchTo(detected);
+        }
+        if (detected != candidate) {
+            candidate = detected;
+            candidateSinceMs = nowMs;
+            return false;
+        }
+        long dwell = detected == Mode.STILL ? STILL_DWELL_MS : DOWNGRADE_DWELL_MS;
+        return nowMs - candidateSinceMs >= dwell && switchTo(detected);
+    }
+
+    private boolean switchTo(Mode next) {
+        mode = next;
+        candidate = null;
+        return true;
+    }
+}
@@ -0,0 +1,118 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * {@link TelemetrySink} que agrega cada escritura a un archivo NDJSON: una línea por punto, latido o
+ * cabecera de sesión, {@code {"ruta":"geocelltrack/tracker/{userId}/{yyyyMMdd}/{HH}/{clave}","escrito_ms":...,"valor":{...}}}.
+ *
+ * Sirve para medir el pipeline completo sin red y para reproducir después lo que se hubiera subido
+ * (la última línea de cada ruta es el valor vigente). Cada lote se serializa completo antes de tocar
+ * el archivo, así que un lote que falla no deja líneas a medias, y se vuelca al sistema operativo
+ * antes del ack; con {@code sync} además se fuerza a disco, como la caja negra.
+ *
+ * Thread-safe: las escrituras de distintos hilos no se entremezclan dentro de una línea.
+ */
+final class NdjsonFileSink implements TelemetrySink, Closeable {
+
+    // Sin NaN en el payload real; si apareciera, se escribe en vez de fallar el lote entero
+    private static final Gson GSON = new GsonBuilder().serializeSpecialFloatingPointValues().create();
+
+    private final File file;
+    private final boolean sync;
+    private final FileOutputStream out;
+    private final Writer writer;
+
+    NdjsonFileSink(File file, boolean sync) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("No se pudo crear " + parent);
+        }
+        this.file = file;
+        this.sync = sync;
+        this.out = new FileOutputStream(file, true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    File file() {
+        return file;
+    }
+
+    @Override
+    public void writeBatch(String userId, Map<String, Object> points, Executor executor, Callback callback) {
+        String prefix = ROOT + "/" + TRACKER + "/" + userId + "/";
+        try {
+            StringWriter lines = new StringWriter(points.size() * 512);
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, Object> e : points.entrySet()) writeLine(lines, prefix + e.getKey(), now, e.getValue());
+            append(lines);
+        } catch (IOException | RuntimeException e) {
+            executor.execute(() -> callback.onFailure(e));
+            return;
+        }
+        executor.execute(callback::onAck);
+    }
+
+    @Override
+    public void writeHeartbeat(String userId, String deviceTag, Map<String, Object> heartbeat, Executor executor,
+                               Callback callback) {
+        writeSingle(ROOT + "/" + HEARTBEATS + "/" + userId + "/" + deviceTag, heartbeat, executor, callback);
+    }
+
+    @Override
+    public void writeSession(String userId, String sessionId, Map<String, Object> header, Executor executor,
+                             Callback callback) {
+        writeSingle(ROOT + "/" + SESSIONS + "/" + userId + "/" + sessionId, header, executor, callback);
+    }
+
+    private void writeSingle(String path, Map<String, Object> value, Executor executor, Callback callback) {
+        try {
+            StringWriter line = new StringWriter(512);
+            writeLine(line, path, System.currentTimeMillis(), value);
+            append(line);
+        } catch (IOException | RuntimeException e) {
+            executor.execute(() -> callback.onFailure(e));
+            return;
+        }
+        executor.execute(callback::onAck);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+    static void writeLine(Writer lines, String path, long nowMs, Object value) throws IOException {
+        // Un JsonWriter por línea: cada una es un documento JSON independiente
+        JsonWriter json = new JsonWriter(lines);
+        json.setSerializeNulls(false);
+        json.beginObject();
+        json.name("ruta").value(path);
+        json.name("escrito_ms").value(nowMs);
+        json.name("valor");
+        GSON.toJson(value, value.getClass(), json);
+        json.endObject();
+        json.flush();
+        lines.write('\n');
+    }
+
+    private synchronized void append(StringWriter lines) throws IOException {
+        writer.write(lines.toString());
+        writer.flush();
+        if (sync) out.getFD().sync();
+    }
+}
@@ -0,0 +1,442 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Caja negra en disco: journal append-only dividido en segmentos de tamaño acotado.
+ *
+ * Cada registro se guarda como [longitud:int][crc32:int][payload]. El cursor de lectura
+ * (segmento + offset) se persiste aparte, de modo que:
+ *  - append es O(1): se escribe al final del segmento activo, nunca se reescribe lo anterior.
+ *  - la recuperación al abrir solo escanea el último segmento (para descartar un registro cortado).
+ *  - el drenado lee lotes acotados desde el cursor; el backlog completo nunca se carga en memoria.
+ *
+ * Los segmentos ya consumidos se borran al confirmar el cursor con {@link #commit(Batch)}.
+ * Todos los métodos son thread-safe.
+ */
+public final class OfflineJournal implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024; // 1 MiB
+
+    private static final int RECORD_HEADER = 8; // longitud + crc
+    private static final String SEGMENT_PREFIX = "seg-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CURSOR_FILE = "cursor";
+    private static final int CURSOR_SIZE = 8 + 8 + 8; // segmento + offset + crc
+
+    private static final Map<String, OfflineJournal> OPEN = new HashMap<>();
+
+    private final File dir;
+    private final int segmentSize;
+    private final TreeMap<Long, File> segments = new TreeMap<>();
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel writeChannel;
+    private long writeSegment = -1;
+    private long writeOffset;
+
+    private FileChannel readChannel;
+    private long readChannelSegment = -1;
+    private long cursorSegment;
+    private long cursorOffset;
+
+    private long corruptedRecords;
+    private boolean closed;
+
+    /** Lote leído desde el cursor. El cursor solo avanza al confirmarlo con {@link #commit(Batch)}. */
+    public static final class Batch {
+        public final List<byte[]> records;
+        final long endSegment;
+        final long endOffset;
+        final long bytes;
+
+        Batch(List<byte[]> records, long endSegment, long endOffset, long bytes) {
+            this.records = records;
+            this.endSegment = endSegment;
+            this.endOffset = endOffset;
+            this.bytes = bytes;
+        }
+
+        public boolean isEmpty() { return records.isEmpty(); }
+        public int size() { return records.size(); }
+        public long bytes() { return bytes; }
+    }
+
+    /**
+     * Abre (o devuelve ya abierto) el journal del directorio dado. Se comparte una instancia
+     * por directorio para que el servicio y los componentes de envío escriban sobre el mismo estado.
+     */
+    public static OfflineJournal open(File dir) throws IOException {
+        return open(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static OfflineJournal open(File dir, int segmentSize) throws IOException {
+        String key = dir.getCanonicalPath();
+        synchronized (OPEN) {
+            OfflineJournal journal = OPEN.get(key);
+            if (journal == null || journal.closed) {
+                journal = new OfflineJournal(dir, segmentSize);
+                OPEN.put(key, journal);
+            }
+            return journal;
+        }
+    }
+
+    private OfflineJournal(File dir, int segmentSize) throws IOException {
+        if (segmentSize <= RECORD_HEADER) throw new IllegalArgumentException("segmentSize demasiado pequeño");
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio del journal: " + dir);
+        }
+        recover();
+    }
+
+    // --- Escritura ---
+
+    /**
+     * Agrega un registro al final del journal. Coste O(1) independiente del tamaño del backlog.
+     * No hace fsync por registro: lo escrito sobrevive a la muerte del proceso; {@link #sync()}
+     * (y cada cambio de segmento) lo fuerza a disco.
+     */
+    public synchronized void append(byte[] payload) throws IOException {
+        ensureOpen();
+        if (payload.length > segmentSize - RECORD_HEADER) {
+            throw new IllegalArgumentException("Registro de " + payload.length + " bytes excede el segmento");
+        }
+        int recordSize = RECORD_HEADER + payload.length;
+        if (writeChannel == null || writeOffset + recordSize > segmentSize) {
+            rollSegment();
+        }
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        ByteBuffer buf = ByteBuffer.allocate(recordSize);
+        buf.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+        buf.flip();
+        long pos = writeOffset;
+        while (buf.hasRemaining()) {
+            pos += writeChannel.write(buf, pos);
+        }
+        writeOffset = pos;
+    }
+
+    /** Fuerza a disco lo escrito en el segmento activo. */
+    public synchronized void sync() throws IOException {
+        if (writeChannel != null) writeChannel.force(false);
+    }
+
+    // --- Lectura ---
+
+    /**
+     * Lee hasta {@code maxRecords} registros (y aproximadamente {@code maxBytes} de payload) desde el
+     * cursor, sin moverlo. Siempre devuelve al menos un registro si hay datos pendientes.
+     */
+    public synchronized Batch peek(int maxRecords, long maxBytes) throws IOException {
+        ensureOpen();
+        List<byte[]> out = new ArrayList<>();
+        long segment = cursorSegment;
+        long offset = cursorOffset;
+        long bytes = 0;
+
+        while (out.size() < maxRecords) {
+            if (!segments.containsKey(segment)) {
+                Long next = segments.higherKey(segment);
+                if (next == null) break;
+                segment = next;
+                offset = 0;
+            }
+            long limit = segmentLimit(segment);
+            if (offset + RECORD_HEADER > limit) {
+                Long next = segments.higherKey(segment);
+                if (next == null) break;
+                segment = next;
+                offset = 0;
+                continue;
+            }
+            FileChannel ch = readChannel(segment);
+            header.clear();
+            readFully(ch, header, offset);
+            header.flip();
+            int length = header.getInt();
+            int expectedCrc = header.getInt();
+            if (length < 0 || offset + RECORD_HEADER + length > limit) {
+                // Registro ilegible: el resto del segmento no es confiable, se salta al siguiente.
+                corruptedRecords++;
+                offset = limit;
+                continue;
+            }
+            if (!out.isEmpty() && bytes + length > maxBytes) break;
+
+            byte[] payload = new byte[length];
+            readFully(ch, ByteBuffer.wrap(payload), offset + RECORD_HEADER);
+            offset += RECORD_HEADER + length;
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != expectedCrc) {
+                corruptedRecords++;
+                continue;
+            }
+            out.add(payload);
+            bytes += length;
+        }
+        return new Batch(out, segment, offset, bytes);
+    }
+
+    /**
+     * Confirma un lote leído con {@link #peek}: persiste el cursor al final del lote y borra los
+     * segmentos que quedaron completamente consumidos.
+     */
+    public synchronized void commit(Batch batch) throws IOException {
+        ensureOpen();
+        if (batch.endSegment < cursorSegment
+                || (batch.endSegment == cursorSegment && batch.endOffset <= cursorOffset)) {
+            return; // Lote ya confirmado (o vacío)
+        }
+        cursorSegment = batch.endSegment;
+        cursorOffset = batch.endOffset;
+        writeCursor();
+        deleteConsumedSegments();
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingBytes() == 0;
+    }
+
+    /** Bytes (cabeceras incluidas) pendientes de drenar desde el cursor. */
+    public synchronized long pendingBytes() {
+        long total = 0;
+        for (Map.Entry<Long, File> e : segments.tailMap(cursorSegment, true).entrySet()) {
+            long limit = segmentLimit(e.getKey());
+            total += e.getKey() == cursorSegment ? Math.max(0, limit - cursorOffset) : limit;
+        }
+        return total;
+    }
+
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /** Registros descartados por CRC inválido o cabecera corrupta desde que se abrió el journal. */
+    public synchronized long corruptedRecords() {
+        return corruptedRecords;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (OPEN) {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+                closeQuietly(readChannel);
+                closeQuietly(writeChannel);
+                readChannel = null;
+                writeChannel = null;
+                OPEN.values().remove(this);
+            }
+        }
+    }
+
+    // --- Recuperación ---
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                long id = parseSegmentId(f.getName());
+                if (id >= 0) segments.put(id, f);
+            }
+        }
+
+        readCursor();
+
+        // Segmentos anteriores al cursor ya fueron drenados (p. ej. crash antes de borrarlos)
+        for (Long id : new ArrayList<>(segments.headMap(cursorSegment, false).keySet())) {
+            deleteSegment(id);
+        }
+        if (!segments.containsKey(cursorSegment)) {
+            Long first = segments.ceilingKey(cursorSegment);
+            cursorSegment = first != null ? first : cursorSegment;
+            cursorOffset = 0;
+        }
+
+        if (segments.isEmpty()) return;
+
+        // Solo el último segmento puede tener un registro a medio escribir: se trunca ahí.
+        long lastId = segments.lastKey();
+        File last = segments.get(lastId);
+        RandomAccessFile raf = new RandomAccessFile(last, "rw");
+        FileChannel ch = raf.getChannel();
+        long validEnd = scanValidEnd(ch);
+        if (validEnd < ch.size()) {
+            ch.truncate(validEnd);
+        }
+        writeChannel = ch;
+        writeSegment = lastId;
+        writeOffset = validEnd;
+        if (cursorSegment == lastId && cursorOffset > validEnd) {
+            cursorOffset = validEnd;
+        }
+    }
+
+    private long scanValidEnd(FileChannel ch) throws IOException {
+        long size = ch.size();
+        long offset = 0;
+        ByteBuffer hdr = ByteBuffer.allocate(RECORD_HEADER);
+        CRC32 check = new CRC32();
+        while (offset + RECORD_HEADER <= size) {
+            hdr.clear();
+            readFully(ch, hdr, offset);
+            hdr.flip();
+            int length = hdr.getInt();
+            int expectedCrc = hdr.getInt();
+            if (length < 0 || offset + RECORD_HEADER + length > size) break;
+            byte[] payload = new byte[length];
+            readFully(ch, ByteBuffer.wrap(payload), offset + RECORD_HEADER);
+            check.reset();
+            check.update(payload, 0, length);
+            if ((int) check.getValue() != expectedCrc) break;
+            offset += RECORD_HEADER + length;
+        }
+        return offset;
+    }
+
+    // --- Segmentos ---
+
+    private void rollSegment() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.force(false);
+            closeQuietly(writeChannel);
+        }
+        long id = segments.isEmpty() ? cursorSegment : segments.lastKey() + 1;
+        File f = new File(dir, segmentName(id));
+        writeChannel = new RandomAccessFile(f, "rw").getChannel();
+        writeChannel.truncate(0);
+        writeSegment = id;
+        writeOffset = 0;
+        segments.put(id, f);
+    }
+
+    private long segmentLimit(long id) {
+        if (id == writeSegment) return writeOffset;
+        File f = segments.get(id);
+        return f != null ? f.length() : 0;
+    }
+
+    private FileChannel readChannel(long id) throws IOException {
+        if (id == writeSegment && writeChannel != null) return writeChannel;
+        if (readChannelSegment != id) {
+            closeQuietly(readChannel);
+            readChannel = new RandomAccessFile(segments.get(id), "r").getChannel();
+            readChannelSegment = id;
+        }
+        return readChannel;
+    }
+
+    private void deleteConsumedSegments() {
+        for (Long id : new ArrayList<>(segments.headMap(cursorSegment, false).keySet())) {
+            if (id == writeSegment) continue;
+            deleteSegment(id);
+        }
+    }
+
+    private void deleteSegment(long id) {
+        if (readChannelSegment == id) {
+            closeQuietly(readChannel);
+            readChannel = null;
+            readChannelSegment = -1;
+        }
+        File f = segments.remove(id);
+        if (f != null) {
+            //noinspection ResultOfMethodCallIgnored
+            f.delete();
+        }
+    }
+
+    // --- Cursor ---
+
+    private void readCursor() throws IOException {
+        cursorSegment = segments.isEmpty() ? 0 : segments.firstKey();
+        cursorOffset = 0;
+        File f = new File(dir, CURSOR_FILE);
+        if (!f.isFile() || f.length() != CURSOR_SIZE) return;
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            long segment = raf.readLong();
+            long offset = raf.readLong();
+            long stored = raf.readLong();
+            if (stored == cursorChecksum(segment, offset) && segment >= 0 && offset >= 0) {
+                cursorSegment = segment;
+                cursorOffset = offset;
+            }
+        }
+    }
+
+    private void writeCursor() throws IOException {
+        File tmp = new File(dir, CURSOR_FILE + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(cursorSegment);
+            raf.writeLong(cursorOffset);
+            raf.writeLong(cursorChecksum(cursorSegment, cursorOffset));
+            raf.getFD().sync();
+        }
+        if (!tmp.renameTo(new File(dir, CURSOR_FILE))) {
+            throw new IOException("No se pudo persistir el cursor del journal");
+        }
+    }
+
+    private static long cursorChecksum(long segment, long offset) {
+        CRC32 c = new CRC32();
+        c.update(ByteBuffer.allocate(16).putLong(segment).putLong(offset).array());
+        return c.getValue();
+    }
+
+    // --- Utilidades ---
+
+    static String segmentName(long id) {
+        return String.format(Locale.US, "%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX);
+    }
+
+    static long parseSegmentId(String name) {
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer dst, long position) throws IOException {
+        long pos = position;
+        while (dst.hasRemaining()) {
+            int n = ch.read(dst, pos);
+            if (n < 0) throw new IOException("Fin de segmento inesperado");
+            pos += n;
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Journal cerrado");
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+            // nada que hacer
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Codificador streaming del payload definido en {@code payload-schema.json}.
+ *
+ * Escribe un {@link DataPoint} campo a campo con {@link JsonWriter} sobre un buffer reutilizable,
+ * sin Gson reflexivo ni mapas ni Strings intermedios. La misma definición sirve para Firebase vía
+ * {@link #toFirebaseMap(DataPoint)}, así que el payload se describe en un solo lugar.
+ *
+ * Si hay un {@link CellTowerIndex}, cada celda con identidad global lleva la ubicación de su
+ * antena ({@code bts_lat}/{@code bts_lon}) resuelta localmente al codificar; no se guarda en la
+ * caja negra, así un índice más nuevo también completa los puntos atrasados.
+ *
+ * Reutiliza su buffer entre llamadas: una instancia por hilo.
+ */
+final class PayloadEncoder {
+
+    static final String SISTEMA = "GeoCellTrack";
+    static final String VERSION = "1.0";
+
+    private final String userId;
+    private final String timezone;
+    private final CellTowerIndex towers;
+    private final SimpleDateFormat isoFormat;
+    private final Buffer buffer = new Buffer(2048);
+    private final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+
+    PayloadEncoder(String userId) {
+        this(userId, TimeZone.getDefault());
+    }
+
+    PayloadEncoder(String userId, TimeZone timeZone) {
+        this(userId, timeZone, null);
+    }
+
+    PayloadEncoder(String userId, TimeZone timeZone, CellTowerIndex towers) {
+        this.userId = userId;
+        this.towers = towers;
+        this.timezone = timeZone.getID();
+        this.isoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.US);
+        this.isoFormat.setTimeZone(timeZone);
+    }
+
+    String userId() {
+        return userId;
+    }
+
+    /** Codifica el punto y devuelve una copia exacta de los bytes UTF-8. */
+    byte[] encode(DataPoint p) {
+        encodeToBuffer(p);
+        return Arrays.copyOf(buffer.bytes(), buffer.size());
+    }
+
+    /** Codifica el punto directamente sobre {@code out}, sin copias intermedias. */
+    void encodeTo(DataPoint p, OutputStream out) throws IOException {
+        encodeToBuffer(p);
+        out.write(buffer.bytes(), 0, buffer.size());
+    }
+
+    /** El mismo payload como árbol de mapas para el SDK de Firebase (los enteros quedan como Long). */
+    Map<String, Object> toFirebaseMap(DataPoint p) {
+        MapJsonWriter out = new MapJsonWriter();
+        try {
+            write(out, p);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.getMap();
+    }
+
+    private void encodeToBuffer(DataPoint p) {
+        buffer.reset();
+        try {
+            JsonWriter out = new JsonWriter(writer);
+            write(out, p);
+            out.flush();
+        } catch (IOException e) {
+            // El destino es un buffer en memoria: no debería ocurrir
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // --- Definición del payload ---
+
+    void write(JsonWriter out, DataPoint p) throws IOException {
+        out.beginObject();
+        out.name("sistema").value(SISTEMA);
+        out.name("version").value(VERSION);
+        out.name("user_id").value(userId);
+        out.name(DataPoint.FIELD_SEQ).value(p.seq);
+        out.name("timestamp_unix").value(p.timestampMs / 1000);
+        out.name("timestamp_ms").value(p.timestampMs);
+        out.name("timestamp_iso").value(isoFormat.format(new Date(p.timestampMs)));
+        out.name("timezone").value(timezone);
+
+        writeCeldas(out, p);
+        writeGps(out, p);
+        out.name("hardware");
+        writeBlock(out, p.hardware);
+        out.name("sim");
+        writeBlock(out, p.sim);
+        out.endObject();
+    }
+
+    private void writeCeldas(JsonWriter out, DataPoint p) throws IOException {
+        CellSnapshot snapshot = p.cells;
+        if (snapshot == null) {
+            writeServingOnly(out, p);
+            return;
+        }
+        out.name("celdas").beginObject();
+        out.name("total").value(snapshot.visible);
+        out.name("registradas").value(snapshot.registered);
+        out.name("puede_triangular").value(snapshot.positionCells >= CellTrilateration.MIN_ANCHORS_TRIANGULATION);
+        if (snapshot.hasPosition()) writePosicion(out, snapshot);
+        out.name("modo_lista").value(snapshot.fullList ? "completa" : "diferencial");
+        out.name("lista").beginArray();
+        for (int i = 0; i < snapshot.cells.length; i++) writeCell(out, i, snapshot.cells[i]);
+        out.endArray();
+        if (!snapshot.fullList) {
+            out.name("eliminadas").beginArray();
+            for (String key : snapshot.removed) out.value(key);
+            out.endArray();
+        }
+        out.endObject();
+
+        CellObservation serving = snapshot.serving();
+        if (serving != null) writeRed(out, serving);
+    }
+
+    private static void writePosicion(JsonWriter out, CellSnapshot snapshot) throws IOException {
+        out.name("posicion").beginObject();
+        out.name("lat").value(snapshot.positionLatE7 / 1e7);
+        out.name("lon").value(snapshot.positionLonE7 / 1e7);
+        out.name("radio_error_m").value(Math.round(snapshot.positionRadiusM));
+        out.name("celdas_usadas").value(snapshot.positionCells);
+        out.name("metodo").value(snapshot.positionCells >= CellTrilateration.MIN_ANCHORS_TRIANGULATION
+                ? "multilateracion" : "centroide");
+        out.endObject();
+    }
+
+    // Puntos sin lectura de celdas (p. ej. los de versiones anteriores): solo la señal servidora
+    private static void writeServingOnly(JsonWriter out, DataPoint p) throws IOException {
+        boolean hasServing = p.dbm != DataPoint.NO_VALUE;
+        out.name("celdas").beginObject();
+        out.name("total").value(hasServing ? 1 : 0);
+        out.name("registradas").value(hasServing ? 1 : 0);
+        out.name("puede_triangular").value(false);
+        out.name("lista").beginArray();
+        if (hasServing) {
+            out.beginObject();
+            out.name("indice").value(0);
+            out.name("registrada").value(true);
+            out.name("dbm").value(p.dbm);
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private void writeCell(JsonWriter out, int index, CellObservation c) throws IOException {
+        out.beginObject();
+        out.name("indice").value(index);
+        out.name("clave").value(c.key());
+        out.name("registrada").value(c.registered);
+        out.name("tipo").value(c.typeName());
+        out.name("clase").value(c.registered ? "servidora" : "vecina");
+        writeNullable(out, "mcc", c.mcc);
+        switch (c.type) {
+            case CellObservation.CDMA:
+                writeNullable(out, "system_id", c.mnc);
+                writeInt(out, "network_id", c.area);
+                writeLong(out, "base_station_id", c.cid);
+                break;
+            case CellObservation.LTE:
+            case CellObservation.NR:
+                writeNullable(out, "mnc", c.mnc);
+                writeInt(out, "tac", c.area);
+                writeLong(out, "cell_id", c.cid);
+                writeInt(out, "pci", c.physId);
+                break;
+            case CellObservation.WCDMA:
+            case CellObservation.TDSCDMA:
+                writeNullable(out, "mnc", c.mnc);
+                writeInt(out, "lac", c.area);
+                writeLong(out, "cell_id", c.cid);
+                writeInt(out, "psc", c.physId);
+                break;
+            default:
+                writeNullable(out, "mnc", c.mnc);
+                writeInt(out, "lac", c.area);
+                writeLong(out, "cell_id", c.cid);
+                writeInt(out, "bsic", c.physId);
+                break;
+        }
+        writeInt(out, "canal", c.channel);
+        writeInt(out, "dbm", c.dbm);
+        writeInt(out, "nivel", c.level);
+        writeInt(out, "asu", c.asu);
+        if (c.type == CellObservation.LTE || c.type == CellObservation.NR) {
+            writeInt(out, "rsrp", c.rsrp);
+            writeInt(out, "rsrq", c.rsrq);
+        }
+        if (towers != null) writeBts(out, c);
+        out.endObject();
+    }
+
+    private void writeBts(JsonWriter out, CellObservation c) throws IOException {
+        int tower = towers.find(c);
+        if (tower < 0) {
+            out.name("bts_lat").nullValue();
+            out.name("bts_lon").nullValue();
+            out.name("bts_location_estimate").value(false);
+            out.name("bts_location_source").nullValue();
+            return;
+        }
+        out.name("bts_lat").value(towers.lat(tower));
+        out.name("bts_lon").value(towers.lon(tower));
+        out.name("bts_location_estimate").value(towers.estimated());
+        writeNullable(out, "bts_location_source", towers.source());
+    }
+
+    private static void writeRed(JsonWriter out, CellObservation serving) throws IOException {
+        out.name("red").beginObject();
+        out.name("tipo").value(serving.typeName());
+        writeNullable(out, "mcc", serving.mcc);
+        writeNullable(out, "mnc", serving.mnc);
+        writeInt(out, "tac", serving.area);
+        writeLong(out, "cell_id", serving.cid);
+        writeInt(out, "potencia_dbm", serving.dbm);
+        out.endObject();
+    }
+
+    private static void writeNullable(JsonWriter out, String name, String value) throws IOException {
+        out.name(name);
+        if (value == null) out.nullValue();
+        else out.value(value);
+    }
+
+    private static void writeInt(JsonWriter out, String name, int value) throws IOException {
+        out.name(name);
+        if (value == DataPoint.NO_VALUE) out.nullValue();
+        else out.value(value);
+    }
+
+    private static void writeLong(JsonWriter out, String name, long value) throws IOException {
+        out.name(name);
+        if (value == CellObservation.NO_CID) out.nullValue();
+        else out.value(value);
+    }
+
+    private static void writeGps(JsonWriter out, DataPoint p) throws IOException {
+        out.name("gps").beginObject();
+        if (p.hasLocation()) {
+            out.name("lat").value(p.lat());
+            out.name("lon").value(p.lon());
+        } else {
+            out.name("lat").nullValue();
+            out.name("lon").nullValue();
+        }
+        writeFloat(out, "precision_m", p.accuracyM);
+        writeFloat(out, "altitud_m", p.altitudeM);
+        writeFloat(out, "velocidad_mps", p.speedMps);
+        writeFloat(out, "rumbo_grados", p.bearingDeg);
+        boolean fromCells = p.locationSource == DataPoint.LOCATION_CELLS;
+        if (p.hasLocation()) {
+            out.name("proveedor").value(fromCells ? "celdas" : "fused");
+            if (fromCells) out.name("timestamp_gps_ms").nullValue();
+            else out.name("timestamp_gps_ms").value(p.fixTimeMs);
+        } else {
+            out.name("proveedor").nullValue();
+            out.name("timestamp_gps_ms").nullValue();
+        }
+        out.name("suavizado").value(p.hasLocation() && p.locationSource != DataPoint.LOCATION_FUSED);
+        out.name("consentido").value(true);
+        out.name("fuente").value(fromCells ? "celdas_bts" : "fused_location_provider");
+        out.endObject();
+    }
+
+    private static void writeFloat(JsonWriter out, String name, float value) throws IOException {
+        out.name(name);
+        if (Float.isNaN(value)) out.nullValue();
+        else out.value((double) value);
+    }
+
+    private static void writeBlock(JsonWriter out, Map<String, Object> block) throws IOException {
+        out.beginObject();
+        if (block != null) {
+            for (Map.Entry<String, Object> e : block.entrySet()) {
+                out.name(e.getKey());
+                writeValue(out, e.getValue());
+            }
+        }
+        out.endObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(JsonWriter out, Object value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+        } else if (value instanceof String) {
+            out.value((String) value);
+        } else if (value instanceof Boolean) {
+            out.value((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            // Los bloques releídos con Gson traen los enteros como Double (p. ej. api_level 33.0)
+            if (d == Math.rint(d) && Math.abs(d) < 1L << 53) out.value((long) d);
+            else out.value(d);
+        } else if (value instanceof Number) {
+            out.value(((Number) value).longValue());
+        } else if (value instanceof Map) {
+            writeBlock(out, (Map<String, Object>) value);
+        } else if (value instanceof List) {
+            out.beginArray();
+            for (Object item : (List<Object>) value) writeValue(out, item);
+            out.endArray();
+        } else {
+            out.value(value.toString());
+        }
+    }
+
+    /** ByteArrayOutputStream que expone su arreglo interno para evitar copias. */
+    private static final class Buffer extends ByteArrayOutputStream {
+        Buffer(int size) { super(size); }
+        byte[] bytes() { return buf; }
+    }
+}
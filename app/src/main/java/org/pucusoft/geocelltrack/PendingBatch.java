@@ -0,0 +1,207 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.JsonParseException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Lote columnar (struct-of-arrays) de puntos pendientes de subir.
+ *
+ * Cada campo de {@link DataPoint} vive en su propio arreglo primitivo, así que N puntos cuestan
+ * unos pocos arreglos en vez de N objetos con mapas anidados. Los bloques estáticos
+ * ({@code hardware}, {@code sim}) se deduplican: filas consecutivas con el mismo contenido
+ * comparten la misma instancia.
+ *
+ * Se reutiliza entre lotes con {@link #clear()}; no es thread-safe.
+ */
+final class PendingBatch {
+
+    private int size;
+
+    long[] seq;
+    long[] timestampMs;
+    int[] latE7;
+    int[] lonE7;
+    float[] accuracyM;
+    float[] altitudeM;
+    float[] speedMps;
+    float[] bearingDeg;
+    long[] fixTimeMs;
+    byte[] locationSource;
+    int[] dbm;
+    Object[] hardware;
+    Object[] sim;
+    Object[] cells;
+
+    // Último bloque estático decodificado (para compartir instancias entre filas)
+    private byte[] lastHardwareBytes;
+    private Map<String, Object> lastHardware;
+    private byte[] lastSimBytes;
+    private Map<String, Object> lastSim;
+
+    PendingBatch(int initialCapacity) {
+        allocate(Math.max(1, initialCapacity));
+    }
+
+    int size() { return size; }
+
+    boolean isEmpty() { return size == 0; }
+
+    void clear() {
+        Arrays.fill(hardware, 0, size, null);
+        Arrays.fill(sim, 0, size, null);
+        Arrays.fill(cells, 0, size, null);
+        size = 0;
+    }
+
+    void add(DataPoint p) {
+        int i = nextRow();
+        seq[i] = p.seq;
+        timestampMs[i] = p.timestampMs;
+        latE7[i] = p.latE7;
+        lonE7[i] = p.lonE7;
+        accuracyM[i] = p.accuracyM;
+        altitudeM[i] = p.altitudeM;
+        speedMps[i] = p.speedMps;
+        bearingDeg[i] = p.bearingDeg;
+        fixTimeMs[i] = p.fixTimeMs;
+        locationSource[i] = p.locationSource;
+        dbm[i] = p.dbm;
+        hardware[i] = p.hardware;
+        sim[i] = p.sim;
+        cells[i] = p.cells;
+    }
+
+    /**
+     * Decodifica un registro de la caja negra directamente en las columnas, sin crear un
+     * {@link DataPoint} intermedio. Devuelve false si el registro es ilegible.
+     */
+    boolean addRecord(byte[] record) {
+        if (record.length > 0 && record[0] == '{') {
+            DataPoint legacy = DataPoint.decode(record);
+            if (legacy == null) return false;
+            add(legacy);
+            return true;
+        }
+        if (!DataPoint.isBinaryRecord(record)) return false;
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(record);
+            byte version = buf.get();
+            int i = size == seq.length ? growAndGetRow() : size;
+            seq[i] = buf.getLong();
+            timestampMs[i] = buf.getLong();
+            latE7[i] = buf.getInt();
+            lonE7[i] = buf.getInt();
+            accuracyM[i] = buf.getFloat();
+            altitudeM[i] = buf.getFloat();
+            speedMps[i] = buf.getFloat();
+            bearingDeg[i] = buf.getFloat();
+            fixTimeMs[i] = buf.getLong();
+            dbm[i] = buf.getInt();
+            hardware[i] = sharedHardware(buf);
+            sim[i] = sharedSim(buf);
+            cells[i] = DataPoint.decodeCells(version, buf);
+            locationSource[i] = DataPoint.decodeLocationSource(version, buf);
+            size++;
+            return true;
+        } catch (BufferUnderflowException | JsonParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copia la fila {@code i} en {@code reuse} (un único {@link DataPoint} por lote, no uno por
+     * fila) para pasarla a {@link PayloadEncoder}.
+     */
+    @SuppressWarnings("unchecked")
+    DataPoint get(int i, DataPoint reuse) {
+        reuse.seq = seq[i];
+        reuse.timestampMs = timestampMs[i];
+        reuse.latE7 = latE7[i];
+        reuse.lonE7 = lonE7[i];
+        reuse.accuracyM = accuracyM[i];
+        reuse.altitudeM = altitudeM[i];
+        reuse.speedMps = speedMps[i];
+        reuse.bearingDeg = bearingDeg[i];
+        reuse.fixTimeMs = fixTimeMs[i];
+        reuse.locationSource = locationSource[i];
+        reuse.dbm = dbm[i];
+        reuse.hardware = (Map<String, Object>) hardware[i];
+        reuse.sim = (Map<String, Object>) sim[i];
+        reuse.cells = (CellSnapshot) cells[i];
+        return reuse;
+    }
+
+    // --- Bloques estáticos compartidos ---
+
+    private Map<String, Object> sharedHardware(ByteBuffer buf) {
+        byte[] bytes = blockBytes(buf);
+        if (lastHardware == null || !Arrays.equals(bytes, lastHardwareBytes)) {
+            lastHardware = DataPoint.parseBlock(bytes);
+            lastHardwareBytes = bytes;
+        }
+        return lastHardware;
+    }
+
+    private Map<String, Object> sharedSim(ByteBuffer buf) {
+        byte[] bytes = blockBytes(buf);
+        if (lastSim == null || !Arrays.equals(bytes, lastSimBytes)) {
+            lastSim = DataPoint.parseBlock(bytes);
+            lastSimBytes = bytes;
+        }
+        return lastSim;
+    }
+
+    private static byte[] blockBytes(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    // --- Capacidad ---
+
+    private int nextRow() {
+        int i = size == seq.length ? growAndGetRow() : size;
+        size++;
+        return i;
+    }
+
+    private int growAndGetRow() {
+        int capacity = seq.length * 2;
+        seq = Arrays.copyOf(seq, capacity);
+        timestampMs = Arrays.copyOf(timestampMs, capacity);
+        latE7 = Arrays.copyOf(latE7, capacity);
+        lonE7 = Arrays.copyOf(lonE7, capacity);
+        accuracyM = Arrays.copyOf(accuracyM, capacity);
+        altitudeM = Arrays.copyOf(altitudeM, capacity);
+        speedMps = Arrays.copyOf(speedMps, capacity);
+        bearingDeg = Arrays.copyOf(bearingDeg, capacity);
+        fixTimeMs = Arrays.copyOf(fixTimeMs, capacity);
+        locationSource = Arrays.copyOf(locationSource, capacity);
+        dbm = Arrays.copyOf(dbm, capacity);
+        hardware = Arrays.copyOf(hardware, capacity);
+        sim = Arrays.copyOf(sim, capacity);
+        cells = Arrays.copyOf(cells, capacity);
+        return size;
+    }
+
+    private void allocate(int capacity) {
+        seq = new long[capacity];
+        timestampMs = new long[capacity];
+        latE7 = new int[capacity];
+        lonE7 = new int[capacity];
+        accuracyM = new float[capacity];
+        altitudeM = new float[capacity];
+        speedMps = new float[capacity];
+        bearingDeg = new float[capacity];
+        fixTimeMs = new long[capacity];
+        locationSource = new byte[capacity];
+        dbm = new int[capacity];
+        hardware = new Object[capacity];
+        sim = new Object[capacity];
+        cells = new Object[capacity];
+    }
+}
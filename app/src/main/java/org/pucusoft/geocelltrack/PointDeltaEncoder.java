@@ -0,0 +1,169 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Modo diferencial del payload: cada punto viaja como los campos que cambiaron respecto de un punto
+ * ya confirmado, y los bloques estáticos ({@link #HEADER_FIELDS}: hardware, sim, identificación)
+ * viajan una sola vez en la cabecera de la sesión ({@code sesiones/{userId}/{sesión}}).
+ *
+ * Tipos de frame (los reconstruye {@link PointDeltaReader}):
+ * <ul>
+ *   <li><b>completo</b>: el payload de siempre, autocontenido. Se usa mientras la cabecera de la
+ *       sesión no esté confirmada; también son completos los puntos que drena la caja negra.</li>
+ *   <li><b>clave</b> ({@code frame: "clave"}): el payload sin los campos de cabecera. Cada
+ *       {@code keyframeInterval} frames, para que un lector que perdió la cadena se resincronice.</li>
+ *   <li><b>delta</b> ({@code frame: "delta"}): solo los campos distintos respecto del punto
+ *       {@code base}, comparando mapas anidados campo a campo; las listas viajan enteras y los
+ *       campos que desaparecen se listan en {@code campos_eliminados} como rutas {@code a/b}.</li>
+ * </ul>
+ *
+ * La base de un delta es el último punto confirmado o, dentro de un mismo lote, el punto anterior
+ * del lote: el lote se escribe en forma atómica, así que nunca se confirma un delta sin su base. Si
+ * el lote falla, la base no avanza (sus puntos van a la caja negra y se drenan completos).
+ *
+ * Sin dependencias de Android. No es thread-safe; se usa desde el hilo del pipeline.
+ */
+final class PointDeltaEncoder {
+
+    static final int DEFAULT_KEYFRAME_INTERVAL = 30;
+
+    static final String[] HEADER_FIELDS = {"sistema", "version", "user_id", "timezone", "hardware", "sim"};
+
+    static final String FIELD_FRAME = "frame";
+    static final String FIELD_SESSION = "sesion";
+    static final String FIELD_BASE = "base";
+    static final String FIELD_REMOVED = "campos_eliminados";
+    static final String FRAME_KEY = "clave";
+    static final String FRAME_DELTA = "delta";
+
+    private final String sessionPrefix;
+    private final int keyframeInterval;
+
+    private String sessionId;
+    private Map<String, Object> sessionHeader;
+    private boolean sessionAcked;
+    private boolean sessionInFlight;
+
+    // Último punto confirmado, sin campos de cabecera
+    private long ackedSeq = -1;
+    private Map<String, Object> acked;
+    private int sinceKeyframe;
+
+    /** @param sessionPrefix prefijo único del dispositivo para las claves de sesión (p. ej. su deviceTag) */
+    PointDeltaEncoder(String sessionPrefix, int keyframeInterval) {
+        this.sessionPrefix = sessionPrefix;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    /** Un lote atómico de frames; la cadena de bases avanza dentro del lote. */
+    final class Batch {
+        private long lastSeq = -1;
+        private Map<String, Object> last;
+        private long baseSeq = ackedSeq;
+        private Map<String, Object> base = acked;
+
+        /** Frame a escribir para el punto {@code seq} cuyo payload completo es {@code full}. */
+        Map<String, Object> frame(long seq, Map<String, Object> full) {
+            Map<String, Object> header = new HashMap<>();
+            Map<String, Object> body = new HashMap<>(full);
+            for (String field : HEADER_FIELDS) {
+                Object value = body.remove(field);
+                if (value != null) header.put(field, value);
+            }
+            if (!header.equals(sessionHeader)) startSession(seq, header);
+
+            Map<String, Object> frame;
+            if (!sessionAcked) {
+                frame = full;
+            } else if (base == null || sinceKeyframe + 1 >= keyframeInterval) {
+                frame = new HashMap<>(body);
+                frame.put(FIELD_FRAME, FRAME_KEY);
+                frame.put(FIELD_SESSION, sessionId);
+                sinceKeyframe = 0;
+            } else {
+                frame = new HashMap<>();
+                List<String> removed = new ArrayList<>();
+                diff(base, body, frame, "", removed);
+                if (!removed.isEmpty()) frame.put(FIELD_REMOVED, removed);
+                frame.put(FIELD_FRAME, FRAME_DELTA);
+                frame.put(FIELD_SESSION, sessionId);
+                frame.put(FIELD_BASE, baseSeq);
+                sinceKeyframe++;
+            }
+            base = body;
+            baseSeq = seq;
+            last = body;
+            lastSeq = seq;
+            return frame;
+        }
+    }
+
+    Batch begin() {
+        return new Batch();
+    }
+
+    /** El lote quedó confirmado: su último punto es la nueva base. */
+    void onAcked(Batch batch) {
+        if (batch.last != null && batch.lastSeq > ackedSeq) {
+            acked = batch.last;
+            ackedSeq = batch.lastSeq;
+        }
+    }
+
+    /** Id de la sesión cuya cabecera hay que escribir, o null si ya está escrita o en vuelo. */
+    String pendingSessionId() {
+        return sessionId != null && !sessionAcked && !sessionInFlight ? sessionId : null;
+    }
+
+    Map<String, Object> sessionHeader() {
+        return sessionHeader;
+    }
+
+    /** Marca la escritura de la cabecera como iniciada. */
+    void onSessionWriting(String id) {
+        if (id.equals(sessionId)) sessionInFlight = true;
+    }
+
+    /** Resultado de escribir la cabecera; si falló, se reintenta con el próximo lote. */
+    void onSessionWritten(String id, boolean ok) {
+        if (!id.equals(sessionId)) return;
+        sessionInFlight = false;
+        sessionAcked = ok;
+    }
+
+    private void startSession(long seq, Map<String, Object> header) {
+        sessionId = sessionPrefix + "_" + seq;
+        sessionHeader = header;
+        sessionAcked = false;
+        sessionInFlight = false;
+    }
+
+    /**
+     * Agrega a {@code out} los campos de {@code cur} distintos de {@code prev}. Los mapas se comparan
+     * campo a campo; cualquier otro valor (incluidas las listas) se reemplaza entero.
+     */
+    @SuppressWarnings("unchecked")
+    static void diff(Map<String, Object> prev, Map<String, Object> cur, Map<String, Object> out, String path,
+                     List<String> removed) {
+        for (Map.Entry<String, Object> e : cur.entrySet()) {
+            String key = e.getKey();
+            Object before = prev.get(key);
+            Object now = e.getValue();
+            if (now.equals(before)) continue;
+            if (now instanceof Map && before instanceof Map) {
+                Map<String, Object> nested = new HashMap<>();
+                diff((Map<String, Object>) before, (Map<String, Object>) now, nested, path + key + "/", removed);
+                if (!nested.isEmpty()) out.put(key, nested);
+            } else {
+                out.put(key, now);
+            }
+        }
+        for (String key : prev.keySet()) {
+            if (!cur.containsKey(key)) removed.add(path + key);
+        }
+    }
+}
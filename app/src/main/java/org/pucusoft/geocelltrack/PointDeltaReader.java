@@ -0,0 +1,149 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reconstruye los puntos completos a partir de los frames de {@link PointDeltaEncoder}, para
+ * consumidores del lado del servidor (tableros, exportaciones) y para las pruebas.
+ *
+ * Los frames se pasan en orden de secuencia, con las cabeceras de sesión registradas antes con
+ * {@link #addSession}. Los frames completos (sin campo {@code frame}) pasan tal cual y, como los
+ * frames clave, sirven de base para los deltas siguientes. Un delta cuya base o sesión no se conoce
+ * no se puede reconstruir: se cuenta en {@link #unresolved()} y la cadena se retoma en el próximo
+ * frame clave.
+ *
+ * No es thread-safe.
+ */
+final class PointDeltaReader {
+
+    static final int DEFAULT_RETAINED_BASES = 256;
+
+    private final Map<String, Map<String, Object>> sessions = new HashMap<>();
+    private final Map<Long, Map<String, Object>> bases;
+    private int unresolved;
+
+    PointDeltaReader() {
+        this(DEFAULT_RETAINED_BASES);
+    }
+
+    /** @param retainedBases cuántos puntos recientes se conservan como posibles bases */
+    PointDeltaReader(final int retainedBases) {
+        this.bases = new LinkedHashMap<Long, Map<String, Object>>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<String, Object>> eldest) {
+                return size() > retainedBases;
+            }
+        };
+    }
+
+    void addSession(String sessionId, Map<String, Object> header) {
+        sessions.put(sessionId, header);
+    }
+
+    /** El punto completo del frame, o null si no se puede reconstruir. */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> read(Map<String, Object> frame) {
+        Object type = frame.get(PointDeltaEncoder.FIELD_FRAME);
+        if (type == null) {
+            Map<String, Object> body = new HashMap<>(frame);
+            for (String field : PointDeltaEncoder.HEADER_FIELDS) body.remove(field);
+            remember(body);
+            return copy(frame);
+        }
+
+        Map<String, Object> header = sessions.get(frame.get(PointDeltaEncoder.FIELD_SESSION));
+        Map<String, Object> body;
+        if (PointDeltaEncoder.FRAME_KEY.equals(type)) {
+            body = copy(frame);
+        } else {
+            Map<String, Object> base = bases.get(asLong(frame.get(PointDeltaEncoder.FIELD_BASE)));
+            if (base == null) {
+                unresolved++;
+                return null;
+            }
+            body = copy(base);
+            merge(body, frame);
+            Object removed = frame.get(PointDeltaEncoder.FIELD_REMOVED);
+            if (removed instanceof List) {
+                for (Object path : (List<Object>) removed) remove(body, path.toString());
+            }
+        }
+        body.remove(PointDeltaEncoder.FIELD_FRAME);
+        body.remove(PointDeltaEncoder.FIELD_SESSION);
+        body.remove(PointDeltaEncoder.FIELD_BASE);
+        body.remove(PointDeltaEncoder.FIELD_REMOVED);
+        remember(body);
+
+        if (header == null) {
+            unresolved++;
+            return null;
+        }
+        Map<String, Object> point = copy(body);
+        point.putAll(copy(header));
+        return point;
+    }
+
+    /** Deltas que no se pudieron reconstruir (sin base o sin cabecera de sesión). */
+    int unresolved() {
+        return unresolved;
+    }
+
+    private void remember(Map<String, Object> body) {
+        Long seq = asLong(body.get(DataPoint.FIELD_SEQ));
+        if (seq != null) bases.put(seq, body);
+    }
+
+    private static Long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void merge(Map<String, Object> target, Map<String, Object> delta) {
+        for (Map.Entry<String, Object> e : delta.entrySet()) {
+            Object current = target.get(e.getKey());
+            if (e.getValue() instanceof Map && current instanceof Map) {
+                merge((Map<String, Object>) current, (Map<String, Object>) e.getValue());
+            } else {
+                target.put(e.getKey(), deepCopy(e.getValue()));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void remove(Map<String, Object> target, String path) {
+        String[] parts = path.split("/");
+        Map<String, Object> node = target;
+        for (int i = 0; i < parts.length - 1; i++) {
+            Object child = node.get(parts[i]);
+            if (!(child instanceof Map)) return;
+            node = (Map<String, Object>) child;
+        }
+        node.remove(parts[parts.length - 1]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> copy(Map<String, Object> map) {
+        return (Map<String, Object>) deepCopy(map);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object deepCopy(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> source = (Map<String, Object>) value;
+            Map<String, Object> out = new HashMap<>(source.size() * 2);
+            for (Map.Entry<String, Object> e : source.entrySet()) out.put(e.getKey(), deepCopy(e.getValue()));
+            return out;
+        }
+        if (value instanceof List) {
+            List<Object> source = (List<Object>) value;
+            List<Object> out = new ArrayList<>(source.size());
+            for (Object item : source) out.add(deepCopy(item));
+            return out;
+        }
+        return value;
+    }
+}
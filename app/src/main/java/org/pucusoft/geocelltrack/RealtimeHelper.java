@@ -1,5 +1,7 @@
 package org.pucusoft.geocelltrack;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -11,16 +13,31 @@ import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Helper sencillo para operaciones con Firebase Realtime Database.
  * Implementado como utilitario con métodos estáticos (fácil de llamar desde Java o Kotlin).
+ *
+ * Con {@link #enableCoalescing} las escrituras ({@code pushValue}, {@code setValue},
+ * {@code updateChildren}) se juntan durante una ventana corta, o hasta un presupuesto de bytes, en
+ * un solo {@code updateChildren} multi-ruta sobre la raíz (ver {@link WriteCoalescer}). Cada
+ * {@link Completion} se sigue llamando por separado cuando se confirma el lote.
  */
 @SuppressWarnings({"unused"})
 public final class RealtimeHelper {
     private static final String TAG = "RealtimeHelper";
 
+    public static final long DEFAULT_COALESCING_WINDOW_MS = 100;
+    public static final int DEFAULT_COALESCING_MAX_BYTES = 64 * 1024;
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final Runnable flushRunnable = RealtimeHelper::flushPending;
+    private static volatile WriteCoalescer coalescer;
+    private static volatile long coalescingWindowMs;
+
     private RealtimeHelper() { /* no instancias */ }
 
     public interface Completion {
@@ -38,8 +55,53 @@ public final class RealtimeHelper {
         return FirebaseDatabase.getInstance().getReference(path);
     }
 
+    /**
+     * Activa el modo de escrituras agrupadas: lo escrito dentro de {@code windowMs} (o hasta juntar
+     * {@code maxBytes}) sale en una sola ida y vuelta. Una escritura posterior a la misma ruta dentro
+     * de la ventana reemplaza a la anterior.
+     */
+    public static synchronized void enableCoalescing(long windowMs, int maxBytes) {
+        flushPending();
+        final DatabaseReference root = FirebaseDatabase.getInstance().getReference();
+        coalescingWindowMs = Math.max(0, windowMs);
+        coalescer = new WriteCoalescer((updates, callback) -> root.updateChildren(updates)
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "updateChildren agrupado OK rutas=" + updates.size());
+                    callback.onAck();
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "updateChildren agrupado FAIL rutas=" + updates.size(), e);
+                    callback.onFailure(e);
+                }), maxBytes);
+    }
+
+    /** Vuelve a escribir cada llamada por separado, enviando antes lo pendiente. */
+    public static synchronized void disableCoalescing() {
+        flushPending();
+        coalescer = null;
+    }
+
+    /** Envía ya las escrituras agrupadas pendientes (p. ej. antes de cerrar la pantalla). */
+    public static void flushPending() {
+        mainHandler.removeCallbacks(flushRunnable);
+        WriteCoalescer current = coalescer;
+        if (current != null) current.flush();
+    }
+
     // Push (push() + setValue)
     public static void pushValue(@NonNull String path, @NonNull Object value, @Nullable Completion cb) {
+        WriteCoalescer current = coalescer;
+        if (current != null) {
+            try {
+                // Los ids de push() se generan en el cliente y no dependen de la ruta
+                String key = FirebaseDatabase.getInstance().getReference().push().getKey();
+                coalesce(current, Collections.singletonMap(join(path, key), value), key, cb);
+            } catch (Exception e) {
+                if (cb != null) cb.onFailure(e);
+                Log.e(TAG, "pushValue exception", e);
+            }
+            return;
+        }
         try {
             DatabaseReference ref = getRef(path).push();
             final String key = ref.getKey();
@@ -60,6 +122,11 @@ public final class RealtimeHelper {
 
     // Set directo (sobrescribe)
     public static void setValue(@NonNull String path, @NonNull Object value, @Nullable Completion cb) {
+        WriteCoalescer current = coalescer;
+        if (current != null) {
+            coalesce(current, Collections.singletonMap(path, value), null, cb);
+            return;
+        }
         try {
             DatabaseReference ref = getRef(path);
             ref.setValue(value)
@@ -79,6 +146,13 @@ public final class RealtimeHelper {
 
     // Update parcial con map
     public static void updateChildren(@NonNull String path, @NonNull Map<String, Object> updates, @Nullable Completion cb) {
+        WriteCoalescer current = coalescer;
+        if (current != null) {
+            Map<String, Object> absolute = new HashMap<>(updates.size() * 2);
+            for (Map.Entry<String, Object> e : updates.entrySet()) absolute.put(join(path, e.getKey()), e.getValue());
+            coalesce(current, absolute, null, cb);
+            return;
+        }
         try {
             DatabaseReference ref = getRef(path);
             ref.updateChildren(updates)
@@ -96,31 +170,106 @@ public final class RealtimeHelper {
         }
     }
 
-    // Añadir un ChildEventListener (retorna el listener para que puedas quitarlo)
-    @NonNull
-    public static ChildEventListener addChildListener(@NonNull String path, @NonNull final ValueCallback cb) {
-        DatabaseReference ref = getRef(path);
-        ChildEventListener listener = new ChildEventListener() {
-            @Override
-            public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) { cb.onData(snapshot); }
-            @Override
-            public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) { cb.onData(snapshot); }
-            @Override
-            public void onChildRemoved(@NonNull DataSnapshot snapshot) { cb.onData(snapshot); }
+    private static void coalesce(@NonNull WriteCoalescer current, @NonNull Map<String, Object> writes,
+                                 @Nullable String pushedKey, @Nullable Completion cb) {
+        boolean opened = current.addAll(writes, new TelemetrySink.Callback() {
             @Override
-            public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) { /* opcional */ }
+            public void onAck() {
+                if (cb != null) cb.onSuccess(pushedKey);
+            }
+
             @Override
-            public void onCancelled(@NonNull DatabaseError error) { cb.onCancelled(error); }
-        };
-        ref.addChildEventListener(listener);
-        return listener;
+            public void onFailure(Exception e) {
+                if (cb != null) cb.onFailure(e);
+            }
+        });
+        if (opened) mainHandler.postDelayed(flushRunnable, coalescingWindowMs);
+    }
+
+    @NonNull
+    private static String join(@NonNull String path, @NonNull String child) {
+        String parent = WriteCoalescer.normalize(path);
+        return parent.isEmpty() ? child : parent + "/" + child;
+    }
+
+    /**
+     * Suscribe {@code cb} a los hijos de {@code path}. Todos los suscriptores de una misma ruta
+     * comparten un único listener en Firebase; quien llega tarde recibe de inmediato los hijos ya
+     * conocidos (ver {@link SharedChildListeners}). Retorna el handle para
+     * {@link #removeChildListener}.
+     */
+    @NonNull
+    public static ChildEventListener addChildListener(@NonNull String path, @NonNull final ValueCallback cb) {
+        Subscription subscription = new Subscription(cb);
+        sharedListeners.subscribe(WriteCoalescer.normalize(path), subscription);
+        return subscription;
     }
 
+    /** Quita la suscripción; el listener de Firebase se suelta cuando se va el último suscriptor. */
     public static void removeChildListener(@NonNull String path, @NonNull ChildEventListener listener) {
         try {
-            getRef(path).removeEventListener(listener);
+            if (listener instanceof Subscription) {
+                if (sharedListeners.unsubscribe(WriteCoalescer.normalize(path), (Subscription) listener)) {
+                    Log.d(TAG, "Listener compartido liberado path=" + path);
+                }
+            } else {
+                getRef(path).removeEventListener(listener);
+            }
         } catch (Exception e) {
             Log.w(TAG, "removeChildListener", e);
         }
     }
+
+    private static final SharedChildListeners<DataSnapshot, DatabaseError> sharedListeners =
+            new SharedChildListeners<>(new SharedChildListeners.Source<DataSnapshot, DatabaseError>() {
+                @Override
+                public Object attach(String path, SharedChildListeners.Channel<DataSnapshot, DatabaseError> channel) {
+                    ChildEventListener listener = new ChildEventListener() {
+                        @Override
+                        public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) { channel.onChild(snapshot.getKey(), snapshot); }
+                        @Override
+                        public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) { channel.onChild(snapshot.getKey(), snapshot); }
+                        @Override
+                        public void onChildRemoved(@NonNull DataSnapshot snapshot) { channel.onChildRemoved(snapshot.getKey(), snapshot); }
+                        @Override
+                        public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) { /* opcional */ }
+                        @Override
+                        public void onCancelled(@NonNull DatabaseError error) { channel.onCancelled(error); }
+                    };
+                    getRef(path).addChildEventListener(listener);
+                    Log.d(TAG, "Listener compartido enganchado path=" + path);
+                    return listener;
+                }
+
+                @Override
+                public void detach(String path, Object registration) {
+                    getRef(path).removeEventListener((ChildEventListener) registration);
+                }
+            });
+
+    /**
+     * Handle que recibe el llamador: es un {@link ChildEventListener} para no cambiar la API, pero
+     * no se engancha a Firebase; los eventos le llegan desde el listener compartido de la ruta.
+     */
+    private static final class Subscription implements ChildEventListener,
+            SharedChildListeners.Subscriber<DataSnapshot, DatabaseError> {
+        private final ValueCallback cb;
+
+        Subscription(@NonNull ValueCallback cb) {
+            this.cb = cb;
+        }
+
+        @Override
+        public void onData(DataSnapshot snapshot) { cb.onData(snapshot); }
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) { cb.onCancelled(error); }
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) { /* vía onData */ }
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) { /* vía onData */ }
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot snapshot) { /* vía onData */ }
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) { /* opcional */ }
+    }
 }
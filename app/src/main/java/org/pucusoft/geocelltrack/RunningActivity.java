@@ -267,15 +267,24 @@ public class RunningActivity extends AppCompatActivity {
                 metodoLocalizacion = jsonPayload.getJSONObject("metadata").getString("metodo_posible");
             }
 
-            int totalCeldas = jsonPayload.has("celda_actual") ? 1 : 0;
+            int totalCeldas = jsonPayload.has("celdas")
+                    ? jsonPayload.getJSONObject("celdas").optInt("total", 0) : 0;
             String coordenadas = "No disponibles";
             if (jsonPayload.has("gps")) {
                 org.json.JSONObject gps = jsonPayload.getJSONObject("gps");
-                if (gps.has("lat")) {
+                if (!gps.isNull("lat") && !gps.isNull("lon")) {
                     coordenadas = String.format(Locale.getDefault(), "Lat: %.4f, Lon: %.4f",
                             gps.getDouble("lat"), gps.getDouble("lon"));
                 }
             }
+            // Sin fix GPS: posición estimada por las antenas visibles
+            org.json.JSONObject posicion = jsonPayload.has("celdas")
+                    ? jsonPayload.getJSONObject("celdas").optJSONObject("posicion") : null;
+            if ("No disponibles".equals(coordenadas) && posicion != null) {
+                coordenadas = String.format(Locale.getDefault(), "≈ Lat: %.4f, Lon: %.4f (±%d m)",
+                        posicion.getDouble("lat"), posicion.getDouble("lon"), posicion.optInt("radio_error_m"));
+                metodoLocalizacion = "Triangulación BTS";
+            }
 
             // Crear resumen base
             String resumenBase = String.format(Locale.getDefault(),
@@ -0,0 +1,67 @@
+package org.pucusoft.geocelltrack;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+/**
+ * Número de secuencia monotónico por dispositivo, persistido en disco.
+ *
+ * Para no escribir a disco en cada punto se reserva un bloque de secuencias por adelantado:
+ * tras un cierre abrupto se continúa desde el final del bloque reservado (puede haber huecos,
+ * nunca repeticiones).
+ */
+final class SequenceGenerator {
+
+    static final int RESERVE_BLOCK = 256;
+
+    private final File file;
+    private long next;
+    private long reservedUpTo;
+
+    private SequenceGenerator(File file, long start) {
+        this.file = file;
+        this.next = start;
+        this.reservedUpTo = start;
+    }
+
+    static SequenceGenerator open(File file) throws IOException {
+        long start = 0;
+        if (file.isFile() && file.length() == 16) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                long reserved = raf.readLong();
+                long check = raf.readLong();
+                if (check == ~reserved && reserved >= 0) start = reserved;
+            }
+        }
+        return new SequenceGenerator(file, start);
+    }
+
+    synchronized long next() throws IOException {
+        if (next >= reservedUpTo) {
+            persist(next + RESERVE_BLOCK);
+            reservedUpTo = next + RESERVE_BLOCK;
+        }
+        return next++;
+    }
+
+    /**
+     * Clave determinista del punto en Firebase. Reenviar el mismo punto escribe sobre el mismo nodo,
+     * así que los reintentos son idempotentes. El relleno con ceros mantiene el orden lexicográfico.
+     */
+    static String key(String deviceTag, long seq) {
+        return String.format(Locale.US, "%s-%012d", deviceTag, seq);
+    }
+
+    private void persist(long reserved) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.writeLong(reserved);
+            raf.writeLong(~reserved);
+            raf.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) throw new IOException("No se pudo persistir la secuencia");
+    }
+}
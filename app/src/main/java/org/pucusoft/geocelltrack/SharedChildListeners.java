@@ -0,0 +1,125 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Un solo listener de hijos por ruta, compartido por todos los que la observan.
+ *
+ * El primer suscriptor de una ruta engancha el listener real ({@link Source#attach}) y el último en
+ * irse lo suelta ({@link Source#detach}). Cada evento se recibe una vez y se reparte a todos. Se
+ * guarda además el último snapshot de cada hijo, así que un suscriptor que llega tarde recibe de
+ * inmediato los hijos ya conocidos, igual que si hubiera enganchado su propio listener.
+ *
+ * La entrega se hace con el lock tomado: un suscriptor nuevo ve primero la repetición del caché y
+ * después los eventos en vivo, sin perder ni duplicar ninguno. Los callbacks no deben bloquear.
+ *
+ * Sin dependencias de Android: {@code T} es el snapshot y {@code E} el error de cancelación.
+ */
+final class SharedChildListeners<T, E> {
+
+    interface Subscriber<T, E> {
+        void onData(T snapshot);
+
+        void onCancelled(E error);
+    }
+
+    /** Eventos del listener real de una ruta. */
+    interface Channel<T, E> {
+        /** Hijo agregado o modificado. */
+        void onChild(String key, T snapshot);
+
+        void onChildRemoved(String key, T snapshot);
+
+        void onCancelled(E error);
+    }
+
+    interface Source<T, E> {
+        /** Engancha el listener real; lo devuelto se pasa tal cual a {@link #detach}. */
+        Object attach(String path, Channel<T, E> channel);
+
+        void detach(String path, Object registration);
+    }
+
+    private final Source<T, E> source;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    SharedChildListeners(Source<T, E> source) {
+        this.source = source;
+    }
+
+    /** Suscribe a {@code path} y repite de inmediato los hijos ya conocidos. */
+    synchronized void subscribe(String path, Subscriber<T, E> subscriber) {
+        Entry entry = entries.get(path);
+        if (entry == null) {
+            entry = new Entry(path);
+            entries.put(path, entry);
+            entry.subscribers.add(subscriber);
+            entry.registration = source.attach(path, entry);
+            return;
+        }
+        entry.subscribers.add(subscriber);
+        for (T snapshot : new ArrayList<>(entry.children.values())) subscriber.onData(snapshot);
+    }
+
+    /** @return true si era el último suscriptor y se soltó el listener real. */
+    synchronized boolean unsubscribe(String path, Subscriber<T, E> subscriber) {
+        Entry entry = entries.get(path);
+        if (entry == null || !entry.subscribers.remove(subscriber) || !entry.subscribers.isEmpty()) return false;
+        entries.remove(path);
+        source.detach(path, entry.registration);
+        return true;
+    }
+
+    synchronized int subscriberCount(String path) {
+        Entry entry = entries.get(path);
+        return entry != null ? entry.subscribers.size() : 0;
+    }
+
+    synchronized int attachedPaths() {
+        return entries.size();
+    }
+
+    private final class Entry implements Channel<T, E> {
+        final String path;
+        final List<Subscriber<T, E>> subscribers = new ArrayList<>();
+        // Último snapshot de cada hijo, en el orden en que llegaron
+        final Map<String, T> children = new LinkedHashMap<>();
+        Object registration;
+
+        Entry(String path) {
+            this.path = path;
+        }
+
+        @Override
+        public void onChild(String key, T snapshot) {
+            synchronized (SharedChildListeners.this) {
+                if (entries.get(path) != this) return;
+                children.put(key, snapshot);
+                for (Subscriber<T, E> s : new ArrayList<>(subscribers)) s.onData(snapshot);
+            }
+        }
+
+        @Override
+        public void onChildRemoved(String key, T snapshot) {
+            synchronized (SharedChildListeners.this) {
+                if (entries.get(path) != this) return;
+                children.remove(key);
+                for (Subscriber<T, E> s : new ArrayList<>(subscribers)) s.onData(snapshot);
+            }
+        }
+
+        @Override
+        public void onCancelled(E error) {
+            synchronized (SharedChildListeners.this) {
+                if (entries.get(path) != this) return;
+                // El listener real ya no recibe nada: el próximo suscriptor engancha uno nuevo
+                entries.remove(path);
+                for (Subscriber<T, E> s : new ArrayList<>(subscribers)) s.onCancelled(error);
+            }
+        }
+    }
+}
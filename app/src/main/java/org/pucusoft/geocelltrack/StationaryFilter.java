@@ -0,0 +1,125 @@
+package org.pucusoft.geocelltrack;
+
+/**
+ * Filtro de banda muerta para agentes quietos.
+ *
+ * Compara cada punto con el último que se subió: si la celda servidora es la misma y la distancia,
+ * el cambio de precisión y el cambio de señal quedan dentro de sus epsilons, el punto se suprime y
+ * solo se cuenta. El servicio reemplaza los puntos suprimidos por un latido compacto
+ * ({@link #heartbeatDue}) para no perder la señal de vida.
+ *
+ * Cada {@link #maxSuppressMs} se deja pasar un punto completo aunque no haya cambios, para que el
+ * historial conserve anclas periódicas. No es thread-safe; se usa desde el hilo del pipeline.
+ */
+final class StationaryFilter {
+
+    static final float DEFAULT_DISTANCE_EPSILON_M = 25f;
+    static final float DEFAULT_ACCURACY_EPSILON_M = 20f;
+    static final int DEFAULT_DBM_EPSILON = 6;
+    static final long DEFAULT_MAX_SUPPRESS_MS = 30 * 60 * 1000;
+    static final long DEFAULT_HEARTBEAT_INTERVAL_MS = 5 * 60 * 1000;
+
+    private static final double EARTH_RADIUS_M = 6_371_000;
+
+    private final float distanceEpsilonM;
+    private final float accuracyEpsilonM;
+    private final int dbmEpsilon;
+    private final long maxSuppressMs;
+    private final long heartbeatIntervalMs;
+
+    // Último punto subido (referencia)
+    private boolean hasReference;
+    private int refLatE7;
+    private int refLonE7;
+    private float refAccuracyM;
+    private int refDbm = DataPoint.NO_VALUE;
+    private String refServingKey;
+    private long refTimestampMs;
+
+    private int suppressed;
+    private long lastHeartbeatMs;
+
+    StationaryFilter() {
+        this(DEFAULT_DISTANCE_EPSILON_M, DEFAULT_ACCURACY_EPSILON_M, DEFAULT_DBM_EPSILON,
+                DEFAULT_MAX_SUPPRESS_MS, DEFAULT_HEARTBEAT_INTERVAL_MS);
+    }
+
+    StationaryFilter(float distanceEpsilonM, float accuracyEpsilonM, int dbmEpsilon,
+                     long maxSuppressMs, long heartbeatIntervalMs) {
+        this.distanceEpsilonM = distanceEpsilonM;
+        this.accuracyEpsilonM = accuracyEpsilonM;
+        this.dbmEpsilon = dbmEpsilon;
+        this.maxSuppressMs = maxSuppressMs;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+    }
+
+    /**
+     * @return true si el punto se debe subir (pasa a ser la nueva referencia); false si se suprime.
+     */
+    boolean offer(DataPoint p) {
+        if (hasReference && !changed(p) && p.timestampMs - refTimestampMs < maxSuppressMs) {
+            suppressed++;
+            return false;
+        }
+        hasReference = true;
+        refLatE7 = p.latE7;
+        refLonE7 = p.lonE7;
+        refAccuracyM = p.accuracyM;
+        if (p.dbm != DataPoint.NO_VALUE) refDbm = p.dbm;
+        String servingKey = servingKey(p);
+        if (servingKey != null) refServingKey = servingKey;
+        refTimestampMs = p.timestampMs;
+        suppressed = 0;
+        return true;
+    }
+
+    /** Puntos suprimidos desde el último punto subido. */
+    int suppressedCount() {
+        return suppressed;
+    }
+
+    /** true si hay puntos suprimidos y ya toca un latido; lo registra como enviado. */
+    boolean heartbeatDue(long nowMs) {
+        if (!peekHeartbeatDue(nowMs)) return false;
+        onHeartbeatSent(nowMs);
+        return true;
+    }
+
+    /** Como {@link #heartbeatDue} pero sin registrarlo: el latido se marca al confirmarse su escritura. */
+    boolean peekHeartbeatDue(long nowMs) {
+        return suppressed > 0 && nowMs - lastHeartbeatMs >= heartbeatIntervalMs;
+    }
+
+    void onHeartbeatSent(long sentAtMs) {
+        lastHeartbeatMs = Math.max(lastHeartbeatMs, sentAtMs);
+    }
+
+    private boolean changed(DataPoint p) {
+        boolean refHasLocation = refLatE7 != DataPoint.NO_VALUE && refLonE7 != DataPoint.NO_VALUE;
+        if (p.hasLocation() != refHasLocation) return true;
+        if (p.hasLocation()) {
+            if (distanceM(refLatE7, refLonE7, p.latE7, p.lonE7) > distanceEpsilonM) return true;
+            if (Float.isNaN(p.accuracyM) != Float.isNaN(refAccuracyM)) return true;
+            if (!Float.isNaN(p.accuracyM) && Math.abs(p.accuracyM - refAccuracyM) > accuracyEpsilonM) return true;
+        }
+        String servingKey = servingKey(p);
+        if (servingKey != null && refServingKey != null && !servingKey.equals(refServingKey)) return true;
+        // Sin lectura de señal (p. ej. fixes antiguos de un lote) la celda no cuenta como cambio
+        if (p.dbm == DataPoint.NO_VALUE || refDbm == DataPoint.NO_VALUE) return false;
+        return Math.abs(p.dbm - refDbm) > dbmEpsilon;
+    }
+
+    private static String servingKey(DataPoint p) {
+        CellObservation serving = p.cells != null ? p.cells.serving() : null;
+        return serving != null ? serving.key() : null;
+    }
+
+    /** Distancia equirectangular en metros; suficiente para umbrales de decenas de metros. */
+    static double distanceM(int lat1E7, int lon1E7, int lat2E7, int lon2E7) {
+        double lat1 = Math.toRadians(lat1E7 / 1e7);
+        double lat2 = Math.toRadians(lat2E7 / 1e7);
+        double x = Math.toRadians((lon2E7 - lon1E7) / 1e7) * Math.cos((lat1 + lat2) / 2);
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS_M;
+    }
+}
@@ -0,0 +1,91 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Destino de la telemetría: Firebase en producción ({@link FirebaseTelemetrySink}), un endpoint HTTP
+ * propio con lotes NDJSON comprimidos ({@link HttpNdjsonSink}), un archivo NDJSON
+ * ({@link NdjsonFileSink}) o memoria con latencia y fallas inyectables
+ * ({@link InMemoryTelemetrySink}) para pruebas de carga en una JVM común.
+ *
+ * Semántica que el pipeline da por sentada:
+ * <ul>
+ *   <li>{@link #writeBatch} es todo o nada: o se confirman todos los puntos del lote o ninguno.</li>
+ *   <li>Reescribir una clave ya confirmada no duplica el punto (las claves son deterministas).</li>
+ *   <li>El {@link Callback} se llama exactamente una vez, en el {@code Executor} indicado.</li>
+ * </ul>
+ */
+interface TelemetrySink {
+
+    String ROOT = "geocelltrack";
+    String TRACKER = "tracker";
+    String HEARTBEATS = "latidos";
+    String SESSIONS = "sesiones";
+
+    interface Callback {
+        void onAck();
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Escribe los puntos bajo {@code tracker/{userId}} en una sola escritura. Las claves son rutas
+     * relativas ({@code yyyyMMdd/HH/clave}, ver {@link TrackPartition}).
+     */
+    void writeBatch(String userId, Map<String, Object> points, Executor executor, Callback callback);
+
+    /** Sobrescribe el latido del dispositivo en {@code latidos/{userId}/{deviceTag}}. */
+    void writeHeartbeat(String userId, String deviceTag, Map<String, Object> heartbeat, Executor executor,
+                        Callback callback);
+
+    /** Escribe la cabecera de una sesión del modo diferencial en {@code sesiones/{userId}/{sessionId}}. */
+    void writeSession(String userId, String sessionId, Map<String, Object> header, Executor executor,
+                      Callback callback);
+
+    /** Envía ya lo que el destino tenga acumulado. Solo aplica a los destinos que agrupan escrituras. */
+    default void flush() {
+    }
+
+    /**
+     * {@link #writeBatch} del envío en vivo. Quien espera el ack sostiene el wake lock del ciclo, así
+     * que el lote sale ya en vez de esperar a que el destino junte más escrituras; lo que ya tuviera
+     * acumulado (latidos, cabeceras de sesión) viaja en el mismo envío.
+     */
+    static void writeNow(TelemetrySink sink, String userId, Map<String, Object> points, Executor executor,
+                         Callback callback) {
+        sink.writeBatch(userId, points, executor, callback);
+        sink.flush();
+    }
+
+    /**
+     * {@link #writeBatch} bloqueante para hilos de fondo (drenado de la caja negra). Como quien llama
+     * va a esperar el ack, el lote se envía sin esperar a que el destino junte más escrituras.
+     *
+     * @throws ExecutionException con la causa de la falla si el destino rechazó el lote.
+     */
+    static void awaitBatch(TelemetrySink sink, String userId, Map<String, Object> points, long timeout, TimeUnit unit)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        writeNow(sink, userId, points, Runnable::run, new Callback() {
+            @Override
+            public void onAck() {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failure.set(e);
+                done.countDown();
+            }
+        });
+        if (!done.await(timeout, unit)) throw new TimeoutException("Sin ack del lote tras " + timeout + " " + unit);
+        if (failure.get() != null) throw new ExecutionException(failure.get());
+    }
+}
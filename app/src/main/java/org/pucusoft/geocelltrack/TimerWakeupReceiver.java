@@ -0,0 +1,27 @@
+package org.pucusoft.geocelltrack;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+/**
+ * Recibe la alarma de Doze de {@link WakeupScheduler}. Un {@code PendingIntent} al servicio no
+ * garantiza que el CPU siga despierto hasta que el pipeline la procese; un broadcast sí, mientras
+ * el receptor no termine. Con {@code goAsync()} el broadcast sigue abierto hasta que los timers
+ * vencidos corrieron en el pipeline y el ciclo tomó su propio wake lock.
+ */
+public class TimerWakeupReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "TimerWakeupReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        PendingResult result = goAsync();
+        if (!WakeupScheduler.deliverIdleAlarm(result::finish)) {
+            // El servicio ya no rastrea: la alarma quedó armada de una ejecución anterior
+            Log.w(TAG, "Alarma sin planificador activo. Se ignora.");
+            result.finish();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.ArrayList;
+
+/**
+ * Rueda de timers periódicos con holgura, para juntar el trabajo periódico del servicio en
+ * ventanas de despertar compartidas.
+ *
+ * Cada timer vence en {@code due} y admite correrse hasta {@code due + slack} (su plazo). El
+ * despertar se fija en el plazo más cercano y en él corren todos los timers ya vencidos: un timer
+ * cuya ventana se solapa con la de otro viaja en el mismo despertar en vez de pedir uno propio.
+ * Nunca se adelanta un timer antes de su vencimiento, así que los intervalos de muestreo solo
+ * pueden estirarse hasta su holgura. Tras correr, el siguiente vencimiento se cuenta desde el
+ * vencimiento anterior y no desde el despertar: la holgura usada no se acumula y el período
+ * promedio es el nominal. Si el despertar llegó más de un período tarde (suspensión profunda), los
+ * vencimientos perdidos no se recuperan en ráfaga: el siguiente se cuenta desde ahora.
+ *
+ * Los timers se reparten en ranuras de {@code slotMs} según su plazo: alta y baja son O(1) y el
+ * próximo plazo se busca recorriendo a lo sumo una vuelta de ranuras. Los timers marcados como
+ * {@code wakeup} justifican despertar el dispositivo; el resto (trabajo oportunista) solo corre
+ * cuando algo más lo despertó.
+ *
+ * Sin dependencias de Android: el tiempo lo pasa el llamador ({@code SystemClock.elapsedRealtime()}).
+ * No es thread-safe; se usa desde el hilo del pipeline.
+ */
+final class TimerWheel {
+
+    static final long DEFAULT_SLOT_MS = 1000;
+    static final int DEFAULT_SLOTS = 64;
+
+    static final class Timer {
+        final String name;
+        final boolean wakeup;
+        private final Runnable task;
+        private long periodMs;
+        private long slackMs;
+        private long dueMs;
+        private long deadlineMs;
+        private long slot;
+        private Timer next;
+        private boolean scheduled;
+        private boolean cancelled;
+
+        private Timer(String name, boolean wakeup, Runnable task) {
+            this.name = name;
+            this.wakeup = wakeup;
+            this.task = task;
+        }
+
+        /** Cambia período y holgura; rige desde el próximo vencimiento que se calcule. */
+        void setPeriod(long periodMs, long slackMs) {
+            this.periodMs = periodMs;
+            this.slackMs = slackMs;
+        }
+
+        long periodMs() {
+            return periodMs;
+        }
+
+        long dueMs() {
+            return dueMs;
+        }
+
+        long deadlineMs() {
+            return deadlineMs;
+        }
+    }
+
+    private final long slotMs;
+    private final Timer[] buckets;
+    private final int mask;
+    // Ningún timer programado tiene ranura menor que el cursor
+    private long cursor = Long.MAX_VALUE;
+    private int size;
+    private final ArrayList<Timer> due = new ArrayList<>();
+
+    private long windows;
+    private long runs;
+
+    TimerWheel() {
+        this(DEFAULT_SLOT_MS, DEFAULT_SLOTS);
+    }
+
+    /** @param slots potencia de dos */
+    TimerWheel(long slotMs, int slots) {
+        if (slotMs <= 0 || slots <= 0 || (slots & (slots - 1)) != 0) {
+            throw new IllegalArgumentException("slotMs > 0 y slots potencia de dos");
+        }
+        this.slotMs = slotMs;
+        this.buckets = new Timer[slots];
+        this.mask = slots - 1;
+    }
+
+    /** Registra un timer periódico cuyo primer vencimiento es {@code firstDueMs}. */
+    Timer schedule(String name, long periodMs, long slackMs, boolean wakeup, long firstDueMs, Runnable task) {
+        Timer t = new Timer(name, wakeup, task);
+        t.setPeriod(periodMs, slackMs);
+        reschedule(t, firstDueMs);
+        return t;
+    }
+
+    /** Mueve el próximo vencimiento de {@code t} (p. ej. a ahora, para correrlo en el próximo despertar). */
+    void reschedule(Timer t, long dueMs) {
+        if (t.cancelled) return;
+        if (t.scheduled) unlink(t);
+        t.dueMs = dueMs;
+        t.deadlineMs = dueMs + Math.max(0, t.slackMs);
+        t.slot = Math.floorDiv(t.deadlineMs, slotMs);
+        int b = (int) (t.slot & mask);
+        t.next = buckets[b];
+        buckets[b] = t;
+        t.scheduled = true;
+        size++;
+        if (t.slot < cursor) cursor = t.slot;
+    }
+
+    void cancel(Timer t) {
+        if (t.scheduled) unlink(t);
+        t.cancelled = true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * El timer con el plazo más cercano, o {@code null} si no hay. Con {@code wakeupOnly} solo se
+     * consideran los que justifican despertar el dispositivo.
+     */
+    Timer nextTimer(boolean wakeupOnly) {
+        if (size == 0) return null;
+        // Una vuelta de ranuras desde el cursor: la primera ranura con timers tiene el plazo mínimo
+        for (long s = cursor; s < cursor + buckets.length; s++) {
+            Timer best = null;
+            for (Timer t = buckets[(int) (s & mask)]; t != null; t = t.next) {
+                if (t.slot == s && (!wakeupOnly || t.wakeup) && (best == null || t.deadlineMs < best.deadlineMs)) {
+                    best = t;
+                }
+            }
+            if (best != null) return best;
+        }
+        // Plazos a más de una vuelta: recorrido completo
+        Timer best = null;
+        for (Timer head : buckets) {
+            for (Timer t = head; t != null; t = t.next) {
+                if ((!wakeupOnly || t.wakeup) && (best == null || t.deadlineMs < best.deadlineMs)) best = t;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Corre en un mismo despertar todos los timers vencidos a {@code nowMs} y los vuelve a programar
+     * un período después de su vencimiento (o de ahora, si ese ya pasó). Un timer que se reprograma o se cancela desde su propia tarea conserva esa
+     * decisión.
+     *
+     * @return cuántos timers corrieron.
+     */
+    int runDue(long nowMs) {
+        due.clear();
+        for (Timer head : buckets) {
+            for (Timer t = head; t != null; t = t.next) {
+                if (t.dueMs <= nowMs) due.add(t);
+            }
+        }
+        for (int i = 0; i < due.size(); i++) unlink(due.get(i));
+        // Todo lo que quedó vence después de ahora: su plazo no está antes de la ranura actual
+        cursor = size > 0 ? Math.floorDiv(nowMs, slotMs) : Long.MAX_VALUE;
+        if (due.isEmpty()) return 0;
+
+        windows++;
+        int n = 0;
+        for (int i = 0; i < due.size(); i++) {
+            Timer t = due.get(i);
+            // Otra tarea de esta misma ventana pudo reprogramarlo o cancelarlo
+            if (t.scheduled || t.cancelled) continue;
+            runs++;
+            n++;
+            t.task.run();
+            if (!t.scheduled && !t.cancelled) reschedule(t, nextDue(t, nowMs));
+        }
+        due.clear();
+        return n;
+    }
+
+    // Anclado al vencimiento: correr al final de la ventana no corre también los siguientes
+    private static long nextDue(Timer t, long nowMs) {
+        long next = t.dueMs + t.periodMs;
+        return next > nowMs ? next : nowMs + t.periodMs;
+    }
+
+    /** Despertares en los que corrió al menos un timer. */
+    long windows() {
+        return windows;
+    }
+
+    /** Ejecuciones de timers; {@code runs() / windows()} mide cuánto se está juntando. */
+    long runs() {
+        return runs;
+    }
+
+    private void unlink(Timer t) {
+        int b = (int) (t.slot & mask);
+        if (buckets[b] == t) {
+            buckets[b] = t.next;
+        } else {
+            Timer prev = buckets[b];
+            while (prev.next != t) prev = prev.next;
+            prev.next = t.next;
+        }
+        t.next = null;
+        t.scheduled = false;
+        size--;
+        if (size == 0) cursor = Long.MAX_VALUE;
+    }
+}
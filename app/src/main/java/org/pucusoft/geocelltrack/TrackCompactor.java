@@ -0,0 +1,361 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resume las particiones horarias cerradas ({@link TrackPartition}) en
+ * {@code tracker_resumen/{userId}/{yyyyMMdd}/{HH}}: conteo, intervalo, distancia, caja envolvente,
+ * señal y una traza submuestreada (el último fix GPS de cada intervalo de {@code intervalMs}). Un
+ * día de resúmenes pesa lo que unos pocos minutos de puntos crudos.
+ *
+ * Trabaja sobre un export JSON del nodo {@code geocelltrack/tracker} y produce una actualización
+ * multi-ruta relativa a {@code geocelltrack}, para aplicarla con permisos de administrador:
+ * {@code firebase database:update /geocelltrack salida.json}. Es idempotente: volver a correrla
+ * recalcula los mismos resúmenes. Opcionalmente borra los puntos crudos de las horas resumidas
+ * ({@code --purgar}) y mueve los puntos del formato plano anterior a su partición ({@code --migrar}),
+ * incluidos los del formato original ({@code timestamp} y {@code location} en vez de
+ * {@code timestamp_ms} y {@code gps}).
+ *
+ * Una hora se purga solo si la siguiente también está cerrada y se resolvió en la misma corrida. Los
+ * deltas de las horas que quedan cuya base estaba en una hora purgada se reescriben como frames
+ * clave: en la próxima corrida (y para los tableros) la cadena se sigue pudiendo reconstruir.
+ *
+ * Uso: {@code TrackCompactor <export.json> <salida.json> [--gracia-h 48] [--intervalo-s 60] [--purgar] [--migrar]}
+ * (también con {@code ./gradlew :tools:compactTracks --args="..."}).
+ */
+final class TrackCompactor {
+
+    static final String SUMMARY_ROOT = "tracker_resumen";
+    static final long DEFAULT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    // Mayor que el backoff del drenado: después de esto no deberían llegar puntos a la hora
+    static final long DEFAULT_GRACE_MS = TimeUnit.HOURS.toMillis(48);
+    static final int SUMMARY_VERSION = 1;
+
+    private static final double EARTH_RADIUS_M = 6_371_008.8;
+    private static final double DEG = Math.PI / 180;
+
+    private final long intervalMs;
+    private final long graceMs;
+    private final boolean purge;
+    private final boolean migrate;
+
+    TrackCompactor(long intervalMs, long graceMs, boolean purge, boolean migrate) {
+        this.intervalMs = Math.max(1, intervalMs);
+        this.graceMs = Math.max(0, graceMs);
+        this.purge = purge;
+        this.migrate = migrate;
+    }
+
+    /**
+     * Actualización multi-ruta para el export de {@code geocelltrack/tracker}
+     * ({@code userId → día → hora → clave → punto}, más los puntos planos anteriores a la partición).
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> compact(Map<String, Object> tracker, long nowMs) {
+        Map<String, Object> updates = new TreeMap<>();
+        for (Map.Entry<String, Object> user : tracker.entrySet()) {
+            if (!(user.getValue() instanceof Map)) continue;
+            String uid = user.getKey();
+            // día → hora → clave → punto; copia de dos niveles para sumar los puntos migrados
+            Map<String, Map<String, Map<String, Object>>> days = new TreeMap<>();
+            Map<String, String> moved = new TreeMap<>();  // clave plana → partición
+            for (Map.Entry<String, Object> child : ((Map<String, Object>) user.getValue()).entrySet()) {
+                if (!(child.getValue() instanceof Map)) continue;
+                Map<String, Object> node = (Map<String, Object>) child.getValue();
+                if (TrackPartition.isDay(child.getKey())) {
+                    for (Map.Entry<String, Object> hour : node.entrySet()) {
+                        if (!TrackPartition.isHour(hour.getKey()) || !(hour.getValue() instanceof Map)) continue;
+                        hours(days, child.getKey()).put(hour.getKey(), new HashMap<>((Map<String, Object>) hour.getValue()));
+                    }
+                } else if (migrate) {
+                    long ts = timestampMs(node);
+                    if (ts < 0) continue;
+                    String partition = TrackPartition.of(ts);
+                    Map<String, Map<String, Object>> hours = hours(days, partition.substring(0, 8));
+                    Map<String, Object> points = hours.get(partition.substring(9));
+                    if (points == null) {
+                        points = new HashMap<>();
+                        hours.put(partition.substring(9), points);
+                    }
+                    points.put(child.getKey(), node);
+                    moved.put(child.getKey(), partition);
+                }
+            }
+
+            // Todas las horas en orden cronológico por el mismo lector, así los deltas encuentran su base
+            // aunque esté en la hora anterior
+            PointDeltaReader reader = new PointDeltaReader();
+            Map<String, Map<String, Map<String, Object>>> resolvedHours = new TreeMap<>();
+            Set<Long> purgedSeqs = new HashSet<>();
+            for (Map.Entry<String, Map<String, Map<String, Object>>> day : days.entrySet()) {
+                for (Map.Entry<String, Map<String, Object>> hour : day.getValue().entrySet()) {
+                    String partition = day.getKey() + "/" + hour.getKey();
+                    Map<String, Map<String, Object>> points = resolve(hour.getValue(), reader);
+                    resolvedHours.put(partition, points);
+                    if (!TrackPartition.isClosed(partition, nowMs, graceMs)) continue;
+                    Map<String, Object> summary = summarize(new ArrayList<Object>(points.values()), nowMs);
+                    if (summary == null) continue;
+                    updates.put(SUMMARY_ROOT + "/" + uid + "/" + partition, summary);
+                    // La hora siguiente tiene que estar cerrada: sus deltas ya se resolvieron con esta base
+                    if (purge && TrackPartition.isClosed(partition, nowMs - TrackPartition.HOUR_MS, graceMs)) {
+                        updates.put("tracker/" + uid + "/" + partition, null);
+                        for (Map<String, Object> point : points.values()) {
+                            long seq = asLong(point.get(DataPoint.FIELD_SEQ), -1);
+                            if (seq >= 0) purgedSeqs.add(seq);
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<String, String> move : moved.entrySet()) {
+                updates.put("tracker/" + uid + "/" + move.getKey(), null);
+                // Si la hora se purga, el punto ya está en su resumen
+                String path = "tracker/" + uid + "/" + move.getValue();
+                if (!updates.containsKey(path)) {
+                    Map<String, Object> points = days.get(move.getValue().substring(0, 8)).get(move.getValue().substring(9));
+                    updates.put(path + "/" + move.getKey(), points.get(move.getKey()));
+                }
+            }
+            if (!purgedSeqs.isEmpty()) rebase(uid, days, resolvedHours, purgedSeqs, updates);
+        }
+        return updates;
+    }
+
+    /**
+     * Puntos completos de una hora por clave: los frames del modo diferencial ({@link PointDeltaEncoder})
+     * se reconstruyen; uno sin base conocida queda como está y solo aporta los campos que trae.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> resolve(Map<String, Object> raw, PointDeltaReader reader) {
+        List<Map.Entry<String, Object>> entries = new ArrayList<>(raw.size());
+        for (Map.Entry<String, Object> e : raw.entrySet()) if (e.getValue() instanceof Map) entries.add(e);
+        entries.sort(Comparator.comparingLong(e -> asLong(((Map<String, Object>) e.getValue()).get(DataPoint.FIELD_SEQ), Long.MAX_VALUE)));
+        Map<String, Map<String, Object>> out = new LinkedHashMap<>(entries.size() * 2);
+        for (Map.Entry<String, Object> e : entries) {
+            Map<String, Object> p = (Map<String, Object>) e.getValue();
+            Object session = p.get(PointDeltaEncoder.FIELD_SESSION);
+            // La cabecera solo aporta campos estáticos, que el resumen no usa
+            if (session != null) reader.addSession(session.toString(), new HashMap<String, Object>());
+            Map<String, Object> full = reader.read(p);
+            out.put(e.getKey(), full != null ? full : p);
+        }
+        return out;
+    }
+
+    /**
+     * Reescribe como frame clave cada delta de una hora que queda cuya base se purga en esta corrida.
+     * Sin cabecera, el punto resuelto trae solo los campos del cuerpo, que es lo que lleva un frame clave.
+     */
+    private static void rebase(String uid, Map<String, Map<String, Map<String, Object>>> days,
+                               Map<String, Map<String, Map<String, Object>>> resolvedHours, Set<Long> purgedSeqs,
+                               Map<String, Object> updates) {
+        for (Map.Entry<String, Map<String, Map<String, Object>>> hour : resolvedHours.entrySet()) {
+            String path = "tracker/" + uid + "/" + hour.getKey();
+            if (updates.containsKey(path)) continue;
+            Map<String, Object> raw = days.get(hour.getKey().substring(0, 8)).get(hour.getKey().substring(9));
+            for (Map.Entry<String, Map<String, Object>> point : hour.getValue().entrySet()) {
+                Map<?, ?> frame = (Map<?, ?>) raw.get(point.getKey());
+                if (!PointDeltaEncoder.FRAME_DELTA.equals(frame.get(PointDeltaEncoder.FIELD_FRAME))
+                        || !purgedSeqs.contains(asLong(frame.get(PointDeltaEncoder.FIELD_BASE), -1))
+                        || point.getValue() == frame) {
+                    continue;
+                }
+                Map<String, Object> keyframe = new HashMap<>(point.getValue());
+                keyframe.put(PointDeltaEncoder.FIELD_FRAME, PointDeltaEncoder.FRAME_KEY);
+                keyframe.put(PointDeltaEncoder.FIELD_SESSION, frame.get(PointDeltaEncoder.FIELD_SESSION));
+                updates.put(path + "/" + point.getKey(), keyframe);
+            }
+        }
+    }
+
+    private static Map<String, Map<String, Object>> hours(Map<String, Map<String, Map<String, Object>>> days,
+                                                          String day) {
+        Map<String, Map<String, Object>> hours = days.get(day);
+        if (hours == null) {
+            hours = new TreeMap<>();
+            days.put(day, hours);
+        }
+        return hours;
+    }
+
+    /** Resumen de los puntos de una partición, o null si ninguno tiene marca de tiempo. */
+    @SuppressWarnings("unchecked")
+    Map<String, Object> summarize(Collection<Object> rawPoints, long nowMs) {
+        List<Map<String, Object>> points = new ArrayList<>(rawPoints.size());
+        for (Object p : rawPoints) {
+            if (p instanceof Map && timestampMs((Map<String, Object>) p) >= 0) points.add((Map<String, Object>) p);
+        }
+        if (points.isEmpty()) return null;
+        points.sort(Comparator.comparingLong(TrackCompactor::timestampMs));
+
+        int withGps = 0;
+        double distanceM = 0;
+        double latMin = 90, latMax = -90, lonMin = 180, lonMax = -180;
+        double prevLat = Double.NaN, prevLon = Double.NaN;
+        int dbmCount = 0;
+        long dbmSum = 0;
+        long dbmMin = Long.MAX_VALUE, dbmMax = Long.MIN_VALUE;
+        // Último fix de cada intervalo, en orden
+        Map<Long, Map<String, Object>> buckets = new LinkedHashMap<>();
+
+        for (Map<String, Object> p : points) {
+            long ts = timestampMs(p);
+            Long dbm = dbm(p);
+            if (dbm != null) {
+                dbmCount++;
+                dbmSum += dbm;
+                dbmMin = Math.min(dbmMin, dbm);
+                dbmMax = Math.max(dbmMax, dbm);
+            }
+            Object gps = p.containsKey("gps") ? p.get("gps") : p.get("location");
+            if (!(gps instanceof Map)) continue;
+            Object lat = ((Map<String, Object>) gps).get("lat");
+            Object lon = ((Map<String, Object>) gps).get("lon");
+            if (!(lat instanceof Number) || !(lon instanceof Number)) continue;
+            double la = ((Number) lat).doubleValue();
+            double lo = ((Number) lon).doubleValue();
+            withGps++;
+            latMin = Math.min(latMin, la);
+            latMax = Math.max(latMax, la);
+            lonMin = Math.min(lonMin, lo);
+            lonMax = Math.max(lonMax, lo);
+            if (!Double.isNaN(prevLat)) distanceM += distanceM(prevLat, prevLon, la, lo);
+            prevLat = la;
+            prevLon = lo;
+
+            Map<String, Object> sample = new HashMap<>(8);
+            sample.put("t", ts);
+            sample.put("lat", la);
+            sample.put("lon", lo);
+            if (dbm != null) sample.put("dbm", dbm);
+            buckets.put(Math.floorDiv(ts, intervalMs), sample);
+        }
+
+        Map<String, Object> summary = new HashMap<>(16);
+        summary.put("version", (long) SUMMARY_VERSION);
+        summary.put("puntos", (long) points.size());
+        summary.put("con_gps", (long) withGps);
+        summary.put("desde_ms", timestampMs(points.get(0)));
+        summary.put("hasta_ms", timestampMs(points.get(points.size() - 1)));
+        summary.put("intervalo_s", intervalMs / 1000);
+        summary.put("compactado_ms", nowMs);
+        if (withGps > 0) {
+            summary.put("distancia_m", Math.round(distanceM * 10) / 10.0);
+            Map<String, Object> box = new HashMap<>(4);
+            box.put("lat_min", latMin);
+            box.put("lat_max", latMax);
+            box.put("lon_min", lonMin);
+            box.put("lon_max", lonMax);
+            summary.put("caja", box);
+            summary.put("traza", new ArrayList<>(buckets.values()));
+        }
+        if (dbmCount > 0) {
+            summary.put("dbm_min", dbmMin);
+            summary.put("dbm_max", dbmMax);
+            summary.put("dbm_prom", Math.round(dbmSum * 10.0 / dbmCount) / 10.0);
+        }
+        return summary;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Long dbm(Map<String, Object> p) {
+        Object red = p.get("red");
+        if (!(red instanceof Map)) return null;
+        Object dbm = ((Map<String, Object>) red).get("potencia_dbm");
+        return dbm instanceof Number ? ((Number) dbm).longValue() : null;
+    }
+
+    // Formato original (sendFinalData): "timestamp" y "location", como en DataPoint.fromLegacyMap
+    private static long timestampMs(Map<String, Object> p) {
+        return asLong(p.containsKey("timestamp_ms") ? p.get("timestamp_ms") : p.get("timestamp"), -1);
+    }
+
+    private static long asLong(Object value, long fallback) {
+        return value instanceof Number ? ((Number) value).longValue() : fallback;
+    }
+
+    // Haversine: distancias cortas entre fixes consecutivos, sin la imprecisión del coseno
+    private static double distanceM(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = (lat2 - lat1) * DEG;
+        double dLon = (lon2 - lon1) * DEG;
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(lat1 * DEG) * Math.cos(lat2 * DEG) * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_M * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Uso: TrackCompactor <export.json> <salida.json> "
+                    + "[--gracia-h 48] [--intervalo-s 60] [--purgar] [--migrar]");
+            System.exit(2);
+        }
+        File input = new File(args[0]);
+        File output = new File(args[1]);
+        long graceMs = DEFAULT_GRACE_MS;
+        long intervalMs = DEFAULT_INTERVAL_MS;
+        boolean purge = false;
+        boolean migrate = false;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--gracia-h":
+                    graceMs = TimeUnit.HOURS.toMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--intervalo-s":
+                    intervalMs = TimeUnit.SECONDS.toMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--purgar":
+                    purge = true;
+                    break;
+                case "--migrar":
+                    migrate = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+
+        long start = System.nanoTime();
+        Type type = new TypeToken<Map<String, Object>>() { }.getType();
+        Map<String, Object> tracker;
+        try (Reader in = new InputStreamReader(new FileInputStream(input), StandardCharsets.UTF_8)) {
+            tracker = new Gson().fromJson(in, type);
+        }
+        if (tracker == null) tracker = new HashMap<>();
+
+        Map<String, Object> updates = new TrackCompactor(intervalMs, graceMs, purge, migrate)
+                .compact(tracker, System.currentTimeMillis());
+        // Los null son borrados en la actualización multi-ruta
+        Gson out = new GsonBuilder().serializeNulls().create();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(output), StandardCharsets.UTF_8)) {
+            out.toJson(updates, writer);
+        }
+        long summaries = 0;
+        for (String path : updates.keySet()) if (path.startsWith(SUMMARY_ROOT + "/")) summaries++;
+        System.out.printf(Locale.US, "%d particiones resumidas, %d rutas en %s (%.1f s)%n",
+                summaries, updates.size(), output, (System.nanoTime() - start) / 1e9);
+    }
+}
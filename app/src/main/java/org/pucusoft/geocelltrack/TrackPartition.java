@@ -0,0 +1,71 @@
+package org.pucusoft.geocelltrack;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partición horaria de los puntos: {@code tracker/{userId}/{yyyyMMdd}/{HH}/{clave}}, en UTC para
+ * que la ruta no dependa de la zona del dispositivo ni salte con el horario de verano.
+ *
+ * Leer o escuchar una hora (o un día) baja solo ese subárbol, no toda la historia del agente. Una
+ * partición está cerrada cuando pasó su hora más un margen para los puntos que drena tarde la caja
+ * negra; recién entonces {@link TrackCompactor} la resume.
+ *
+ * Sin dependencias de Android.
+ */
+final class TrackPartition {
+
+    static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private static final DateTimeFormatter FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd/HH", Locale.US).withZone(ZoneOffset.UTC);
+
+    private TrackPartition() {
+    }
+
+    /** {@code yyyyMMdd/HH} de la hora UTC que contiene {@code timestampMs}. */
+    static String of(long timestampMs) {
+        return FORMAT.format(Instant.ofEpochMilli(timestampMs));
+    }
+
+    /** Ruta del punto relativa a {@code tracker/{userId}}. */
+    static String path(long timestampMs, String key) {
+        return of(timestampMs) + "/" + key;
+    }
+
+    /** Inicio de la partición {@code yyyyMMdd/HH}, o -1 si el nombre no es una partición. */
+    static long startMs(String partition) {
+        if (partition.length() != 11 || partition.charAt(8) != '/') return -1;
+        try {
+            return LocalDateTime.parse(partition, FORMAT).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    static boolean isDay(String name) {
+        return name.length() == 8 && isDigits(name);
+    }
+
+    static boolean isHour(String name) {
+        return name.length() == 2 && isDigits(name) && Integer.parseInt(name) < 24;
+    }
+
+    /** true si la partición terminó hace al menos {@code graceMs}. */
+    static boolean isClosed(String partition, long nowMs, long graceMs) {
+        long start = startMs(partition);
+        return start >= 0 && start + HOUR_MS + graceMs <= nowMs;
+    }
+
+    private static boolean isDigits(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9') return false;
+        }
+        return true;
+    }
+}
@@ -2,50 +2,71 @@ package org.pucusoft.geocelltrack;
 
 import android.Manifest;
 import android.annotation.SuppressLint;
+import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.location.Location;
-import android.os.BatteryManager;
+import android.net.ConnectivityManager;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
 import android.os.PowerManager;
-import android.provider.Settings;
+import android.os.Process;
+import android.os.SystemClock;
+import android.telephony.CellSignalStrength;
+import android.telephony.SignalStrength;
 import android.telephony.TelephonyManager;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LiveData;
-import androidx.lifecycle.MutableLiveData;
 
 import com.google.android.gms.location.ActivityRecognition;
 import com.google.android.gms.location.ActivityRecognitionClient;
 import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.location.Priority;
 import com.google.android.gms.tasks.Task;
-import com.google.firebase.database.DatabaseReference;
-import com.google.firebase.database.FirebaseDatabase;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
 
+import okhttp3.OkHttpClient;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class TrackerService extends Service {
 
@@ -53,28 +74,112 @@ public class TrackerService extends Service {
     public static final String CHANNEL_ID = "TrackerServiceChannel";
     private static final int NOTIFICATION_ID = 1;
     
-    // Intervalos dinámicos
-    private static final long INTERVALO_MOVIMIENTO = 70 * 1000; // 70 segundos
-    private static final long INTERVALO_QUIETO = 5 * 60 * 1000; // 5 minutos
-    private long currentInterval = INTERVALO_MOVIMIENTO;
+    // Intervalos dinámicos: los decide MotionStateMachine con las lecturas de DetectedActivityReceiver
+    static final String ACTION_ACTIVITY_UPDATE = "org.pucusoft.geocelltrack.ACTION_ACTIVITY_UPDATE";
+    static final String EXTRA_ACTIVITY_MODE = "activity_mode";
+    static final String EXTRA_ACTIVITY_CONFIDENCE = "activity_confidence";
+    private final MotionStateMachine motionState = new MotionStateMachine();
+    private long currentInterval = motionState.intervalMs();
+    // Cadencia pedida a Activity Recognition; se renegocia al cambiar el modo (ver activityIntervalMs)
+    private long activityIntervalMs;
+
+    // Planificador único (TimerWheel) del trabajo periódico. El tick puede correrse hasta
+    // PREF_TIMER_SLACK_PCT de su intervalo para coincidir con otro despertar.
+    static final String PREF_TIMER_SLACK_PCT = "timer_slack_pct";
+    private static final int DEFAULT_TIMER_SLACK_PCT = 10;
+    private WakeupScheduler scheduler;
+    private TimerWheel.Timer collectionTimer;
+    private int timerSlackPct = DEFAULT_TIMER_SLACK_PCT;
+    private boolean trackingStarted;
+
+    // Ubicación por lotes: el proveedor fusionado junta hasta LOCATION_BATCH_FIXES fixes por entrega.
+    // El tick periódico queda como respaldo (sin permiso o sin fixes).
+    private static final int LOCATION_BATCH_FIXES = 6;
+    private boolean locationUpdatesActive;
+    private long lastLocationBatchElapsed;
+
+    // Banda muerta para agentes quietos (epsilons configurables en GeoCellTrackPrefs)
+    static final String PREF_STATIONARY_DISTANCE_M = "stationary_distance_m";
+    static final String PREF_STATIONARY_ACCURACY_M = "stationary_accuracy_m";
+    static final String PREF_STATIONARY_DBM = "stationary_dbm";
+    private StationaryFilter stationaryFilter;
+
+    // Caja negra: journal en disco (reemplaza la lista JSON "offline_data" de SharedPreferences).
+    // El drenado lo hace BacklogDrainWorker, fuera del bucle de recolección.
+    private static final String LEGACY_OFFLINE_KEY = "offline_data";
+    private static final int LEGACY_MIGRATION_CHUNK = 200;
+    private OfflineJournal offlineJournal;
+
+    // Entrega exactly-once: cada punto lleva una secuencia monotónica y se escribe bajo una clave determinista
+    private DeliveryLedger deliveryLedger;
+
+    // Destino de la subida: Firebase salvo que GeoCellTrackPrefs pida "ndjson" (archivo local) o
+    // "memoria" (pruebas de carga); compartido con BacklogDrainWorker
+    static final String PREF_TELEMETRY_SINK = "telemetry_sink";
+    static final String TELEMETRY_NDJSON_FILE = "telemetry.ndjson";
+    // Destino "http": lotes NDJSON con gzip hacia un endpoint propio (por defecto BuildConfig.INGEST_URL)
+    static final String PREF_INGEST_URL = "ingest_url";
+    static final String PREF_INGEST_MAX_DELAY_MS = "ingest_max_delay_ms";
+    private static TelemetrySink sharedSink;
+    private TelemetrySink sink;
+
+    // Modo diferencial (opcional): cabecera de sesión con los bloques estáticos y por punto solo los
+    // campos que cambiaron, con frames clave periódicos. Los consumidores reconstruyen con PointDeltaReader
+    static final String PREF_DELTA_ENCODING = "delta_encoding";
+    static final String PREF_DELTA_KEYFRAME_INTERVAL = "delta_keyframe_interval";
+    private PointDeltaEncoder deltaEncoder;
+
+    // Sin red validada o con el disyuntor abierto los puntos van directo a la caja negra, sin
+    // intentar la escritura; al volver la red se drena enseguida
+    private ConnectivityMonitor connectivity;
+    private final CircuitBreaker uploadBreaker = new CircuitBreaker(CircuitBreaker.DEFAULT_FAILURE_THRESHOLD,
+            CircuitBreaker.DEFAULT_OPEN_MS, CircuitBreaker.DEFAULT_MAX_OPEN_MS);
+    private long gatedPoints;
+    // Plazo del ack de una subida en vivo (menor que CycleWakeLock.CYCLE_TIMEOUT_MS): con la red trabada
+    // Firebase no falla la escritura, la deja en cola en memoria; al vencer cuenta como falla
+    private static final long UPLOAD_ACK_DEADLINE_MS = 20 * 1000;
+    // Subida en vuelo de cada ciclo, para darla por fallida si el ciclo vence antes que el plazo
+    private final Map<CycleWakeLock.Cycle, AckGuard> uploadsInFlight = new HashMap<>();
+
+    // Celdas y bloques estáticos de la sesión (hardware/sim se calculan una vez y se comparten).
+    // La lista de celdas viaja como diff contra el punto subido anterior.
+    private CellInfoCollector cellCollector;
+    private final CellListDiffer cellDiffer = new CellListDiffer();
+
+    // Ubicación de antenas y posición por celdas para los puntos sin GPS (null si no hay índice)
+    private CellTowerIndex towerIndex;
+    private CellTrilateration trilateration;
+
+    // Suavizado de la trayectoria: fusiona fixes GPS y posiciones por celdas antes del filtro de quietud
+    private final KalmanSmoother smoother = new KalmanSmoother();
+
+    // Codificador streaming del payload (solo se usa en el hilo del pipeline). Gson queda únicamente
+    // para la migración de datos heredados, con una instancia compartida.
+    private static final Gson GSON = new Gson();
+    private PayloadEncoder payloadEncoder;
+    private PayloadEncoder uiEncoder; // hilo principal: solo para la vista del último payload
 
     private final IBinder binder = new TrackerBinder();
-    private final Handler dataCollectionHandler = new Handler(Looper.getMainLooper());
-    private Runnable dataCollectionRunnable;
-    
-    private final Handler clockHandler = new Handler(Looper.getMainLooper());
-    private Runnable clockRunnable;
-    private long startTimeMillis = 0;
 
-    private String userId;
-    private PowerManager.WakeLock wakeLock;
+    // Pipeline recolectar → enriquecer → codificar → persistir → subir en un hilo propio.
+    // En el hilo principal solo queda el postValue de los LiveData.
+    private HandlerThread pipelineThread;
+    private Executor pipelineExecutor;
+    private Handler dataCollectionHandler;
+
+    private volatile String userId;
+    // Wake lock por ciclo (no uno fijo para toda la sesión) y su contabilidad por modo de movimiento
+    private CycleWakeLock cycleWakeLock;
+    private WakeTimeAccounting wakeTime;
     private FusedLocationProviderClient fusedLocationClient;
     private ActivityRecognitionClient activityRecognitionClient;
     private PendingIntent activityRecognitionPendingIntent; // SOLUCIÓN: Variable miembro para el PendingIntent
 
-    private final MutableLiveData<String> lastPayload = new MutableLiveData<>();
-    private final MutableLiveData<String> elapsedTime = new MutableLiveData<>();
-    private final MutableLiveData<Integer> elapsedSeconds = new MutableLiveData<>();
+    // Último payload: se codifica a JSON solo mientras una pantalla lo observa
+    private final LatestPayloadLiveData lastPayload = new LatestPayloadLiveData(this::encodeForUi);
+    // Reloj de la UI: solo hace tick mientras una pantalla lo observa
+    private final ElapsedTimeLiveData<String> elapsedTime = new ElapsedTimeLiveData<>(TrackerService::formatElapsed);
+    private final ElapsedTimeLiveData<Integer> elapsedSeconds = new ElapsedTimeLiveData<>(ms -> (int) (ms / 1000));
 
     public class TrackerBinder extends Binder {
         public TrackerService getService() { return TrackerService.this; }
@@ -84,6 +189,14 @@ public class TrackerService extends Service {
     public LiveData<String> getElapsedTime() { return elapsedTime; }
     public LiveData<Integer> getElapsedSeconds() { return elapsedSeconds; }
 
+    /** Milisegundos de rastreo calculados al momento, o -1 si no empezó; no depende de observadores. */
+    public long getElapsedMillis() { return elapsedTime.elapsedMs(); }
+
+    /** Costo acumulado de CPU despierta por modo de muestreo (segundos despiertos por hora en cada modo). */
+    public String getWakeTimeSummary() {
+        return wakeTime != null ? wakeTime.summary(SystemClock.elapsedRealtime()) : "";
+    }
+
     public void stopTracking() { stopSelf(); }
 
     @Nullable @Override
@@ -92,57 +205,135 @@ public class TrackerService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        pipelineThread = new HandlerThread("TrackerPipeline", Process.THREAD_PRIORITY_BACKGROUND);
+        pipelineThread.start();
+        dataCollectionHandler = new Handler(pipelineThread.getLooper());
+        pipelineExecutor = dataCollectionHandler::post;
+        scheduler = new WakeupScheduler(dataCollectionHandler, (AlarmManager) getSystemService(ALARM_SERVICE),
+                (PowerManager) getSystemService(POWER_SERVICE), getTimerWakeupIntent());
+        registerReceiver(deviceIdleReceiver, new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED),
+                null, dataCollectionHandler);
+
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        cellCollector = new CellInfoCollector(this, pipelineExecutor);
         activityRecognitionClient = ActivityRecognition.getClient(this);
         activityRecognitionPendingIntent = getPendingIntent(); // SOLUCIÓN: Crear la instancia UNA SOLA VEZ
+        // E/S de disco fuera del hilo principal; el orden de la cola garantiza que termine antes del primer tick
+        dataCollectionHandler.post(() -> {
+            sink = telemetrySink(this);
+            SharedPreferences prefs = getSharedPreferences("GeoCellTrackPrefs", Context.MODE_PRIVATE);
+            boolean delta = prefs.getBoolean(PREF_DELTA_ENCODING, false);
+            int keyframeInterval = prefs.getInt(PREF_DELTA_KEYFRAME_INTERVAL, PointDeltaEncoder.DEFAULT_KEYFRAME_INTERVAL);
+            timerSlackPct = Math.max(0, Math.min(50, prefs.getInt(PREF_TIMER_SLACK_PCT, DEFAULT_TIMER_SLACK_PCT)));
+            stationaryFilter = buildStationaryFilter();
+            openDeliveryLedger();
+            if (delta && deliveryLedger != null) {
+                deltaEncoder = new PointDeltaEncoder(deliveryLedger.deviceTag(), keyframeInterval);
+            }
+            openOfflineJournal();
+            openTowerIndex();
+            connectivity = new ConnectivityMonitor((ConnectivityManager) getSystemService(CONNECTIVITY_SERVICE),
+                    dataCollectionHandler, this::onConnectivityChanged);
+            connectivity.start();
+            cellCollector.start();
+        });
 
-        PowerManager powerManager = (PowerManager) getSystemService(POWER_SERVICE);
-        if (powerManager != null) {
-            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "GeoCellTrack::TrackerWakelock");
-            wakeLock.acquire(10 * 60 * 1000L);
-        }
+        wakeTime = new WakeTimeAccounting(motionState.mode(), SystemClock.elapsedRealtime());
+        cycleWakeLock = new CycleWakeLock((PowerManager) getSystemService(POWER_SERVICE), dataCollectionHandler, wakeTime);
         startActivityUpdates();
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_ACTIVITY_UPDATE.equals(intent.getAction())) {
+            handleActivityUpdate(intent);
+            return START_STICKY;
+        }
+
         createNotificationChannel();
         startForeground(NOTIFICATION_ID, createNotification("Rastreando..."));
 
-        userId = intent.getStringExtra("userId");
+        userId = intent != null ? intent.getStringExtra("userId") : null;
         if (userId == null || userId.isEmpty()) {
             stopSelf();
             return START_NOT_STICKY;
         }
 
-        startDataCollection();
-        startClock();
+        dataCollectionHandler.post(this::scheduleBacklogDrain);
+        // Un nuevo startService (BootReceiver, actividades) no debe abrir un segundo bucle
+        if (!trackingStarted) {
+            trackingStarted = true;
+            startDataCollection();
+            startClock();
+        }
         return START_STICKY;
     }
 
-    private void startClock() {
-        startTimeMillis = System.currentTimeMillis();
-        clockRunnable = new Runnable() {
-            @Override
-            public void run() {
-                long millis = System.currentTimeMillis() - startTimeMillis;
-                int seconds = (int) (millis / 1000);
-                int minutes = seconds / 60;
-                int secs = seconds % 60;
-                elapsedTime.postValue(String.format(Locale.getDefault(), "%02d:%02d", minutes, secs));
-                elapsedSeconds.postValue(seconds);
-                clockHandler.postDelayed(this, 1000);
+    private void handleActivityUpdate(Intent intent) {
+        if (!trackingStarted) {
+            // La lectura llegó sin rastreo en curso: no hay bucle que ajustar
+            if (userId == null) stopSelf();
+            return;
+        }
+        MotionStateMachine.Mode detected;
+        try {
+            detected = MotionStateMachine.Mode.valueOf(intent.getStringExtra(EXTRA_ACTIVITY_MODE));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            return;
+        }
+        int confidence = intent.getIntExtra(EXTRA_ACTIVITY_CONFIDENCE, 0);
+        long now = SystemClock.elapsedRealtime();
+        dataCollectionHandler.post(() -> {
+            if (!motionState.onActivity(detected, confidence, now)) {
+                // La lectura ya despertó el dispositivo: corren los timers con la ventana abierta
+                scheduler.onWakeup();
+                return;
             }
-        };
-        clockHandler.post(clockRunnable);
+            currentInterval = motionState.intervalMs();
+            smoother.setAccelerationStd(KalmanSmoother.accelerationStdFor(motionState.mode()));
+            wakeTime.onModeChanged(motionState.mode(), now);
+            Log.d(TAG, "Modo de movimiento: " + motionState.mode() + ". Intervalo: " + currentInterval / 1000 + " s");
+            // Reprogramar ya: nueva solicitud de ubicación, cadencia de actividad y el tick de respaldo
+            requestLocationBatches();
+            startActivityUpdates();
+            scheduler.runNow(collectionTimer, nextTickDelay(), tickSlack());
+        });
+    }
+
+    // El reloj es solo un instante de inicio; los LiveData derivan el valor cuando alguien observa
+    private void startClock() {
+        long start = SystemClock.elapsedRealtime();
+        elapsedTime.start(start);
+        elapsedSeconds.start(start);
+    }
+
+    private static String formatElapsed(long elapsedMs) {
+        int seconds = (int) (elapsedMs / 1000);
+        return String.format(Locale.getDefault(), "%02d:%02d", seconds / 60, seconds % 60);
     }
 
     private void startDataCollection() {
-        dataCollectionRunnable = () -> {
-            detectActivityAndCollect();
-            dataCollectionHandler.postDelayed(dataCollectionRunnable, currentInterval);
-        };
-        dataCollectionHandler.post(dataCollectionRunnable);
+        dataCollectionHandler.post(() -> {
+            collectionTimer = scheduler.every("recoleccion", nextTickDelay(), tickSlack(), true, () -> {
+                detectActivityAndCollect();
+                // La primera ejecución ocurre dentro de every(), antes de que exista collectionTimer
+                if (collectionTimer != null) collectionTimer.setPeriod(nextTickDelay(), tickSlack());
+            });
+            requestLocationBatches();
+        });
+    }
+
+    private final BroadcastReceiver deviceIdleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Registrado con el handler del pipeline
+            scheduler.onDeviceIdleChanged();
+        }
+    };
+
+    private PendingIntent getTimerWakeupIntent() {
+        Intent intent = new Intent(this, TimerWakeupReceiver.class);
+        return PendingIntent.getBroadcast(this, 1, intent, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
     }
     
     // --- Lógica de Actividad y Caja Negra ---
@@ -153,12 +344,18 @@ public class TrackerService extends Service {
             Log.w(TAG, "No se tiene permiso de ACTIVITY_RECOGNITION");
             return;
         }
+        // Cada entrega despierta el dispositivo: se pide a la cadencia del tick (y se aprovecha como
+        // despertar en handleActivityUpdate), no más seguido. Pedirla de nuevo con el mismo
+        // PendingIntent reemplaza la solicitud anterior
+        long interval = motionState.activityIntervalMs();
+        if (interval == activityIntervalMs) return;
+        activityIntervalMs = interval;
         try {
             Task<Void> task = activityRecognitionClient.requestActivityUpdates(
-                    10000, // Cada 10 segundos
+                    interval,
                     activityRecognitionPendingIntent); // SOLUCIÓN: Usar la instancia guardada
 
-            task.addOnSuccessListener(result -> Log.d(TAG, "Detección de actividad iniciada."));
+            task.addOnSuccessListener(result -> Log.d(TAG, "Detección de actividad cada " + interval / 1000 + " s."));
             task.addOnFailureListener(e -> Log.e(TAG, "Fallo al iniciar detección de actividad.", e));
         } catch (SecurityException e) {
             Log.e(TAG, "Error de seguridad al iniciar detección de actividad", e);
@@ -168,98 +365,541 @@ public class TrackerService extends Service {
     private PendingIntent getPendingIntent() {
         Intent intent = new Intent(this, DetectedActivityReceiver.class);
         int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
+        // Play Services agrega el ActivityRecognitionResult como extra: desde API 31 el intent tiene
+        // que ser mutable, o DetectedActivityReceiver nunca recibe un resultado
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            flags |= PendingIntent.FLAG_MUTABLE;
         }
         return PendingIntent.getBroadcast(this, 0, intent, flags);
     }
 
     private void detectActivityAndCollect() {
-         // Aquí la lógica de detección de actividad actualizaría la variable `currentInterval`.
-         // Por simplicidad, asumimos que ya se actualizó por el BroadcastReceiver (que no hemos creado).
-         // La recolección de datos sigue su curso.
-        collectAndSendData();
+        // currentInterval lo actualiza handleActivityUpdate al cambiar el modo de movimiento.
+        // Con actualizaciones por lotes activas, el tick solo cubre lotes atrasados (sin fix, sin permiso)
+        if (locationUpdatesActive
+                && SystemClock.elapsedRealtime() - lastLocationBatchElapsed < locationBatchWindow() + currentInterval) {
+            return;
+        }
+        collectAndSendData(cycleWakeLock.begin("tick", this::onCycleTimeout));
     }
-    
+
+    private long nextTickDelay() {
+        return locationUpdatesActive ? locationBatchWindow() : currentInterval;
+    }
+
+    private long tickSlack() {
+        return nextTickDelay() * timerSlackPct / 100;
+    }
+
+    // --- Ubicación por lotes ---
+
+    private long locationBatchWindow() {
+        return currentInterval * LOCATION_BATCH_FIXES;
+    }
+
+    /**
+     * Pide fixes al proveedor fusionado cada {@code currentInterval}, entregados en lotes de hasta
+     * {@link #LOCATION_BATCH_FIXES}: una sola activación por lote en vez de una por tick. Volver a
+     * llamarlo con el mismo callback reemplaza la solicitud anterior (cambio de modo).
+     */
     @SuppressLint("MissingPermission")
-    private void collectAndSendData() {
-        // 1. Intentar enviar datos offline primero
-        sendOfflineData();
+    private void requestLocationBatches() {
+        if (!hasPermission(Manifest.permission.ACCESS_FINE_LOCATION)
+                && !hasPermission(Manifest.permission.ACCESS_COARSE_LOCATION)) {
+            Log.w(TAG, "Sin permiso de ubicación: solo se usará el tick de respaldo.");
+            return;
+        }
+        int priority = motionState.mode() == MotionStateMachine.Mode.STILL
+                ? Priority.PRIORITY_BALANCED_POWER_ACCURACY : Priority.PRIORITY_HIGH_ACCURACY;
+        LocationRequest request = new LocationRequest.Builder(priority, currentInterval)
+                .setMinUpdateIntervalMillis(currentInterval / 2)
+                .setMaxUpdateDelayMillis(locationBatchWindow())
+                .build();
+        try {
+            fusedLocationClient.requestLocationUpdates(request, locationCallback, pipelineThread.getLooper())
+                    .addOnSuccessListener(pipelineExecutor, aVoid -> {
+                        locationUpdatesActive = true;
+                        lastLocationBatchElapsed = SystemClock.elapsedRealtime();
+                    })
+                    .addOnFailureListener(pipelineExecutor, e -> {
+                        locationUpdatesActive = false;
+                        Log.e(TAG, "No se pudieron iniciar las actualizaciones de ubicación", e);
+                    });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Error de seguridad al pedir actualizaciones de ubicación", e);
+        }
+    }
+
+    private final LocationCallback locationCallback = new LocationCallback() {
+        @Override
+        public void onLocationResult(@NonNull LocationResult result) {
+            // Corre en el looper del pipeline
+            lastLocationBatchElapsed = SystemClock.elapsedRealtime();
+            List<Location> locations = result.getLocations();
+            if (locations.isEmpty()) return;
+            CycleWakeLock.Cycle cycle = cycleWakeLock.begin("lote", this::onCycleTimeout);
+
+            TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
+            List<DataPoint> points = new ArrayList<>(locations.size());
+            for (int i = 0; i < locations.size(); i++) {
+                DataPoint dataPoint = newDataPoint(tm);
+                Location location = locations.get(i);
+                fillLocation(dataPoint, location);
+                dataPoint.timestampMs = location.getTime();
+                // Las celdas y la señal actuales solo describen el fix más reciente del lote
+                if (i == locations.size() - 1) fillCells(dataPoint, tm);
+                points.add(dataPoint);
+            }
+            Log.d(TAG, "Lote de ubicación: " + points.size() + " fixes.");
+            sendPoints(points, cycle);
+            scheduler.onWakeup();
+        }
+    };
+
+    // --- Recolección ---
 
-        // 2. Recolectar datos actuales
+    private DataPoint newDataPoint(TelephonyManager tm) {
+        DataPoint dataPoint = new DataPoint();
+        dataPoint.timestampMs = System.currentTimeMillis();
+        dataPoint.hardware = cellCollector.hardwareBlock(deliveryLedger != null ? deliveryLedger.deviceUuid() : null);
+        dataPoint.sim = cellCollector.simBlock();
+        return dataPoint;
+    }
+
+    private void fillCells(DataPoint dataPoint, TelephonyManager tm) {
+        dataPoint.cells = cellCollector.collect(currentInterval);
+        CellObservation serving = dataPoint.cells != null ? dataPoint.cells.serving() : null;
+        dataPoint.dbm = serving != null && serving.dbm != DataPoint.NO_VALUE ? serving.dbm : getServingDbm(tm);
+        // Sobre la lista completa: después CellListDiffer puede dejar solo las celdas que cambiaron
+        if (trilateration != null) trilateration.applyTo(dataPoint.cells);
+    }
+
+    private static void fillLocation(DataPoint dataPoint, Location location) {
+        dataPoint.setLocation(location.getLatitude(), location.getLongitude());
+        if (location.hasAccuracy()) dataPoint.accuracyM = location.getAccuracy();
+        if (location.hasAltitude()) dataPoint.altitudeM = (float) location.getAltitude();
+        if (location.hasSpeed()) dataPoint.speedMps = location.getSpeed();
+        if (location.hasBearing()) dataPoint.bearingDeg = location.getBearing();
+        dataPoint.fixTimeMs = location.getTime();
+    }
+
+    @SuppressLint("MissingPermission")
+    private void collectAndSendData(CycleWakeLock.Cycle cycle) {
+        // Recolectar datos actuales (la caja negra la drena BacklogDrainWorker)
         TelephonyManager tm = (TelephonyManager) getSystemService(Context.TELEPHONY_SERVICE);
-        Map<String, Object> dataPoint = new HashMap<>();
-        dataPoint.put("timestamp", System.currentTimeMillis());
-        dataPoint.put("hardware", getHardwareData(tm));
-        dataPoint.put("sim", getSimData(tm));
+        DataPoint dataPoint = newDataPoint(tm);
+        fillCells(dataPoint, tm);
         
-        fusedLocationClient.getLastLocation().addOnCompleteListener(task -> {
+        fusedLocationClient.getLastLocation().addOnCompleteListener(pipelineExecutor, task -> {
             if (task.isSuccessful() && task.getResult() != null) {
-                Location location = task.getResult();
-                dataPoint.put("location", Map.of("lat", location.getLatitude(), "lon", location.getLongitude()));
+                fillLocation(dataPoint, task.getResult());
             } else {
                 Log.w(TAG, "No se pudo obtener la ubicación.");
-                dataPoint.put("location", null);
             }
-            // Se llama a sendFinalData aquí para asegurar que se envíe con o sin ubicación
-            sendFinalData(dataPoint, false);
+            // Se envía con o sin ubicación
+            sendPoints(Collections.singletonList(dataPoint), cycle);
+        });
+    }
+
+    /**
+     * Sube los puntos en una sola escritura multi-ruta bajo sus claves deterministas. Si falla o no
+     * se confirma dentro de {@link #UPLOAD_ACK_DEADLINE_MS}, todos van a la caja negra y el drenado
+     * reescribe las mismas claves.
+     *
+     * Antes se suavizan con el {@link KalmanSmoother} y pasan por el {@link StationaryFilter}: los
+     * puntos sin cambios no reciben secuencia ni se suben, y en su lugar se escribe un latido. La
+     * secuencia se asigna después del filtro para no dejar huecos en el ledger de acks.
+     *
+     * Cierra {@code cycle} en el paso terminal: subida confirmada, caja negra o todo suprimido.
+     */
+    private void sendPoints(List<DataPoint> collected, CycleWakeLock.Cycle cycle) {
+        List<DataPoint> points = new ArrayList<>(collected.size());
+        for (DataPoint dataPoint : collected) {
+            smooth(dataPoint);
+            if (stationaryFilter.offer(dataPoint) && assignSequence(dataPoint)) {
+                cellDiffer.apply(dataPoint);
+                points.add(dataPoint);
+            }
+        }
+        if (points.isEmpty()) {
+            sendHeartbeatIfDue();
+            cycle.end();
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!connectivity.isOnline() || !uploadBreaker.allowRequest(now)) {
+            gatedPoints += points.size();
+            saveDataOffline(points);
+            cycle.end();
+            return;
+        }
+
+        PayloadEncoder encoder = payloadEncoder();
+        PointDeltaEncoder.Batch frames = deltaEncoder != null ? deltaEncoder.begin() : null;
+        Map<String, Object> updates = new HashMap<>(points.size() * 2);
+        for (DataPoint dataPoint : points) {
+            Map<String, Object> payload = encoder.toFirebaseMap(dataPoint);
+            updates.put(TrackPartition.path(dataPoint.timestampMs, deliveryLedger.keyFor(dataPoint.seq)),
+                    frames != null ? frames.frame(dataPoint.seq, payload) : payload);
+        }
+        if (frames != null) writeDeltaSessionIfPending();
+        DataPoint newest = points.get(points.size() - 1);
+        // Un solo desenlace: ack, falla o plazo vencido; lo que llegue después se ignora
+        AckGuard upload = new AckGuard(new TelemetrySink.Callback() {
+            @Override
+            public void onAck() {
+                uploadsInFlight.remove(cycle);
+                boolean recovered = uploadBreaker.state(SystemClock.elapsedRealtime()) != CircuitBreaker.State.CLOSED;
+                uploadBreaker.onSuccess();
+                markAcked(points);
+                if (recovered) scheduleBacklogDrain();
+                if (frames != null) deltaEncoder.onAcked(frames);
+                lastPayload.postPoint(newest);
+                cycle.end();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                uploadsInFlight.remove(cycle);
+                Log.w(TAG, "Fallo el envío. Guardando " + points.size() + " puntos en caja negra.", e);
+                uploadBreaker.onFailure(SystemClock.elapsedRealtime());
+                saveDataOffline(points);
+                cycle.end();
+            }
+        });
+        // El ciclo sigue abierto hasta el ack: el lote no espera el disparador por tiempo del destino
+        uploadsInFlight.put(cycle, upload);
+        TelemetrySink.writeNow(sink, userId, updates, pipelineExecutor, upload);
+        dataCollectionHandler.postDelayed(() -> upload.expire(UPLOAD_ACK_DEADLINE_MS), UPLOAD_ACK_DEADLINE_MS);
+    }
+
+    // Un ciclo que vence con la subida sin resolver toma el camino de la falla: caja negra y disyuntor
+    private void onCycleTimeout(CycleWakeLock.Cycle cycle) {
+        AckGuard upload = uploadsInFlight.remove(cycle);
+        if (upload != null) upload.expire(CycleWakeLock.CYCLE_TIMEOUT_MS);
+    }
+
+    // Hasta que la cabecera quede confirmada los puntos viajan completos, así nunca hay un delta sin sesión
+    private void writeDeltaSessionIfPending() {
+        String sessionId = deltaEncoder.pendingSessionId();
+        if (sessionId == null) return;
+        deltaEncoder.onSessionWriting(sessionId);
+        sink.writeSession(userId, sessionId, deltaEncoder.sessionHeader(), pipelineExecutor, new TelemetrySink.Callback() {
+            @Override
+            public void onAck() {
+                deltaEncoder.onSessionWritten(sessionId, true);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "No se pudo escribir la sesión " + sessionId + ". Se reintenta con el próximo lote.", e);
+                deltaEncoder.onSessionWritten(sessionId, false);
+            }
         });
     }
 
-    private void sendFinalData(Map<String, Object> dataPoint, boolean isOffline) {
-        DatabaseReference ref = FirebaseDatabase.getInstance().getReference("geocelltrack").child("tracker").child(userId);
-        ref.push().setValue(dataPoint)
-                .addOnSuccessListener(aVoid -> {
-                    if (!isOffline) lastPayload.postValue(new Gson().toJson(dataPoint));
-                })
-                .addOnFailureListener(e -> {
-                    Log.w(TAG, "Fallo envío a Firebase. Guardando en caja negra.");
-                    saveDataOffline(dataPoint);
-                });
+    // Latido compacto: un único nodo por dispositivo que se sobrescribe, no crece con el tiempo
+    private void sendHeartbeatIfDue() {
+        long now = System.currentTimeMillis();
+        if (!stationaryFilter.peekHeartbeatDue(now) || deliveryLedger == null) return;
+        // El latido no consume la escritura de prueba del disyuntor: solo sale con el circuito cerrado.
+        // Si no sale, sigue pendiente y se intenta en el próximo tick
+        if (!connectivity.isOnline()
+                || uploadBreaker.state(SystemClock.elapsedRealtime()) != CircuitBreaker.State.CLOSED) return;
+        Map<String, Object> heartbeat = new HashMap<>(8);
+        heartbeat.put("timestamp_ms", now);
+        heartbeat.put("suprimidos", (long) stationaryFilter.suppressedCount());
+        heartbeat.put("modo", motionState.mode().name());
+        heartbeat.put("device_uuid", deliveryLedger.deviceUuid());
+        double awakePerHour = wakeTime.awakeSecondsPerHour(motionState.mode(), SystemClock.elapsedRealtime());
+        if (!Double.isNaN(awakePerHour)) heartbeat.put("despierto_s_por_hora", awakePerHour);
+        sink.writeHeartbeat(userId, deliveryLedger.deviceTag(), heartbeat, pipelineExecutor, new TelemetrySink.Callback() {
+            @Override
+            public void onAck() {
+                // pipelineExecutor: el filtro solo se toca desde el hilo del pipeline
+                stationaryFilter.onHeartbeatSent(now);
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                Log.w(TAG, "No se pudo enviar el latido", e);
+            }
+        });
+        Log.d(TAG, "Quieto: " + stationaryFilter.suppressedCount() + " puntos suprimidos. Latido enviado.");
     }
 
-    private void saveDataOffline(Map<String, Object> dataPoint) {
+    private StationaryFilter buildStationaryFilter() {
         SharedPreferences prefs = getSharedPreferences("GeoCellTrackPrefs", Context.MODE_PRIVATE);
-        String offlineDataJson = prefs.getString("offline_data", "[]");
-        Type type = new TypeToken<ArrayList<Map<String, Object>>>(){}.getType();
-        List<Map<String, Object>> offlineData = new Gson().fromJson(offlineDataJson, type);
-        offlineData.add(dataPoint);
-        prefs.edit().putString("offline_data", new Gson().toJson(offlineData)).apply();
+        return new StationaryFilter(
+                prefs.getFloat(PREF_STATIONARY_DISTANCE_M, StationaryFilter.DEFAULT_DISTANCE_EPSILON_M),
+                prefs.getFloat(PREF_STATIONARY_ACCURACY_M, StationaryFilter.DEFAULT_ACCURACY_EPSILON_M),
+                prefs.getInt(PREF_STATIONARY_DBM, StationaryFilter.DEFAULT_DBM_EPSILON),
+                StationaryFilter.DEFAULT_MAX_SUPPRESS_MS,
+                StationaryFilter.DEFAULT_HEARTBEAT_INTERVAL_MS);
+    }
+
+    /**
+     * Pasa la medición del punto por el filtro de Kalman y reemplaza su ubicación por la suavizada.
+     * Se prefiere el fix GPS; sin fix se usa la posición por celdas. Una medición rechazada (fuera de
+     * la compuerta, o el mismo fix repetido por getLastLocation) deja el punto con la última posición
+     * suavizada: el salto no llega a la nube.
+     */
+    private void smooth(DataPoint p) {
+        byte source;
+        if (p.hasLocation()) {
+            // Un fix sin precisión declarada se trata como uno mediocre de interior
+            float sigma = Float.isNaN(p.accuracyM) ? 50f : p.accuracyM;
+            smoother.update(p.fixTimeMs, p.lat(), p.lon(), sigma);
+            source = DataPoint.LOCATION_SMOOTHED;
+        } else if (p.cells != null && p.cells.hasPosition()) {
+            smoother.update(p.timestampMs, p.cells.positionLatE7 / 1e7, p.cells.positionLonE7 / 1e7,
+                    p.cells.positionRadiusM);
+            source = DataPoint.LOCATION_CELLS;
+        } else {
+            return;
+        }
+        p.setLocation(smoother.lat(), smoother.lon());
+        p.accuracyM = (float) smoother.sigmaM();
+        p.speedMps = (float) smoother.speedMps();
+        p.bearingDeg = (float) smoother.bearingDeg();
+        p.locationSource = source;
+    }
+
+    private boolean assignSequence(DataPoint dataPoint) {
+        if (deliveryLedger == null) {
+            Log.e(TAG, "Ledger de entrega no disponible. Punto descartado.");
+            return false;
+        }
+        try {
+            dataPoint.seq = deliveryLedger.nextSeq();
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo asignar secuencia. Punto descartado.", e);
+            return false;
+        }
+    }
+
+    private void markAcked(List<DataPoint> points) {
+        long[] seqs = new long[points.size()];
+        for (int i = 0; i < seqs.length; i++) seqs[i] = points.get(i).seq;
+        try {
+            deliveryLedger.markAcked(seqs, seqs.length);
+        } catch (IOException e) {
+            Log.w(TAG, "No se pudo registrar el ack de " + seqs.length + " puntos", e);
+        }
+    }
+
+    private void openDeliveryLedger() {
+        try {
+            deliveryLedger = DeliveryLedger.get(this);
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo abrir el ledger de entrega", e);
+        }
+    }
+
+    private PayloadEncoder payloadEncoder() {
+        String currentUserId = userId;
+        if (payloadEncoder == null || !payloadEncoder.userId().equals(currentUserId)) {
+            payloadEncoder = new PayloadEncoder(currentUserId, TimeZone.getDefault(), towerIndex);
+        }
+        return payloadEncoder;
+    }
+
+    private String encodeForUi(DataPoint point) {
+        String currentUserId = userId;
+        if (uiEncoder == null || !uiEncoder.userId().equals(currentUserId)) {
+            uiEncoder = new PayloadEncoder(currentUserId, TimeZone.getDefault(), towerIndex);
+        }
+        return new String(uiEncoder.encode(point), StandardCharsets.UTF_8);
+    }
+
+    private void openTowerIndex() {
+        towerIndex = towerIndex(this);
+        trilateration = towerIndex != null ? new CellTrilateration(towerIndex) : null;
+    }
+
+    /**
+     * Índice local de antenas para completar {@code bts_lat}/{@code bts_lon}, o {@code null} si no hay.
+     * Si el APK trae {@code assets/celltowers.idx} se copia a {@code files/} la primera vez (y tras
+     * cada actualización de la app), porque un asset comprimido no se puede mapear en memoria.
+     */
+    @Nullable
+    static CellTowerIndex towerIndex(@NonNull Context context) {
+        File file = new File(context.getFilesDir(), CellTowerIndex.FILE_NAME);
+        try {
+            installTowerIndexFromAssets(context, file);
+            return CellTowerIndex.shared(file);
+        } catch (IOException e) {
+            Log.w(TAG, "Índice de antenas no disponible; se envían celdas sin ubicación de BTS", e);
+            return null;
+        }
+    }
+
+    private static void installTowerIndexFromAssets(Context context, File target) throws IOException {
+        long appUpdated;
+        try {
+            appUpdated = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            appUpdated = 0;
+        }
+        if (target.isFile() && target.lastModified() >= appUpdated) return;
+
+        InputStream in;
+        try {
+            in = context.getAssets().open(CellTowerIndex.FILE_NAME);
+        } catch (FileNotFoundException e) {
+            return; // El APK no trae índice
+        }
+        File tmp = new File(target.getPath() + ".tmp");
+        try (InputStream source = in; OutputStream out = new FileOutputStream(tmp)) {
+            byte[] chunk = new byte[64 * 1024];
+            for (int n; (n = source.read(chunk)) > 0; ) out.write(chunk, 0, n);
+        }
+        if (!tmp.renameTo(target)) throw new IOException("No se pudo instalar " + target);
+        Log.d(TAG, "Índice de antenas instalado desde assets (" + target.length() + " bytes)");
+    }
+
+    /**
+     * Destino de la subida según {@link #PREF_TELEMETRY_SINK}, una instancia por proceso para que el
+     * servicio y el drenado no escriban el mismo NDJSON desde dos writers.
+     */
+    static synchronized TelemetrySink telemetrySink(@NonNull Context context) {
+        if (sharedSink != null) return sharedSink;
+        SharedPreferences prefs = context.getSharedPreferences("GeoCellTrackPrefs", Context.MODE_PRIVATE);
+        String kind = prefs.getString(PREF_TELEMETRY_SINK, "firebase");
+        if ("ndjson".equals(kind)) {
+            File file = new File(context.getFilesDir(), TELEMETRY_NDJSON_FILE);
+            try {
+                sharedSink = new NdjsonFileSink(file, false);
+                Log.d(TAG, "Telemetría hacia " + file);
+                return sharedSink;
+            } catch (IOException e) {
+                Log.e(TAG, "No se pudo abrir " + file + ". Se usa Firebase.", e);
+            }
+        } else if ("http".equals(kind)) {
+            String url = prefs.getString(PREF_INGEST_URL, BuildConfig.INGEST_URL);
+            if (url != null && !url.isEmpty()) {
+                OkHttpClient client = new OkHttpClient.Builder()
+                        .connectTimeout(15, TimeUnit.SECONDS)
+                        .readTimeout(30, TimeUnit.SECONDS)
+                        .build();
+                long maxDelayMs = prefs.getLong(PREF_INGEST_MAX_DELAY_MS, HttpNdjsonSink.DEFAULT_MAX_DELAY_MS);
+                sharedSink = new HttpNdjsonSink(client, url, BuildConfig.INGEST_TOKEN,
+                        HttpNdjsonSink.DEFAULT_MAX_BATCH_CHARS, maxDelayMs);
+                Log.d(TAG, "Telemetría hacia " + url);
+                return sharedSink;
+            }
+            Log.e(TAG, "Destino http sin URL de ingesta. Se usa Firebase.");
+        } else if ("memoria".equals(kind)) {
+            sharedSink = new InMemoryTelemetrySink();
+            Log.w(TAG, "Telemetría en memoria: nada sale del dispositivo");
+            return sharedSink;
+        }
+        sharedSink = FirebaseTelemetrySink.defaultInstance();
+        return sharedSink;
+    }
+
+    private void saveDataOffline(List<DataPoint> points) {
+        if (offlineJournal == null) {
+            Log.e(TAG, "Caja negra no disponible. " + points.size() + " puntos descartados.");
+            cellDiffer.reset();
+            return;
+        }
+        try {
+            for (DataPoint dataPoint : points) offlineJournal.append(dataPoint.encode());
+        } catch (IOException e) {
+            Log.e(TAG, "Error escribiendo en la caja negra", e);
+            // Se perdieron diffs de celdas: el próximo punto lleva la lista completa
+            cellDiffer.reset();
+            return;
+        }
+        scheduleBacklogDrain();
+    }
+
+    private void scheduleBacklogDrain() {
+        if (offlineJournal == null || offlineJournal.isEmpty()) return;
+        // Sin red o con el disyuntor abierto el drenado fallaría igual; se programa al volver la red
+        // o cuando se confirma la escritura de prueba
+        if (connectivity != null && !connectivity.isOnline()) return;
+        if (uploadBreaker.state(SystemClock.elapsedRealtime()) != CircuitBreaker.State.CLOSED) return;
+        BacklogDrainWorker.enqueue(this, userId);
+    }
+
+    private void onConnectivityChanged(boolean online) {
+        if (!online) return;
+        uploadBreaker.reset();
+        if (userId == null || offlineJournal == null || offlineJournal.isEmpty()) return;
+        Log.d(TAG, "Volvió la red: drenando la caja negra (" + gatedPoints + " puntos sin intento de envío)");
+        BacklogDrainWorker.enqueue(this, userId, true);
+    }
+
+    private void openOfflineJournal() {
+        try {
+            offlineJournal = OfflineJournal.open(new File(getFilesDir(), BacklogDrainWorker.JOURNAL_DIR));
+            migrateLegacyOfflineData();
+        } catch (IOException e) {
+            Log.e(TAG, "No se pudo abrir la caja negra", e);
+        }
     }
 
-    private void sendOfflineData() {
+    // Migración única de la lista JSON que versiones anteriores guardaban en SharedPreferences.
+    // Cada punto recibe su secuencia del ledger (clave determinista al drenar) y, tras cada tramo
+    // escrito en disco, la lista guardada se recorta: una falla a mitad no vuelve a agregar lo ya migrado.
+    private void migrateLegacyOfflineData() throws IOException {
         SharedPreferences prefs = getSharedPreferences("GeoCellTrackPrefs", Context.MODE_PRIVATE);
-        String offlineDataJson = prefs.getString("offline_data", "[]");
-        if (offlineDataJson.equals("[]")) return;
+        String offlineDataJson = prefs.getString(LEGACY_OFFLINE_KEY, null);
+        if (offlineDataJson == null) return;
+        if (deliveryLedger == null) {
+            Log.w(TAG, "Ledger de entrega no disponible. La migración de la caja negra queda pendiente.");
+            return;
+        }
 
         Type type = new TypeToken<ArrayList<Map<String, Object>>>(){}.getType();
-        List<Map<String, Object>> offlineData = new Gson().fromJson(offlineDataJson, type);
-        
-        List<Map<String, Object>> remainingData = new ArrayList<>(offlineData);
-        for (Map<String, Object> dataPoint : offlineData) {
-            sendFinalData(dataPoint, true);
-            remainingData.remove(dataPoint);
+        List<Map<String, Object>> offlineData;
+        try {
+            offlineData = GSON.fromJson(offlineDataJson, type);
+        } catch (JsonParseException e) {
+            Log.e(TAG, "Datos offline heredados ilegibles. Se descartan.", e);
+            prefs.edit().remove(LEGACY_OFFLINE_KEY).apply();
+            return;
         }
-
-        prefs.edit().putString("offline_data", new Gson().toJson(remainingData)).apply();
+        int total = offlineData != null ? offlineData.size() : 0;
+        for (int from = 0; from < total; from += LEGACY_MIGRATION_CHUNK) {
+            int to = Math.min(total, from + LEGACY_MIGRATION_CHUNK);
+            for (Map<String, Object> legacy : offlineData.subList(from, to)) {
+                DataPoint dataPoint = DataPoint.fromLegacyMap(legacy);
+                dataPoint.seq = deliveryLedger.nextSeq();
+                offlineJournal.append(dataPoint.encode());
+            }
+            offlineJournal.sync();
+            // commit() y no apply(): el recorte tiene que estar en disco antes del próximo tramo
+            SharedPreferences.Editor editor = prefs.edit();
+            if (to < total) {
+                editor.putString(LEGACY_OFFLINE_KEY, GSON.toJson(offlineData.subList(to, total)));
+            } else {
+                editor.remove(LEGACY_OFFLINE_KEY);
+            }
+            editor.commit();
+        }
+        if (total == 0) prefs.edit().remove(LEGACY_OFFLINE_KEY).apply();
+        Log.d(TAG, "Caja negra migrada: " + total + " puntos.");
     }
 
     // --- Métodos de recolección (getters) ---
 
-    @SuppressLint({"MissingPermission", "HardwareIds"})
-    @SuppressWarnings("deprecation")
-    private Map<String, Object> getHardwareData(TelephonyManager tm) {
-        Map<String, Object> node = new HashMap<>();
-        if (hasPermission(Manifest.permission.READ_PHONE_STATE)) {
-            try {
-                node.put("imei", Build.VERSION.SDK_INT >= Build.VERSION_CODES.O ? tm.getImei() : tm.getDeviceId());
-            } catch (Exception e) { /* ignore */ }
+    @SuppressLint("MissingPermission")
+    private int getServingDbm(TelephonyManager tm) {
+        if (tm == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.P) return DataPoint.NO_VALUE;
+        try {
+            SignalStrength signal = tm.getSignalStrength();
+            if (signal == null) return DataPoint.NO_VALUE;
+            List<CellSignalStrength> strengths = signal.getCellSignalStrengths();
+            return strengths.isEmpty() ? DataPoint.NO_VALUE : strengths.get(0).getDbm();
+        } catch (SecurityException e) {
+            return DataPoint.NO_VALUE;
         }
-        return node;
     }
-    
-    // ... otros getters como getSimData, etc.
-    private Map<String, Object> getSimData(TelephonyManager tm) { return new HashMap<>(); }
 
     private Notification createNotification(String text) {
         return new NotificationCompat.Builder(this, CHANNEL_ID)
@@ -283,9 +923,31 @@ public class TrackerService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
-        if (wakeLock != null && wakeLock.isHeld()) wakeLock.release();
+        elapsedTime.stop();
+        elapsedSeconds.stop();
         if (dataCollectionHandler != null) dataCollectionHandler.removeCallbacksAndMessages(null);
-        if (clockHandler != null) clockHandler.removeCallbacksAndMessages(null);
+        if (pipelineThread != null) {
+            unregisterReceiver(deviceIdleReceiver);
+            dataCollectionHandler.post(() -> {
+                scheduler.shutdown();
+                Log.d(TAG, "Planificador: " + scheduler.stats());
+                if (connectivity != null) connectivity.stop();
+                cellCollector.stop();
+                Log.d(TAG, "Subida: " + gatedPoints + " puntos sin intento de envío, disyuntor abierto "
+                        + uploadBreaker.trips() + " veces");
+                // Los ciclos pendientes (p. ej. una subida sin respuesta) no sobreviven al servicio
+                Log.d(TAG, "Tiempo despierto por modo:\n" + wakeTime.summary(SystemClock.elapsedRealtime()));
+                cycleWakeLock.releaseAll();
+                if (offlineJournal == null) return;
+                try {
+                    offlineJournal.sync();
+                } catch (IOException e) {
+                    Log.w(TAG, "No se pudo sincronizar la caja negra", e);
+                }
+            });
+            pipelineThread.quitSafely();
+        }
+        if (fusedLocationClient != null) fusedLocationClient.removeLocationUpdates(locationCallback);
         if (activityRecognitionClient != null && activityRecognitionPendingIntent != null) {
             try {
                 activityRecognitionClient.removeActivityUpdates(activityRecognitionPendingIntent);
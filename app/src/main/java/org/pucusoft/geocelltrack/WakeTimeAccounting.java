@@ -0,0 +1,91 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.Locale;
+
+/**
+ * Contabilidad acumulada del tiempo con la CPU despierta por {@link CycleWakeLock}, por modo de
+ * movimiento.
+ *
+ * Para cada modo lleva el tiempo despierto, los ciclos, los ciclos cortados por timeout y el tiempo
+ * total pasado en ese modo, de modo que {@link #awakeSecondsPerHour} da el costo real de cada modo
+ * de muestreo en segundos despiertos por hora.
+ *
+ * Sin dependencias de Android: el tiempo lo pasa el llamador ({@code SystemClock.elapsedRealtime()}).
+ * Thread-safe: la escribe el hilo del pipeline y la lee la UI.
+ */
+final class WakeTimeAccounting {
+
+    private static final MotionStateMachine.Mode[] MODES = MotionStateMachine.Mode.values();
+
+    private final long[] awakeMs = new long[MODES.length];
+    private final long[] modeMs = new long[MODES.length];
+    private final int[] cycles = new int[MODES.length];
+    private final int[] timeouts = new int[MODES.length];
+
+    private MotionStateMachine.Mode mode;
+    private long modeSinceMs;
+
+    WakeTimeAccounting(MotionStateMachine.Mode initial, long nowMs) {
+        this.mode = initial;
+        this.modeSinceMs = nowMs;
+    }
+
+    synchronized void onModeChanged(MotionStateMachine.Mode newMode, long nowMs) {
+        if (newMode == mode) return;
+        modeMs[mode.ordinal()] += nowMs - modeSinceMs;
+        mode = newMode;
+        modeSinceMs = nowMs;
+    }
+
+    synchronized void onCycleStarted() {
+        cycles[mode.ordinal()]++;
+    }
+
+    synchronized void onCycleTimedOut() {
+        timeouts[mode.ordinal()]++;
+    }
+
+    /** Un tramo continuo con el wake lock tomado, atribuido al modo actual. */
+    synchronized void onAwake(long heldMs) {
+        if (heldMs > 0) awakeMs[mode.ordinal()] += heldMs;
+    }
+
+    synchronized long awakeMs(MotionStateMachine.Mode m) {
+        return awakeMs[m.ordinal()];
+    }
+
+    synchronized int cycles(MotionStateMachine.Mode m) {
+        return cycles[m.ordinal()];
+    }
+
+    synchronized int timeouts(MotionStateMachine.Mode m) {
+        return timeouts[m.ordinal()];
+    }
+
+    /** Tiempo total pasado en el modo, incluido el tramo en curso. */
+    synchronized long modeMs(MotionStateMachine.Mode m, long nowMs) {
+        long total = modeMs[m.ordinal()];
+        if (m == mode) total += nowMs - modeSinceMs;
+        return total;
+    }
+
+    /** Segundos de CPU despierta por hora pasada en el modo, o NaN si todavía no hubo tiempo en él. */
+    synchronized double awakeSecondsPerHour(MotionStateMachine.Mode m, long nowMs) {
+        long inMode = modeMs(m, nowMs);
+        if (inMode <= 0) return Double.NaN;
+        return awakeMs[m.ordinal()] / 1000.0 * (3_600_000.0 / inMode);
+    }
+
+    /** Una línea por modo con tiempo en el modo, ciclos y costo en segundos despiertos por hora. */
+    synchronized String summary(long nowMs) {
+        StringBuilder sb = new StringBuilder();
+        for (MotionStateMachine.Mode m : MODES) {
+            long inMode = modeMs(m, nowMs);
+            if (inMode <= 0 && cycles[m.ordinal()] == 0) continue;
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(String.format(Locale.US, "%s: %.1f s/h despierto (%d ciclos, %d timeouts, %.1f min en el modo)",
+                    m, awakeSecondsPerHour(m, nowMs), cycles[m.ordinal()], timeouts[m.ordinal()], inMode / 60000.0));
+        }
+        return sb.toString();
+    }
+}
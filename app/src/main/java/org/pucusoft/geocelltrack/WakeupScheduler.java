@@ -0,0 +1,166 @@
+package org.pucusoft.geocelltrack;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.os.Handler;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+import androidx.annotation.Nullable;
+
+/**
+ * Planificador único del servicio sobre una {@link TimerWheel}: el tick de recolección y cualquier
+ * otro trabajo periódico comparten los mismos despertares.
+ *
+ * Con el dispositivo despierto alcanza un {@link Handler} apuntado al plazo más cercano. Pero el
+ * reloj del Handler ({@code uptimeMillis}) se detiene en suspensión profunda, así que los timers
+ * {@code wakeup} se respaldan además con una alarma {@code ELAPSED_REALTIME_WAKEUP} de ventana
+ * {@code [due, due + slack]}: el sistema puede juntarla con las alarmas de otras apps y la entrega
+ * en el hilo del pipeline con un wake lock tomado durante el callback, sin que el servicio tenga que
+ * sostener uno entre ciclos. En Doze las alarmas comunes se difieren hasta la ventana de
+ * mantenimiento; mientras dure se usa {@code setAndAllowWhileIdle}, que el sistema limita en
+ * frecuencia pero entrega, con un {@link PendingIntent} de broadcast a {@link TimerWakeupReceiver}:
+ * el sistema mantiene el CPU despierto mientras corre el receptor, que no termina hasta que
+ * {@link #deliverIdleAlarm} procesó la alarma en el pipeline (y el ciclo tomó su wake lock).
+ *
+ * Cualquier despertar ajeno (una lectura de Activity Recognition, un lote de ubicación) puede
+ * aprovecharse con {@link #onWakeup()}: corren los timers cuya ventana ya está abierta y se
+ * ahorran su propio despertar.
+ *
+ * Se usa solo desde el hilo del pipeline.
+ */
+final class WakeupScheduler implements AlarmManager.OnAlarmListener {
+
+    private static final String ALARM_TAG = "GeoCellTrack::Scheduler";
+
+    private final TimerWheel wheel = new TimerWheel();
+    private final Handler handler;
+    @Nullable private final AlarmManager alarmManager;
+    @Nullable private final PowerManager powerManager;
+    // Planificador activo del proceso, para la alarma de Doze que entrega TimerWakeupReceiver
+    private static volatile WakeupScheduler active;
+
+    // Alarma de Doze: broadcast a TimerWakeupReceiver, que llama a deliverIdleAlarm()
+    private final PendingIntent idleIntent;
+    private final Runnable handlerWakeup = this::onWakeup;
+
+    private long armedAlarmMs = Long.MAX_VALUE;
+    private boolean armedIdle;
+    private long alarms;
+
+    WakeupScheduler(Handler handler, @Nullable AlarmManager alarmManager, @Nullable PowerManager powerManager,
+                    PendingIntent idleIntent) {
+        this.handler = handler;
+        this.alarmManager = alarmManager;
+        this.powerManager = powerManager;
+        this.idleIntent = idleIntent;
+        active = this;
+    }
+
+    /**
+     * Entrega la alarma de Doze en el hilo del pipeline y luego corre {@code done} (el fin del
+     * broadcast). Se puede llamar desde cualquier hilo.
+     *
+     * @return false si no hay planificador activo; {@code done} no se llama.
+     */
+    static boolean deliverIdleAlarm(Runnable done) {
+        WakeupScheduler scheduler = active;
+        if (scheduler == null) return false;
+        return scheduler.handler.post(() -> {
+            try {
+                scheduler.onAlarm();
+            } finally {
+                done.run();
+            }
+        });
+    }
+
+    /** Timer periódico; la primera ejecución es inmediata, junto con lo que ya estuviera vencido. */
+    TimerWheel.Timer every(String name, long periodMs, long slackMs, boolean wakeup, Runnable task) {
+        TimerWheel.Timer timer = wheel.schedule(name, periodMs, slackMs, wakeup, SystemClock.elapsedRealtime(), task);
+        onWakeup();
+        return timer;
+    }
+
+    /** Aplica el nuevo período y corre el timer ya, como el antiguo removeCallbacks + post. */
+    void runNow(TimerWheel.Timer timer, long periodMs, long slackMs) {
+        timer.setPeriod(periodMs, slackMs);
+        wheel.reschedule(timer, SystemClock.elapsedRealtime());
+        onWakeup();
+    }
+
+    void cancel(TimerWheel.Timer timer) {
+        wheel.cancel(timer);
+        rearm();
+    }
+
+    /** Corre los timers vencidos y vuelve a apuntar Handler y alarma al próximo plazo. */
+    void onWakeup() {
+        wheel.runDue(SystemClock.elapsedRealtime());
+        rearm();
+    }
+
+    @Override
+    public void onAlarm() {
+        armedAlarmMs = Long.MAX_VALUE;
+        alarms++;
+        onWakeup();
+    }
+
+    /** Entrada y salida de Doze: la alarma pendiente se reprograma con el mecanismo adecuado. */
+    void onDeviceIdleChanged() {
+        cancelAlarm();
+        rearm();
+    }
+
+    void shutdown() {
+        if (active == this) active = null;
+        handler.removeCallbacks(handlerWakeup);
+        cancelAlarm();
+    }
+
+    /** Despertares en los que corrió algún timer, ejecuciones y alarmas recibidas, para el log. */
+    String stats() {
+        return wheel.windows() + " despertares, " + wheel.runs() + " ejecuciones, " + alarms + " alarmas";
+    }
+
+    private void rearm() {
+        handler.removeCallbacks(handlerWakeup);
+        TimerWheel.Timer next = wheel.nextTimer(false);
+        if (next != null) {
+            long delay = Math.max(0, next.deadlineMs() - SystemClock.elapsedRealtime());
+            handler.postAtTime(handlerWakeup, SystemClock.uptimeMillis() + delay);
+        }
+        armAlarm(wheel.nextTimer(true));
+    }
+
+    private void armAlarm(@Nullable TimerWheel.Timer next) {
+        if (alarmManager == null) return;
+        if (next == null) {
+            cancelAlarm();
+            return;
+        }
+        boolean idle = powerManager != null && powerManager.isDeviceIdleMode();
+        // Misma ventana ya armada: no repetir la llamada al sistema en cada despertar
+        if (next.deadlineMs() == armedAlarmMs && idle == armedIdle) return;
+        cancelAlarm();
+        if (idle) {
+            alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP, next.deadlineMs(), idleIntent);
+        } else {
+            alarmManager.setWindow(AlarmManager.ELAPSED_REALTIME_WAKEUP, next.dueMs(),
+                    next.deadlineMs() - next.dueMs(), ALARM_TAG, this, handler);
+        }
+        armedAlarmMs = next.deadlineMs();
+        armedIdle = idle;
+    }
+
+    private void cancelAlarm() {
+        if (alarmManager == null || armedAlarmMs == Long.MAX_VALUE) return;
+        if (armedIdle) {
+            alarmManager.cancel(idleIntent);
+        } else {
+            alarmManager.cancel(this);
+        }
+        armedAlarmMs = Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,209 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Junta escrituras a distintas rutas en un único {@code updateChildren} multi-ruta sobre la raíz.
+ *
+ * Cada escritura es una ruta absoluta y su valor ({@code null} borra, como en Firebase). El
+ * resultado de aplicar el lote es el mismo que el de aplicar las escrituras en orden:
+ * <ul>
+ *   <li>Una escritura a una ruta ya pendiente la reemplaza.</li>
+ *   <li>Una escritura a un ancestro de rutas pendientes las descarta (las sobrescribiría igual).</li>
+ *   <li>Una escritura bajo una ruta pendiente no se puede expresar en la misma actualización
+ *       (Firebase rechaza rutas anidadas): el lote pendiente sale primero.</li>
+ * </ul>
+ * Aunque su valor se haya reemplazado, cada escritura recibe su propio callback cuando el lote se
+ * confirma o falla, exactamente una vez.
+ *
+ * La ventana de tiempo la maneja quien llama: {@link #add} indica cuándo se abrió un lote nuevo
+ * para que programe {@link #flush()}; el presupuesto de bytes se controla acá y, al superarse, el
+ * lote sale dentro del mismo {@link #add}.
+ *
+ * Sin dependencias de Android. Thread-safe; el destino se llama fuera del lock.
+ */
+final class WriteCoalescer {
+
+    /** Aplica un lote de rutas absolutas en una sola escritura atómica. */
+    interface Target {
+        void updateChildren(Map<String, Object> updates, TelemetrySink.Callback callback);
+    }
+
+    private final Target target;
+    private final int maxBytes;
+
+    // Lote en formación; protegido por this
+    private Map<String, Object> updates = new HashMap<>();
+    private List<TelemetrySink.Callback> callbacks = new ArrayList<>();
+    private int bytes;
+
+    private long batches;
+    private long writes;
+
+    WriteCoalescer(Target target, int maxBytes) {
+        this.target = target;
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    /**
+     * Agrega una escritura de {@code value} en {@code path}.
+     *
+     * @return true si la escritura abrió un lote nuevo y hay que programar {@link #flush()}.
+     */
+    boolean add(String path, Object value, TelemetrySink.Callback callback) {
+        return addAll(Collections.singletonMap(path, value), callback);
+    }
+
+    /** Agrega varias escrituras con un solo callback, que se llama cuando se confirma su lote. */
+    boolean addAll(Map<String, Object> pathValues, TelemetrySink.Callback callback) {
+        Batch before = null;
+        Batch full = null;
+        boolean opened;
+        synchronized (this) {
+            for (String path : pathValues.keySet()) {
+                if (hasPendingAncestor(normalize(path))) {
+                    before = take();
+                    break;
+                }
+            }
+            opened = callbacks.isEmpty();
+            for (Map.Entry<String, Object> e : pathValues.entrySet()) {
+                String path = normalize(e.getKey());
+                removeDescendants(path);
+                if (updates.containsKey(path)) bytes -= estimateBytes(path, updates.get(path));
+                updates.put(path, e.getValue());
+                bytes += estimateBytes(path, e.getValue());
+            }
+            callbacks.add(callback);
+            writes++;
+            if (bytes >= maxBytes) full = take();
+        }
+        if (before != null) before.send(target);
+        if (full != null) {
+            full.send(target);
+            return false;
+        }
+        return opened;
+    }
+
+    /** Envía el lote pendiente, si hay. */
+    void flush() {
+        Batch batch;
+        synchronized (this) {
+            batch = take();
+        }
+        if (batch != null) batch.send(target);
+    }
+
+    synchronized int pendingBytes() {
+        return bytes;
+    }
+
+    /** Lotes enviados y escrituras recibidas, para medir cuántas idas y vueltas se ahorraron. */
+    synchronized long batches() {
+        return batches;
+    }
+
+    synchronized long writes() {
+        return writes;
+    }
+
+    // Llamar con el lock tomado
+    private Batch take() {
+        if (callbacks.isEmpty()) return null;
+        Batch batch = new Batch(updates, callbacks);
+        updates = new HashMap<>();
+        callbacks = new ArrayList<>();
+        bytes = 0;
+        batches++;
+        return batch;
+    }
+
+    private boolean hasPendingAncestor(String path) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            if (updates.containsKey(path.substring(0, slash))) return true;
+        }
+        return false;
+    }
+
+    private void removeDescendants(String path) {
+        String prefix = path + "/";
+        for (Iterator<Map.Entry<String, Object>> it = updates.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Object> e = it.next();
+            if (e.getKey().startsWith(prefix)) {
+                bytes -= estimateBytes(e.getKey(), e.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /** Ruta sin barras al principio ni al final, como la usa {@code updateChildren} en la raíz. */
+    static String normalize(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') start++;
+        while (end > start && path.charAt(end - 1) == '/') end--;
+        return path.substring(start, end);
+    }
+
+    /** Tamaño aproximado de la entrada serializada en JSON; alcanza para el presupuesto del lote. */
+    static int estimateBytes(String path, Object value) {
+        return path.length() + 3 + estimateBytes(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int estimateBytes(Object value) {
+        if (value == null) return 4;
+        if (value instanceof String) return ((String) value).length() + 2;
+        if (value instanceof Number) return 8;
+        if (value instanceof Boolean) return 5;
+        if (value instanceof Map) {
+            int size = 2;
+            for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+                size += estimateBytes(e.getKey(), e.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            int size = 2;
+            for (Object item : (Collection<Object>) value) size += estimateBytes(item) + 1;
+            return size;
+        }
+        return String.valueOf(value).length() + 2;
+    }
+
+    private static final class Batch {
+        final Map<String, Object> updates;
+        final List<TelemetrySink.Callback> callbacks;
+
+        Batch(Map<String, Object> updates, List<TelemetrySink.Callback> callbacks) {
+            this.updates = updates;
+            this.callbacks = callbacks;
+        }
+
+        void send(Target target) {
+            if (updates.isEmpty()) {
+                // Solo escrituras vacías (updateChildren sin entradas): no hay nada que mandar
+                for (TelemetrySink.Callback cb : callbacks) cb.onAck();
+                return;
+            }
+            target.updateChildren(updates, new TelemetrySink.Callback() {
+                @Override
+                public void onAck() {
+                    for (TelemetrySink.Callback cb : callbacks) cb.onAck();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    for (TelemetrySink.Callback cb : callbacks) cb.onFailure(e);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AckGuardTest {
+
+    private final List<String> events = new ArrayList<>();
+    private final AckGuard guard = new AckGuard(new TelemetrySink.Callback() {
+        @Override
+        public void onAck() {
+            events.add("ack");
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            events.add(e instanceof TimeoutException ? "plazo" : "falla");
+        }
+    });
+
+    @Test
+    public void expiryWinsOverALateAck() {
+        assertTrue(guard.expire(20_000));
+        guard.onAck();
+        guard.onFailure(new Exception());
+
+        assertEquals(1, events.size());
+        assertEquals("plazo", events.get(0));
+    }
+
+    @Test
+    public void ackInTimeDisarmsTheDeadline() {
+        guard.onAck();
+
+        assertTrue(guard.isSettled());
+        assertFalse(guard.expire(20_000));
+        assertEquals(1, events.size());
+        assertEquals("ack", events.get(0));
+    }
+}
@@ -0,0 +1,85 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AckLedgerTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("ack_ledger", null);
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void contiguousAcks_mergeIntoSingleRange() throws IOException {
+        AckLedger ledger = AckLedger.open(file);
+        ledger.markAcked(1);
+        ledger.markAcked(3);
+        assertEquals(2, ledger.rangeCount());
+
+        ledger.markAcked(2);
+        assertEquals(1, ledger.rangeCount());
+        assertTrue(ledger.isAcked(1));
+        assertTrue(ledger.isAcked(2));
+        assertTrue(ledger.isAcked(3));
+        assertFalse(ledger.isAcked(0));
+        assertFalse(ledger.isAcked(4));
+    }
+
+    @Test
+    public void batchAcks_surviveReopen() throws IOException {
+        AckLedger ledger = AckLedger.open(file);
+        ledger.markAcked(new long[]{10, 11, 12, 40, 41}, 5);
+
+        AckLedger reopened = AckLedger.open(file);
+        assertTrue(reopened.isAcked(11));
+        assertTrue(reopened.isAcked(41));
+        assertFalse(reopened.isAcked(13));
+        assertEquals(2, reopened.rangeCount());
+    }
+
+    @Test
+    public void rangeCount_isBounded() throws IOException {
+        AckLedger ledger = AckLedger.open(file);
+        long[] sparse = new long[AckLedger.MAX_RANGES + 10];
+        for (int i = 0; i < sparse.length; i++) sparse[i] = i * 2L;
+        ledger.markAcked(sparse, sparse.length);
+
+        assertEquals(AckLedger.MAX_RANGES, ledger.rangeCount());
+        assertFalse("Los rangos más antiguos se descartan", ledger.isAcked(0));
+        assertTrue(ledger.isAcked(sparse[sparse.length - 1]));
+    }
+
+    @Test
+    public void sequenceGenerator_isMonotonicAcrossRestarts() throws IOException {
+        File seqFile = new File(file.getPath() + ".seq");
+        try {
+            SequenceGenerator first = SequenceGenerator.open(seqFile);
+            long a = first.next();
+            long b = first.next();
+            assertTrue(b > a);
+
+            SequenceGenerator restarted = SequenceGenerator.open(seqFile);
+            assertTrue("Tras reiniciar no se repiten secuencias", restarted.next() > b);
+            assertEquals("dev-000000000042", SequenceGenerator.key("dev", 42));
+        } finally {
+            seqFile.delete();
+        }
+    }
+}
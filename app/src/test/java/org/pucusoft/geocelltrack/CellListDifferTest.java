@@ -0,0 +1,87 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CellListDifferTest {
+
+    private final CellListDiffer differ = new CellListDiffer();
+
+    @Test
+    public void firstPointCarriesTheFullList() {
+        DataPoint p = point(cell(1, true, -80), cell(2, false, -100), cell(3, false, -105));
+        differ.apply(p);
+
+        assertTrue(p.cells.fullList);
+        assertEquals(3, p.cells.cells.length);
+    }
+
+    @Test
+    public void laterPointsCarryOnlyChangesAndRemovals() {
+        differ.apply(point(cell(1, true, -80), cell(2, false, -100), cell(3, false, -105)));
+
+        // Celda 2 casi igual, celda 3 desaparece, celda 4 es nueva
+        DataPoint p = point(cell(1, true, -81), cell(2, false, -102), cell(4, false, -97));
+        differ.apply(p);
+
+        assertFalse(p.cells.fullList);
+        assertEquals(2, p.cells.cells.length);
+        assertEquals(1, p.cells.cells[0].cid);  // la servidora siempre va
+        assertEquals(4, p.cells.cells[1].cid);
+        assertArrayEquals(new String[]{cell(3, false, 0).key()}, p.cells.removed);
+        assertEquals(3, p.cells.visible);
+    }
+
+    @Test
+    public void smallDriftAccumulatesAgainstTheLastSentValue() {
+        differ.apply(point(cell(1, true, -80), cell(2, false, -100)));
+        DataPoint second = point(cell(1, true, -80), cell(2, false, -102));
+        differ.apply(second);
+        DataPoint third = point(cell(1, true, -80), cell(2, false, -104));
+        differ.apply(third);
+
+        assertEquals(1, second.cells.cells.length);
+        assertEquals(2, third.cells.cells.length); // -104 vs -100 enviado: supera el epsilon
+    }
+
+    @Test
+    public void fullListIsResentPeriodicallyAndAfterReset() {
+        differ.apply(point(cell(1, true, -80)));
+        for (int i = 1; i < CellListDiffer.FULL_LIST_EVERY; i++) {
+            DataPoint p = point(cell(1, true, -80));
+            differ.apply(p);
+            assertFalse(p.cells.fullList);
+        }
+        DataPoint periodic = point(cell(1, true, -80));
+        differ.apply(periodic);
+        assertTrue(periodic.cells.fullList);
+
+        differ.reset();
+        DataPoint afterReset = point(cell(1, true, -80));
+        differ.apply(afterReset);
+        assertTrue(afterReset.cells.fullList);
+    }
+
+    static CellObservation cell(long cid, boolean registered, int dbm) {
+        CellObservation c = new CellObservation();
+        c.type = CellObservation.LTE;
+        c.registered = registered;
+        c.mcc = "716";
+        c.mnc = "10";
+        c.area = 5;
+        c.cid = cid;
+        c.physId = 100 + (int) cid;
+        c.dbm = dbm;
+        return c;
+    }
+
+    private static DataPoint point(CellObservation... cells) {
+        DataPoint p = new DataPoint();
+        p.cells = CellSnapshot.full(cells);
+        return p;
+    }
+}
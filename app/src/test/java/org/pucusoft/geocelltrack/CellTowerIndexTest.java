@@ -0,0 +1,153 @@
+package org.pucusoft.geocelltrack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CellTowerIndexTest {
+
+    private static final String CSV =
+            "radio,mcc,net,area,cell,unit,lon,lat,range,samples,changeable,created,updated,averageSignal\n"
+            + "LTE,716,10,5,1002,0,-77.0300,-12.0500,1000,12,1,0,0,0\n"
+            + "LTE,716,10,5,1001,0,-77.0428,-12.0464,1000,30,1,0,0,0\n"
+            + "GSM,716,6,1200,31001,0,-71.5375,-16.4090,2000,5,1,0,0,0\n"
+            + "LTE,716,10,5,1001,0,0.5,0.5,1000,1,1,0,0,0\n"          // duplicado: se conserva el primero
+            + "UMTS,722,7,300,98765432,0,-58.3816,-34.6037,1500,8,1,0,0,0\n"
+            + "LTE,716,10,x,1003,0,-77.0,-12.0,1000,1,1,0,0,0\n";     // inválida
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("celltowers", ".idx").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void build_thenFind_resolvesTowerCoordinates() throws IOException {
+        CellTowerIndexBuilder builder = new CellTowerIndexBuilder().source("opencellid").readCsv(new StringReader(CSV));
+        assertEquals(4, builder.writeTo(file));
+        assertEquals(1, builder.skipped());
+
+        CellTowerIndex index = CellTowerIndex.open(file);
+        assertEquals(4, index.size());
+        assertEquals("opencellid", index.source());
+        assertTrue(index.estimated());
+
+        int i = index.find(716, 10, 5, 1001);
+        assertTrue(i >= 0);
+        assertEquals(-12.0464, index.lat(i), 1e-7);
+        assertEquals(-77.0428, index.lon(i), 1e-7);
+        assertEquals(-34.6037, index.lat(index.find(722, 7, 300, 98765432L)), 1e-7);
+
+        assertEquals(-1, index.find(716, 10, 5, 1003));
+        assertEquals(-1, index.find(716, 10, 6, 1001));
+        assertEquals(-1, index.find(100, 0, 0, 0));
+        assertEquals(-1, index.find(999, 999, Integer.MAX_VALUE, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void build_sortsUnorderedInputAndKeepsFirstDuplicate() throws IOException {
+        CellTowerIndexBuilder builder = new CellTowerIndexBuilder();
+        Random random = new Random(7);
+        // Celdas 0..999 en orden aleatorio; cada una aparece dos veces y la primera lleva lat = -cid/1000
+        int[] cells = new int[2000];
+        for (int i = 0; i < cells.length; i++) cells[i] = i % 1000;
+        for (int i = cells.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = cells[i];
+            cells[i] = cells[j];
+            cells[j] = t;
+        }
+        boolean[] seen = new boolean[1000];
+        for (int cid : cells) {
+            double lat = seen[cid] ? 45 : -cid / 1000.0 - 0.0001;
+            seen[cid] = true;
+            builder.add(716, cid % 3, 5, cid, lat, -77);
+        }
+        assertEquals(1000, builder.writeTo(file));
+
+        CellTowerIndex index = CellTowerIndex.open(file);
+        for (int cid = 0; cid < 1000; cid++) {
+            int i = index.find(716, cid % 3, 5, cid);
+            assertTrue(i >= 0);
+            assertEquals(-cid / 1000.0 - 0.0001, index.lat(i), 1e-7);
+        }
+    }
+
+    @Test
+    public void findObservation_parsesTextCodesAndNeedsGlobalId() throws IOException {
+        new CellTowerIndexBuilder().readCsv(new StringReader(CSV)).writeTo(file);
+        CellTowerIndex index = CellTowerIndex.open(file);
+
+        CellObservation gsm = CellListDifferTest.cell(31001, true, -80);
+        gsm.type = CellObservation.GSM;
+        gsm.mnc = "06";
+        gsm.area = 1200;
+        assertEquals(-16.4090, index.lat(index.find(gsm)), 1e-7);
+
+        CellObservation neighbor = CellListDifferTest.cell(CellObservation.NO_CID, false, -100);
+        assertEquals(-1, index.find(neighbor));
+        assertNull(index.source());
+    }
+
+    @Test
+    public void mccFilter_keepsOnlyRequestedCountries() throws IOException {
+        CellTowerIndexBuilder builder = new CellTowerIndexBuilder().mccFilter(722).readCsv(new StringReader(CSV));
+        assertEquals(1, builder.writeTo(file));
+        assertEquals(-1, CellTowerIndex.open(file).find(716, 10, 5, 1001));
+    }
+
+    @Test
+    public void open_rejectsTruncatedIndex() throws IOException {
+        new CellTowerIndexBuilder().readCsv(new StringReader(CSV)).writeTo(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        try {
+            CellTowerIndex.open(file);
+            fail("Debe rechazar un índice truncado");
+        } catch (IOException expected) {
+            // ok
+        }
+    }
+
+    @Test
+    public void encoder_addsBtsLocationToKnownCells() throws Exception {
+        new CellTowerIndexBuilder().source("opencellid").readCsv(new StringReader(CSV)).writeTo(file);
+        PayloadEncoder encoder = new PayloadEncoder("user-1", TimeZone.getTimeZone("America/Lima"),
+                CellTowerIndex.open(file));
+
+        DataPoint p = new DataPoint();
+        p.timestampMs = 1700000000123L;
+        p.cells = CellSnapshot.full(new CellObservation[]{CellListDifferTest.cell(1001, true, -85),
+                CellListDifferTest.cell(4242, false, -101)});
+        JsonNode lista = new ObjectMapper().readTree(encoder.encode(p)).get("celdas").get("lista");
+
+        assertEquals(-12.0464, lista.get(0).get("bts_lat").asDouble(), 1e-7);
+        assertEquals("opencellid", lista.get(0).get("bts_location_source").asText());
+        assertTrue(lista.get(0).get("bts_location_estimate").asBoolean());
+        assertTrue(lista.get(1).get("bts_lat").isNull());
+        assertFalse(lista.get(1).get("bts_location_estimate").asBoolean());
+    }
+}
@@ -0,0 +1,111 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CellTrilaterationTest {
+
+    // Antenas en un cuadrado de ~2 km alrededor del centro de Lima
+    private static final double LAT0 = -12.0464;
+    private static final double LON0 = -77.0428;
+    private static final double[][] TOWERS = {
+            {LAT0 + 0.009, LON0 - 0.009},
+            {LAT0 + 0.009, LON0 + 0.009},
+            {LAT0 - 0.009, LON0 + 0.009},
+            {LAT0 - 0.009, LON0 - 0.009},
+    };
+
+    private File file;
+    private CellTrilateration trilateration;
+
+    @Before
+    public void setUp() throws IOException {
+        file = Files.createTempFile("celltowers", ".idx").toFile();
+        CellTowerIndexBuilder builder = new CellTowerIndexBuilder();
+        for (int i = 0; i < TOWERS.length; i++) builder.add(716, 10, 5, 1001 + i, TOWERS[i][0], TOWERS[i][1]);
+        builder.writeTo(file);
+        trilateration = new CellTrilateration(CellTowerIndex.open(file));
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void estimate_recoversPositionFromConsistentSignals() {
+        double lat = LAT0 + 0.003;
+        double lon = LON0 - 0.002;
+        CellObservation[] cells = new CellObservation[TOWERS.length];
+        for (int i = 0; i < TOWERS.length; i++) {
+            cells[i] = CellListDifferTest.cell(1001 + i, i == 0, dbmAt(lat, lon, TOWERS[i]));
+        }
+
+        assertTrue(trilateration.estimate(cells));
+        assertTrue(trilateration.triangulated());
+        assertEquals(4, trilateration.anchors);
+        // dBm redondeado a entero: unos pocos metros de error
+        assertTrue("error " + distanceM(trilateration.lat, trilateration.lon, lat, lon),
+                distanceM(trilateration.lat, trilateration.lon, lat, lon) < 30);
+        assertTrue(trilateration.radiusM >= CellTrilateration.MIN_RANGE_M);
+    }
+
+    @Test
+    public void estimate_withSingleKnownCellFallsBackToTowerWithRangeAsRadius() {
+        CellObservation known = CellListDifferTest.cell(1002, true, -95);
+        CellObservation unknown = CellListDifferTest.cell(9999, false, -70);
+
+        assertTrue(trilateration.estimate(new CellObservation[]{known, unknown}));
+        assertFalse(trilateration.triangulated());
+        assertEquals(TOWERS[1][0], trilateration.lat, 1e-7);
+        assertEquals(TOWERS[1][1], trilateration.lon, 1e-7);
+        assertEquals(CellTrilateration.rangeM(CellObservation.LTE, -95), trilateration.radiusM, 1e-6);
+    }
+
+    @Test
+    public void estimate_ignoresCellsWithoutSignalOrTower() {
+        CellObservation noSignal = CellListDifferTest.cell(1001, true, DataPoint.NO_VALUE);
+        CellObservation neighbor = CellListDifferTest.cell(CellObservation.NO_CID, false, -90);
+
+        assertFalse(trilateration.estimate(new CellObservation[]{noSignal, neighbor}));
+        assertEquals(0, trilateration.anchors);
+    }
+
+    @Test
+    public void applyTo_storesPositionInSnapshotBeforeDiff() {
+        CellSnapshot snapshot = CellSnapshot.full(new CellObservation[]{
+                CellListDifferTest.cell(1001, true, -80), CellListDifferTest.cell(1002, false, -90),
+                CellListDifferTest.cell(1003, false, -90)});
+
+        assertTrue(trilateration.applyTo(snapshot));
+        assertTrue(snapshot.hasPosition());
+        assertEquals(3, snapshot.positionCells);
+    }
+
+    @Test
+    public void rangeM_isMonotonicAndClamped() {
+        assertTrue(CellTrilateration.rangeM(CellObservation.GSM, -70) < CellTrilateration.rangeM(CellObservation.GSM, -90));
+        assertEquals(CellTrilateration.MIN_RANGE_M, CellTrilateration.rangeM(CellObservation.LTE, -30), 0);
+        assertEquals(CellTrilateration.MAX_RANGE_M, CellTrilateration.rangeM(CellObservation.LTE, -200), 0);
+    }
+
+    // Inversa del modelo log-distancia de CellTrilateration (LTE: referencia RSRP)
+    private static int dbmAt(double lat, double lon, double[] tower) {
+        double d = distanceM(lat, lon, tower[0], tower[1]);
+        return (int) Math.round(CellTrilateration.REF_DBM_RSRP
+                - 10 * CellTrilateration.PATH_LOSS_EXPONENT * Math.log10(d / CellTrilateration.REF_DISTANCE_M));
+    }
+
+    private static double distanceM(double lat1, double lon1, double lat2, double lon2) {
+        return StationaryFilter.distanceM(DataPoint.toE7(lat1), DataPoint.toE7(lon1), DataPoint.toE7(lat2), DataPoint.toE7(lon2));
+    }
+}
@@ -0,0 +1,79 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final CircuitBreaker breaker = new CircuitBreaker(3, 1_000, 4_000);
+
+    @Test
+    public void opensAfterConsecutiveFailuresOnly() {
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertTrue(breaker.allowRequest(0));
+
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(10));
+        assertFalse(breaker.allowRequest(10));
+        assertEquals(1, breaker.rejected());
+        assertEquals(1, breaker.trips());
+    }
+
+    @Test
+    public void halfOpenLetsASingleProbeThrough() {
+        trip(0);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state(1_000));
+        assertTrue(breaker.allowRequest(1_000));
+        assertFalse(breaker.allowRequest(1_001));
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state(1_002));
+        assertTrue(breaker.allowRequest(1_002));
+        assertTrue(breaker.allowRequest(1_003));
+    }
+
+    @Test
+    public void failedProbeDoublesTheCooldownUpToTheMaximum() {
+        trip(0);
+        assertTrue(breaker.allowRequest(1_000));
+        breaker.onFailure(1_000);
+        assertFalse(breaker.allowRequest(2_999));
+        assertTrue(breaker.allowRequest(3_000));
+
+        breaker.onFailure(3_000);
+        assertTrue(breaker.allowRequest(7_000));
+        breaker.onFailure(7_000);
+        assertFalse(breaker.allowRequest(10_999));
+        assertTrue(breaker.allowRequest(11_000));
+
+        // Una prueba exitosa vuelve al enfriamiento inicial
+        breaker.onSuccess();
+        trip(20_000);
+        assertTrue(breaker.allowRequest(21_000));
+    }
+
+    @Test
+    public void resetAllowsAnImmediateProbe() {
+        trip(0);
+        breaker.reset();
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state(1));
+        assertTrue(breaker.allowRequest(1));
+        assertFalse(breaker.allowRequest(2));
+
+        CircuitBreaker closed = new CircuitBreaker(3, 1_000, 4_000);
+        closed.reset();
+        assertEquals(CircuitBreaker.State.CLOSED, closed.state(0));
+    }
+
+    private void trip(long nowMs) {
+        for (int i = 0; i < 3; i++) breaker.onFailure(nowMs);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state(nowMs));
+    }
+}
@@ -0,0 +1,139 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DataPointTest {
+
+    @Test
+    public void encodeDecode_roundTripsPrimitiveFields() {
+        DataPoint p = samplePoint(42);
+        DataPoint decoded = DataPoint.decode(p.encode());
+
+        assertEquals(42, decoded.seq);
+        assertEquals(1700000000123L, decoded.timestampMs);
+        assertEquals(-12.046374, decoded.lat(), 1e-7);
+        assertEquals(-77.042793, decoded.lon(), 1e-7);
+        assertEquals(5.5f, decoded.accuracyM, 0f);
+        assertTrue(Float.isNaN(decoded.speedMps));
+        assertEquals(-85, decoded.dbm);
+        assertEquals("358240051111110", decoded.hardware.get("imei"));
+    }
+
+    @Test
+    public void encodeDecode_roundTripsCells() {
+        DataPoint p = samplePoint(7);
+        p.cells = CellSnapshot.full(new CellObservation[]{CellListDifferTest.cell(1001, true, -85),
+                CellListDifferTest.cell(1002, false, -101)});
+        p.cells.removed = new String[]{"LTE-716-10-5-999"};
+        p.cells.setPosition(-12.05, -77.04, 420f, 3);
+
+        DataPoint decoded = DataPoint.decode(p.encode());
+        assertEquals(2, decoded.cells.cells.length);
+        assertEquals(1001, decoded.cells.serving().cid);
+        assertEquals("716", decoded.cells.cells[1].mcc);
+        assertEquals(-101, decoded.cells.cells[1].dbm);
+        assertEquals("LTE-716-10-5-999", decoded.cells.removed[0]);
+        assertEquals(1, decoded.cells.registered);
+        assertEquals(-12.05, decoded.cells.positionLatE7 / 1e7, 1e-7);
+        assertEquals(420f, decoded.cells.positionRadiusM, 0f);
+        assertEquals(3, decoded.cells.positionCells);
+    }
+
+    @Test
+    public void decode_readsVersion2RecordsWithoutCellPosition() {
+        DataPoint p = samplePoint(4);
+        p.cells = CellSnapshot.full(new CellObservation[]{CellListDifferTest.cell(1001, true, -85)});
+        byte[] record = p.encode();
+        // Un registro v2 es el mismo formato sin la posición estimada (lat + lon + radio + celdas)
+        // ni el origen de la ubicación
+        byte[] v2 = Arrays.copyOf(record, record.length - 14);
+        v2[0] = DataPoint.FORMAT_VERSION_V2;
+
+        DataPoint decoded = DataPoint.decode(v2);
+        assertEquals(1001, decoded.cells.serving().cid);
+        assertFalse(decoded.cells.hasPosition());
+        assertEquals(DataPoint.LOCATION_FUSED, decoded.locationSource);
+    }
+
+    @Test
+    public void encodeDecode_roundTripsLocationSource() {
+        DataPoint p = samplePoint(5);
+        p.locationSource = DataPoint.LOCATION_SMOOTHED;
+
+        assertEquals(DataPoint.LOCATION_SMOOTHED, DataPoint.decode(p.encode()).locationSource);
+        PendingBatch batch = new PendingBatch(1);
+        assertTrue(batch.addRecord(p.encode()));
+        assertEquals(DataPoint.LOCATION_SMOOTHED, batch.get(0, new DataPoint()).locationSource);
+    }
+
+    @Test
+    public void decode_readsVersion1RecordsWithoutCells() {
+        byte[] record = samplePoint(3).encode();
+        // Un registro v1 es el mismo formato sin el byte de celdas ni el origen de la ubicación
+        byte[] v1 = Arrays.copyOf(record, record.length - 2);
+        v1[0] = DataPoint.FORMAT_VERSION_V1;
+
+        DataPoint decoded = DataPoint.decode(v1);
+        assertEquals(3, decoded.seq);
+        assertNull(decoded.cells);
+    }
+
+    @Test
+    public void decode_acceptsLegacyJsonRecords() {
+        byte[] legacy = ("{\"timestamp\":1.700000000123E12,\"hardware\":{},\"sim\":{},"
+                + "\"location\":{\"lat\":-12.5,\"lon\":-77.25}}").getBytes(StandardCharsets.UTF_8);
+        DataPoint p = DataPoint.decode(legacy);
+
+        assertEquals(1700000000123L, p.timestampMs);
+        assertEquals(-1, p.seq);
+        assertEquals(-12.5, p.lat(), 1e-7);
+    }
+
+    @Test
+    public void decode_rejectsGarbage() {
+        assertNull(DataPoint.decode(new byte[]{9, 9, 9}));
+    }
+
+    @Test
+    public void pendingBatch_decodesRecordsIntoColumnsAndSharesStaticBlocks() {
+        PendingBatch batch = new PendingBatch(2);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(batch.addRecord(samplePoint(i).encode()));
+        }
+        assertFalse(batch.addRecord(new byte[]{1}));
+
+        assertEquals(5, batch.size());
+        assertEquals(4, batch.seq[4]);
+        assertEquals(-120463740, batch.latE7[0]);
+        assertSame(batch.hardware[0], batch.hardware[4]);
+        DataPoint row = batch.get(3, new DataPoint());
+        assertEquals(3, row.seq);
+        assertEquals(-85, row.dbm);
+
+        batch.clear();
+        assertTrue(batch.isEmpty());
+    }
+
+    private static DataPoint samplePoint(long seq) {
+        DataPoint p = new DataPoint();
+        p.seq = seq;
+        p.timestampMs = 1700000000123L;
+        p.setLocation(-12.046374, -77.042793);
+        p.accuracyM = 5.5f;
+        p.dbm = -85;
+        p.hardware = new HashMap<>();
+        p.hardware.put("imei", "358240051111110");
+        p.sim = new HashMap<>();
+        return p;
+    }
+}
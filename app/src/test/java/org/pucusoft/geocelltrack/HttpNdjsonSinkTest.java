@@ -0,0 +1,203 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpNdjsonSinkTest {
+
+    private final MockWebServer server = new MockWebServer();
+    private final OkHttpClient client = new OkHttpClient();
+    private HttpNdjsonSink sink;
+
+    @Before
+    public void setUp() throws IOException {
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (sink != null) sink.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void sizeTriggerPostsGzipNdjsonWithOneLinePerPoint() throws Exception {
+        sink = sink(1, 60_000, "secreto");
+        server.enqueue(new MockResponse().setResponseCode(204));
+
+        TelemetrySink.awaitBatch(sink, "u1", batch(20), 2, TimeUnit.SECONDS);
+
+        RecordedRequest request = server.takeRequest(1, TimeUnit.SECONDS);
+        assertEquals("POST", request.getMethod());
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        assertTrue(request.getHeader("Content-Type").startsWith("application/x-ndjson"));
+        assertEquals("Bearer secreto", request.getHeader("Authorization"));
+        assertEquals("20", request.getHeader("X-GeoCellTrack-Lineas"));
+
+        String[] lines = gunzip(request.getBody().readByteArray()).split("\n");
+        assertEquals(20, lines.length);
+        JsonObject first = JsonParser.parseString(lines[0]).getAsJsonObject();
+        assertTrue(first.get("ruta").getAsString().startsWith("geocelltrack/tracker/u1/"));
+        assertEquals(-91, first.getAsJsonObject("valor").get("dbm").getAsInt());
+        assertTrue("gzip " + sink.sentBytes() + " de " + sink.rawBytes(), sink.sentBytes() * 3 < sink.rawBytes());
+    }
+
+    @Test
+    public void timeTriggerCoalescesWritesIntoOneRequest() throws Exception {
+        sink = sink(1 << 20, 50, null);
+        server.enqueue(new MockResponse().setResponseCode(200));
+        CountDownLatch acks = new CountDownLatch(3);
+        AtomicInteger failures = new AtomicInteger();
+
+        sink.writeBatch("u1", batch(2), Runnable::run, callback(acks, failures));
+        sink.writeBatch("u1", batch(3), Runnable::run, callback(acks, failures));
+        Map<String, Object> heartbeat = new HashMap<>();
+        heartbeat.put("modo", "STILL");
+        sink.writeHeartbeat("u1", "dev", heartbeat, Runnable::run, callback(acks, failures));
+
+        assertTrue(acks.await(2, TimeUnit.SECONDS));
+        assertEquals(0, failures.get());
+        assertEquals(1, server.getRequestCount());
+        RecordedRequest request = server.takeRequest();
+        assertNull(request.getHeader("Authorization"));
+        assertEquals("6", request.getHeader("X-GeoCellTrack-Lineas"));
+        String body = gunzip(request.getBody().readByteArray());
+        assertTrue(body.contains("\"ruta\":\"geocelltrack/latidos/u1/dev\""));
+    }
+
+    @Test
+    public void errorResponseRejectsEveryWriteOfTheRequest() throws Exception {
+        sink = sink(1, 60_000, null);
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        try {
+            TelemetrySink.awaitBatch(sink, "u1", batch(5), 2, TimeUnit.SECONDS);
+            fail("Se esperaba el rechazo del endpoint");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+            assertTrue(expected.getCause().getMessage().contains("503"));
+        }
+
+        // El reintento (desde la caja negra) reescribe las mismas claves
+        TelemetrySink.awaitBatch(sink, "u1", batch(5), 2, TimeUnit.SECONDS);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void awaitBatchDoesNotWaitForTheTimeTrigger() throws Exception {
+        sink = sink(1 << 20, 60_000, null);
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        long start = System.nanoTime();
+        TelemetrySink.awaitBatch(sink, "u1", batch(3), 2, TimeUnit.SECONDS);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, sink.requests());
+    }
+
+    @Test
+    public void liveWriteClosesTheCycleWellBeforeTheTimeTrigger() throws Exception {
+        sink = sink(1 << 20, 60_000, null);
+        server.enqueue(new MockResponse().setResponseCode(200));
+        CountDownLatch cycle = new CountDownLatch(2);
+        AtomicInteger failures = new AtomicInteger();
+        Map<String, Object> heartbeat = new HashMap<>();
+        heartbeat.put("modo", "STILL");
+
+        long start = System.nanoTime();
+        sink.writeHeartbeat("u1", "dev", heartbeat, Runnable::run, callback(cycle, failures));
+        TelemetrySink.writeNow(sink, "u1", batch(3), Runnable::run, callback(cycle, failures));
+
+        // El ack (que cierra el ciclo) llega sin esperar los 60 s; el latido pendiente viaja en el mismo POST
+        assertTrue(cycle.await(2, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+        assertEquals(0, failures.get());
+        assertEquals(1, server.getRequestCount());
+        assertEquals("4", server.takeRequest().getHeader("X-GeoCellTrack-Lineas"));
+    }
+
+    @Test
+    public void writesAfterCloseFail() throws Exception {
+        sink = sink(1 << 20, 60_000, null);
+        sink.close();
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicInteger failures = new AtomicInteger();
+
+        sink.writeBatch("u1", batch(1), Runnable::run, callback(done, failures));
+
+        assertEquals(1, failures.get());
+        assertEquals(0, server.getRequestCount());
+    }
+
+    private HttpNdjsonSink sink(int maxBatchChars, long maxDelayMs, String token) {
+        return new HttpNdjsonSink(client, server.url("/ingesta").toString(), token, maxBatchChars, maxDelayMs);
+    }
+
+    private static TelemetrySink.Callback callback(CountDownLatch acks, AtomicInteger failures) {
+        return new TelemetrySink.Callback() {
+            @Override
+            public void onAck() {
+                acks.countDown();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failures.incrementAndGet();
+            }
+        };
+    }
+
+    private static Map<String, Object> batch(int points) {
+        Map<String, Object> batch = new HashMap<>();
+        for (int i = 0; i < points; i++) {
+            Map<String, Object> point = new HashMap<>();
+            point.put("dbm", -91L);
+            point.put("seq", (long) i);
+            point.put("sistema", "GeoCellTrack");
+            Map<String, Object> hardware = new HashMap<>();
+            hardware.put("modelo", "Pixel 7");
+            hardware.put("fabricante", "Google");
+            point.put("hardware", hardware);
+            batch.put("dev_" + i, point);
+        }
+        return batch;
+    }
+
+    private static String gunzip(byte[] body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            byte[] chunk = new byte[4096];
+            for (int n; (n = in.read(chunk)) > 0; ) out.write(chunk, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,98 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KalmanSmootherTest {
+
+    private static final double LAT0 = -12.0464;
+    private static final double LON0 = -77.0428;
+    // Metros por grado de latitud
+    private static final double M_PER_DEG = 111_195;
+
+    @Test
+    public void stationaryNoisyFixes_convergeAndShrinkUncertainty() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        smoother.setAccelerationStd(KalmanSmoother.accelerationStdFor(MotionStateMachine.Mode.STILL));
+        Random random = new Random(7);
+        double worstRaw = 0;
+        for (int i = 0; i < 60; i++) {
+            double dLat = random.nextGaussian() * 15 / M_PER_DEG;
+            double dLon = random.nextGaussian() * 15 / M_PER_DEG;
+            worstRaw = Math.max(worstRaw, distanceM(LAT0 + dLat, LON0 + dLon, LAT0, LON0));
+            smoother.update(i * 10_000L, LAT0 + dLat, LON0 + dLon, 15);
+        }
+
+        double error = distanceM(smoother.lat(), smoother.lon(), LAT0, LON0);
+        assertTrue("error " + error, error < 8);
+        assertTrue(error < worstRaw / 3);
+        assertTrue(smoother.sigmaM() < 15);
+        assertTrue(smoother.speedMps() < 0.5);
+        assertTrue(Double.isNaN(smoother.bearingDeg()));
+    }
+
+    @Test
+    public void constantVelocityTrack_estimatesSpeedAndBearing() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        // 10 m/s hacia el este
+        for (int i = 0; i <= 30; i++) {
+            double lon = LON0 + 10.0 * i / (M_PER_DEG * Math.cos(Math.toRadians(LAT0)));
+            smoother.update(i * 1000L, LAT0, lon, 5);
+        }
+
+        assertEquals(10, smoother.speedMps(), 0.5);
+        assertEquals(90, smoother.bearingDeg(), 3);
+    }
+
+    @Test
+    public void outlier_isRejectedUntilItPersists() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        smoother.setAccelerationStd(KalmanSmoother.accelerationStdFor(MotionStateMachine.Mode.STILL));
+        for (int i = 0; i < 10; i++) smoother.update(i * 5000L, LAT0, LON0, 10);
+
+        double jumpLat = LAT0 + 2000 / M_PER_DEG;
+        assertFalse(smoother.update(50_000, jumpLat, LON0, 10));
+        assertTrue(distanceM(smoother.lat(), smoother.lon(), LAT0, LON0) < 5);
+        assertFalse(smoother.update(55_000, jumpLat, LON0, 10));
+        // Tercera seguida: el salto es real y el filtro se reinicia ahí
+        assertTrue(smoother.update(60_000, jumpLat, LON0, 10));
+        assertEquals(jumpLat, smoother.lat(), 1e-7);
+    }
+
+    @Test
+    public void coarseCellEstimate_barelyMovesAGpsAnchoredTrack() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        smoother.setAccelerationStd(KalmanSmoother.accelerationStdFor(MotionStateMachine.Mode.STILL));
+        for (int i = 0; i < 10; i++) smoother.update(i * 5000L, LAT0, LON0, 8);
+
+        assertTrue(smoother.update(50_000, LAT0 + 400 / M_PER_DEG, LON0, 600));
+        assertTrue(distanceM(smoother.lat(), smoother.lon(), LAT0, LON0) < 5);
+    }
+
+    @Test
+    public void repeatedOrOlderFix_isIgnored() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        assertTrue(smoother.update(10_000, LAT0, LON0, 10));
+        assertFalse(smoother.update(10_000, LAT0, LON0, 10));
+        assertFalse(smoother.update(5_000, LAT0 + 0.001, LON0, 10));
+        assertEquals(LAT0, smoother.lat(), 1e-9);
+    }
+
+    @Test
+    public void longGap_restartsAtTheNewMeasurement() {
+        KalmanSmoother smoother = new KalmanSmoother();
+        smoother.update(0, LAT0, LON0, 10);
+        assertTrue(smoother.update(KalmanSmoother.MAX_GAP_MS + 1, LAT0 + 0.5, LON0, 10));
+        assertEquals(LAT0 + 0.5, smoother.lat(), 1e-9);
+        assertEquals(10, smoother.sigmaM(), 1e-9);
+    }
+
+    private static double distanceM(double lat1, double lon1, double lat2, double lon2) {
+        return StationaryFilter.distanceM(DataPoint.toE7(lat1), DataPoint.toE7(lon1), DataPoint.toE7(lat2), DataPoint.toE7(lon2));
+    }
+}
@@ -0,0 +1,60 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MotionStateMachineTest {
+
+    @Test
+    public void upgradeToVehicleIsImmediate() {
+        MotionStateMachine machine = new MotionStateMachine(MotionStateMachine.Mode.STILL);
+
+        assertTrue(machine.onActivity(MotionStateMachine.Mode.IN_VEHICLE, 80, 0));
+        assertEquals(MotionStateMachine.INTERVALO_VEHICULO, machine.intervalMs());
+    }
+
+    @Test
+    public void lowConfidenceReadingsAreIgnored() {
+        MotionStateMachine machine = new MotionStateMachine(MotionStateMachine.Mode.STILL);
+
+        assertFalse(machine.onActivity(MotionStateMachine.Mode.IN_VEHICLE, MotionStateMachine.MIN_CONFIDENCE - 1, 0));
+        assertEquals(MotionStateMachine.Mode.STILL, machine.mode());
+    }
+
+    @Test
+    public void stillRequiresDwellBeforeDowngrade() {
+        MotionStateMachine machine = new MotionStateMachine(MotionStateMachine.Mode.IN_VEHICLE);
+
+        assertFalse(machine.onActivity(MotionStateMachine.Mode.STILL, 90, 0));
+        assertFalse(machine.onActivity(MotionStateMachine.Mode.STILL, 90, MotionStateMachine.STILL_DWELL_MS - 1));
+        assertTrue(machine.onActivity(MotionStateMachine.Mode.STILL, 90, MotionStateMachine.STILL_DWELL_MS));
+        assertEquals(MotionStateMachine.INTERVALO_QUIETO, machine.intervalMs());
+    }
+
+    @Test
+    public void briefStopResetsTheDowngradeCandidate() {
+        MotionStateMachine machine = new MotionStateMachine(MotionStateMachine.Mode.IN_VEHICLE);
+
+        machine.onActivity(MotionStateMachine.Mode.STILL, 90, 0);
+        // Semáforo: el vehículo vuelve a moverse antes de cumplir la espera
+        assertFalse(machine.onActivity(MotionStateMachine.Mode.IN_VEHICLE, 90, 30_000));
+        assertFalse(machine.onActivity(MotionStateMachine.Mode.STILL, 90, 60_000));
+        assertFalse(machine.onActivity(MotionStateMachine.Mode.STILL, 90, MotionStateMachine.STILL_DWELL_MS + 30_000));
+        assertEquals(MotionStateMachine.Mode.IN_VEHICLE, machine.mode());
+    }
+
+    @Test
+    public void activityCadenceFollowsTheTickWithinTheCap() {
+        MotionStateMachine machine = new MotionStateMachine(MotionStateMachine.Mode.WALKING);
+        assertEquals(MotionStateMachine.INTERVALO_CAMINANDO, machine.activityIntervalMs());
+
+        assertTrue(machine.onActivity(MotionStateMachine.Mode.IN_VEHICLE, 90, 0));
+        assertEquals(MotionStateMachine.INTERVALO_VEHICULO, machine.activityIntervalMs());
+
+        machine = new MotionStateMachine(MotionStateMachine.Mode.STILL);
+        assertEquals(MotionStateMachine.MAX_ACTIVITY_INTERVAL_MS, machine.activityIntervalMs());
+    }
+}
@@ -0,0 +1,109 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OfflineJournalTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        OfflineJournal.open(dir).close();
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void appendPeekCommit_drainsInOrder() throws IOException {
+        OfflineJournal journal = OfflineJournal.open(dir, 256);
+        for (int i = 0; i < 50; i++) journal.append(bytes("punto-" + i));
+        assertTrue("Debe haber rotado segmentos", journal.segmentCount() > 1);
+
+        int expected = 0;
+        while (!journal.isEmpty()) {
+            OfflineJournal.Batch batch = journal.peek(7, Long.MAX_VALUE);
+            assertFalse(batch.isEmpty());
+            for (byte[] record : batch.records) {
+                assertEquals("punto-" + expected++, text(record));
+            }
+            journal.commit(batch);
+        }
+        assertEquals(50, expected);
+        assertEquals(1, journal.segmentCount());
+    }
+
+    @Test
+    public void peekWithoutCommit_doesNotAdvanceCursor() throws IOException {
+        OfflineJournal journal = OfflineJournal.open(dir);
+        journal.append(bytes("a"));
+        journal.append(bytes("b"));
+
+        assertEquals("a", text(journal.peek(1, Long.MAX_VALUE).records.get(0)));
+        assertEquals("a", text(journal.peek(1, Long.MAX_VALUE).records.get(0)));
+    }
+
+    @Test
+    public void peek_respectsByteCapButReturnsAtLeastOneRecord() throws IOException {
+        OfflineJournal journal = OfflineJournal.open(dir);
+        journal.append(new byte[100]);
+        journal.append(new byte[100]);
+
+        assertEquals(1, journal.peek(10, 10).size());
+        assertEquals(2, journal.peek(10, 200).size());
+    }
+
+    @Test
+    public void reopen_restoresCursorAndTruncatesTornTail() throws IOException {
+        OfflineJournal journal = OfflineJournal.open(dir, 128);
+        for (int i = 0; i < 20; i++) journal.append(bytes("r" + i));
+        journal.commit(journal.peek(5, Long.MAX_VALUE));
+        journal.close();
+
+        // Simula un registro cortado a la mitad al final del último segmento
+        File[] segments = dir.listFiles((d, name) -> name.startsWith("seg-"));
+        File last = segments[0];
+        for (File f : segments) if (f.getName().compareTo(last.getName()) > 0) last = f;
+        try (RandomAccessFile raf = new RandomAccessFile(last, "rw")) {
+            raf.seek(raf.length());
+            raf.writeInt(50);
+            raf.writeInt(0);
+            raf.write(new byte[10]);
+        }
+
+        journal = OfflineJournal.open(dir, 128);
+        OfflineJournal.Batch rest = journal.peek(100, Long.MAX_VALUE);
+        assertEquals(15, rest.size());
+        assertEquals("r5", text(rest.records.get(0)));
+        assertEquals("r19", text(rest.records.get(14)));
+
+        journal.append(bytes("nuevo"));
+        OfflineJournal.Batch all = journal.peek(100, Long.MAX_VALUE);
+        assertEquals("nuevo", text(all.records.get(all.size() - 1)));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
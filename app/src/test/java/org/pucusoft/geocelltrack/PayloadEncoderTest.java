@@ -0,0 +1,104 @@
+package org.pucusoft.geocelltrack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+import com.networknt.schema.ValidationMessage;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PayloadEncoderTest {
+
+    private final PayloadEncoder encoder = new PayloadEncoder("agente-1", TimeZone.getTimeZone("America/Lima"));
+
+    @Test
+    public void encode_matchesPayloadSchema() throws Exception {
+        assertValid(encoder.encode(samplePoint(true)));
+        assertValid(encoder.encode(samplePoint(false)));
+    }
+
+    @Test
+    public void encode_cellListMatchesPayloadSchema() throws Exception {
+        DataPoint p = samplePoint(true);
+        p.cells = CellSnapshot.full(new CellObservation[]{CellListDifferTest.cell(1001, true, -85),
+                CellListDifferTest.cell(1002, false, -101)});
+        assertValid(encoder.encode(p));
+
+        JsonNode payload = new ObjectMapper().readTree(encoder.encode(p));
+        assertEquals(2, payload.get("celdas").get("lista").size());
+        assertEquals(1001, payload.get("red").get("cell_id").asLong());
+        assertEquals("completa", payload.get("celdas").get("modo_lista").asText());
+    }
+
+    @Test
+    public void encode_writesTypedFields() throws Exception {
+        JsonNode payload = new ObjectMapper().readTree(encoder.encode(samplePoint(true)));
+
+        assertEquals("GeoCellTrack", payload.get("sistema").asText());
+        assertEquals(1700000000L, payload.get("timestamp_unix").asLong());
+        assertEquals("2023-11-14T17:13:20.123-05:00", payload.get("timestamp_iso").asText());
+        assertEquals(-12.046374, payload.get("gps").get("lat").asDouble(), 1e-7);
+        assertTrue(payload.get("gps").get("velocidad_mps").isNull());
+        assertEquals(-85, payload.get("celdas").get("lista").get(0).get("dbm").asInt());
+        // api_level llega como Double desde Gson y sale como entero
+        assertTrue(payload.get("hardware").get("api_level").isIntegralNumber());
+    }
+
+    @Test
+    public void encode_reusesBufferBetweenPoints() {
+        byte[] first = encoder.encode(samplePoint(true));
+        encoder.encode(samplePoint(false));
+        assertEquals(new String(first), new String(encoder.encode(samplePoint(true))));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void toFirebaseMap_keepsIntegersAsLongAndSkipsNulls() {
+        Map<String, Object> map = encoder.toFirebaseMap(samplePoint(false));
+
+        assertTrue(map.get("timestamp_ms") instanceof Long);
+        assertTrue(map.get(DataPoint.FIELD_SEQ) instanceof Long);
+        Map<String, Object> gps = (Map<String, Object>) map.get("gps");
+        assertFalse(gps.containsKey("lat"));
+        assertEquals(Boolean.TRUE, gps.get("consentido"));
+    }
+
+    private static void assertValid(byte[] json) throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        InputStream schemaStream = PayloadEncoderTest.class.getResourceAsStream("/payload-schema.json");
+        if (schemaStream == null) throw new IllegalStateException("No se encontró payload-schema.json en test resources");
+
+        JsonSchema schema = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7)
+                .getSchema(mapper.readTree(schemaStream));
+        Set<ValidationMessage> errors = schema.validate(mapper.readTree(json));
+        assertTrue("Payload debe cumplir el schema. Errores: " + errors, errors.isEmpty());
+    }
+
+    private static DataPoint samplePoint(boolean withLocation) {
+        DataPoint p = new DataPoint();
+        p.seq = 7;
+        p.timestampMs = 1700000000123L;
+        if (withLocation) {
+            p.setLocation(-12.046374, -77.042793);
+            p.accuracyM = 5.5f;
+            p.fixTimeMs = 1700000000000L;
+        }
+        p.dbm = -85;
+        p.hardware = new HashMap<>();
+        p.hardware.put("modelo", "Pixel 7");
+        p.hardware.put("api_level", 34.0);
+        p.sim = new HashMap<>();
+        return p;
+    }
+}
@@ -0,0 +1,158 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PointDeltaEncoderTest {
+
+    private static final Gson GSON = new Gson();
+
+    private final PayloadEncoder payloads = new PayloadEncoder("agente-1", TimeZone.getTimeZone("America/Lima"));
+
+    @Test
+    public void framesAreFullUntilTheSessionHeaderIsAcked() {
+        PointDeltaEncoder encoder = new PointDeltaEncoder("dev", 30);
+        PointDeltaEncoder.Batch batch = encoder.begin();
+        Map<String, Object> first = batch.frame(1, payload(1));
+
+        assertNull(first.get(PointDeltaEncoder.FIELD_FRAME));
+        assertEquals("dev_1", encoder.pendingSessionId());
+        assertTrue(encoder.sessionHeader().containsKey("hardware"));
+
+        encoder.onSessionWriting("dev_1");
+        assertNull(encoder.pendingSessionId());
+        encoder.onSessionWritten("dev_1", false);
+        assertEquals("dev_1", encoder.pendingSessionId());
+        assertNull(encoder.begin().frame(2, payload(2)).get(PointDeltaEncoder.FIELD_FRAME));
+    }
+
+    @Test
+    public void roundTripThroughReaderRebuildsEveryPoint() {
+        PointDeltaEncoder encoder = ackedEncoder(5);
+        PointDeltaReader reader = new PointDeltaReader();
+        reader.addSession("dev_1", roundTripJson(encoder.sessionHeader()));
+
+        for (int b = 0; b < 4; b++) {
+            PointDeltaEncoder.Batch batch = encoder.begin();
+            List<Map<String, Object>> frames = new ArrayList<>();
+            List<Map<String, Object>> expected = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                long seq = 2 + b * 3 + i;
+                Map<String, Object> full = payload(seq);
+                expected.add(full);
+                frames.add(roundTripJson(batch.frame(seq, full)));
+            }
+            encoder.onAcked(batch);
+            for (int i = 0; i < frames.size(); i++) {
+                assertEquals(roundTripJson(expected.get(i)), reader.read(frames.get(i)));
+            }
+        }
+        assertEquals(0, reader.unresolved());
+    }
+
+    @Test
+    public void keyframeEveryIntervalFrames() {
+        PointDeltaEncoder encoder = ackedEncoder(4);
+        PointDeltaEncoder.Batch batch = encoder.begin();
+        List<Object> types = new ArrayList<>();
+        for (long seq = 2; seq < 10; seq++) types.add(batch.frame(seq, payload(seq)).get(PointDeltaEncoder.FIELD_FRAME));
+
+        assertEquals(PointDeltaEncoder.FRAME_KEY, types.get(0));
+        assertEquals(PointDeltaEncoder.FRAME_DELTA, types.get(1));
+        assertEquals(PointDeltaEncoder.FRAME_KEY, types.get(4));
+        assertEquals(2, Collections.frequency(types, PointDeltaEncoder.FRAME_KEY));
+    }
+
+    @Test
+    public void deltaAfterAFailedBatchUsesTheLastAckedBase() {
+        PointDeltaEncoder encoder = ackedEncoder(30);
+        PointDeltaEncoder.Batch acked = encoder.begin();
+        acked.frame(2, payload(2));
+        encoder.onAcked(acked);
+
+        encoder.begin().frame(3, payload(3)); // el lote falla: va a la caja negra, sin onAcked
+        Map<String, Object> frame = encoder.begin().frame(4, payload(4));
+
+        assertEquals(PointDeltaEncoder.FRAME_DELTA, frame.get(PointDeltaEncoder.FIELD_FRAME));
+        assertEquals(2L, frame.get(PointDeltaEncoder.FIELD_BASE));
+    }
+
+    @Test
+    public void deltaCarriesOnlyChangedFieldsAndRemovedPaths() {
+        Map<String, Object> prev = payload(2);
+        Map<String, Object> cur = payload(3);
+        ((Map<?, ?>) cur.get("gps")).remove("lat");
+
+        Map<String, Object> out = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        PointDeltaEncoder.diff(prev, cur, out, "", removed);
+
+        assertFalse(out.containsKey("hardware"));
+        assertFalse(out.containsKey("red"));
+        assertTrue(out.containsKey("timestamp_ms"));
+        assertEquals(Collections.singletonList("gps/lat"), removed);
+    }
+
+    @Test
+    public void deltaFramesShrinkBytesPerPoint() {
+        PointDeltaEncoder encoder = ackedEncoder(PointDeltaEncoder.DEFAULT_KEYFRAME_INTERVAL);
+        PointDeltaEncoder.Batch batch = encoder.begin();
+        long fullBytes = 0;
+        long frameBytes = 0;
+        for (long seq = 2; seq < 62; seq++) {
+            Map<String, Object> full = payload(seq);
+            fullBytes += GSON.toJson(full).length();
+            frameBytes += GSON.toJson(batch.frame(seq, full)).length();
+        }
+        assertTrue("completo " + fullBytes + " vs diferencial " + frameBytes, frameBytes * 3 < fullBytes);
+    }
+
+    /** Codificador con la sesión {@code dev_1} ya confirmada tras un primer punto completo. */
+    private PointDeltaEncoder ackedEncoder(int keyframeInterval) {
+        PointDeltaEncoder encoder = new PointDeltaEncoder("dev", keyframeInterval);
+        encoder.begin().frame(1, payload(1));
+        encoder.onSessionWriting("dev_1");
+        encoder.onSessionWritten("dev_1", true);
+        return encoder;
+    }
+
+    private Map<String, Object> payload(long seq) {
+        DataPoint p = new DataPoint();
+        p.seq = seq;
+        p.timestampMs = 1700000000000L + seq * 5000;
+        p.setLocation(-12.046374 + seq * 1e-5, -77.042793);
+        p.accuracyM = 5.5f;
+        p.fixTimeMs = p.timestampMs - 200;
+        p.dbm = seq % 4 == 0 ? -91 : -85;
+        p.hardware = new HashMap<>();
+        p.hardware.put("modelo", "Pixel 7");
+        p.hardware.put("fabricante", "Google");
+        p.hardware.put("api_level", 34.0);
+        p.sim = new HashMap<>();
+        p.sim.put("operador", "Claro PE");
+        p.sim.put("mcc_mnc", "71610");
+        p.sim.put("pais", "pe");
+        p.cells = CellSnapshot.full(new CellObservation[]{CellListDifferTest.cell(1001, true, -85),
+                CellListDifferTest.cell(1002, false, -101)});
+        return payloads.toFirebaseMap(p);
+    }
+
+    /** Lo que lee un consumidor: los números vuelven como Double, igual que de Firebase vía JSON. */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> roundTripJson(Map<String, Object> map) {
+        return GSON.fromJson(GSON.toJson(map), Map.class);
+    }
+}
@@ -0,0 +1,122 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SharedChildListenersTest {
+
+    private final Map<String, SharedChildListeners.Channel<String, String>> attached = new HashMap<>();
+    private int attaches;
+    private int detaches;
+
+    private final SharedChildListeners<String, String> listeners =
+            new SharedChildListeners<>(new SharedChildListeners.Source<String, String>() {
+                @Override
+                public Object attach(String path, SharedChildListeners.Channel<String, String> channel) {
+                    attaches++;
+                    attached.put(path, channel);
+                    return path;
+                }
+
+                @Override
+                public void detach(String path, Object registration) {
+                    detaches++;
+                    attached.remove(registration);
+                }
+            });
+
+    @Test
+    public void subscribersOfOnePathShareOneListener() {
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        listeners.subscribe("tracker/u1", a);
+        listeners.subscribe("tracker/u1", b);
+
+        attached.get("tracker/u1").onChild("k1", "v1");
+
+        assertEquals(1, attaches);
+        assertEquals(Arrays.asList("v1"), a.data);
+        assertEquals(Arrays.asList("v1"), b.data);
+        assertEquals(2, listeners.subscriberCount("tracker/u1"));
+    }
+
+    @Test
+    public void lateSubscriberReplaysTheLastKnownChildren() {
+        listeners.subscribe("tracker/u1", new Recorder());
+        SharedChildListeners.Channel<String, String> channel = attached.get("tracker/u1");
+        channel.onChild("k1", "v1");
+        channel.onChild("k2", "v2");
+        channel.onChild("k1", "v1b");
+        channel.onChildRemoved("k2", "v2");
+
+        Recorder late = new Recorder();
+        listeners.subscribe("tracker/u1", late);
+
+        assertEquals(Arrays.asList("v1b"), late.data);
+        channel.onChild("k3", "v3");
+        assertEquals(Arrays.asList("v1b", "v3"), late.data);
+    }
+
+    @Test
+    public void detachesOnlyWhenTheLastSubscriberLeaves() {
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        listeners.subscribe("tracker/u1", a);
+        listeners.subscribe("tracker/u1", b);
+
+        assertFalse(listeners.unsubscribe("tracker/u1", a));
+        assertEquals(0, detaches);
+        assertFalse(listeners.unsubscribe("tracker/u1", a));
+        assertTrue(listeners.unsubscribe("tracker/u1", b));
+        assertEquals(1, detaches);
+        assertEquals(0, listeners.attachedPaths());
+
+        // Con el caché descartado, un suscriptor nuevo engancha otro listener
+        Recorder c = new Recorder();
+        listeners.subscribe("tracker/u1", c);
+        assertEquals(2, attaches);
+        assertTrue(c.data.isEmpty());
+    }
+
+    @Test
+    public void cancellationReachesEverySubscriberAndDropsThePath() {
+        Recorder a = new Recorder();
+        Recorder b = new Recorder();
+        listeners.subscribe("tracker/u1", a);
+        listeners.subscribe("tracker/u1", b);
+        SharedChildListeners.Channel<String, String> channel = attached.get("tracker/u1");
+
+        channel.onCancelled("permiso denegado");
+        channel.onChild("k1", "tarde");
+
+        assertEquals(Arrays.asList("permiso denegado"), a.errors);
+        assertEquals(Arrays.asList("permiso denegado"), b.errors);
+        assertTrue(a.data.isEmpty());
+        assertEquals(0, listeners.attachedPaths());
+        assertFalse(listeners.unsubscribe("tracker/u1", a));
+    }
+
+    private static final class Recorder implements SharedChildListeners.Subscriber<String, String> {
+        final List<String> data = new ArrayList<>();
+        final List<String> errors = new ArrayList<>();
+
+        @Override
+        public void onData(String snapshot) {
+            data.add(snapshot);
+        }
+
+        @Override
+        public void onCancelled(String error) {
+            errors.add(error);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StationaryFilterTest {
+
+    private final StationaryFilter filter = new StationaryFilter(25f, 20f, 6, 30 * 60_000L, 5 * 60_000L);
+
+    @Test
+    public void suppressesPointsInsideTheDeadBand() {
+        assertTrue(filter.offer(point(0, -12.046374, -77.042793, -90)));
+        // ~11 m de desplazamiento y 3 dB de diferencia
+        assertFalse(filter.offer(point(70_000, -12.046274, -77.042793, -93)));
+        assertFalse(filter.offer(point(140_000, -12.046374, -77.042793, -88)));
+        assertEquals(2, filter.suppressedCount());
+    }
+
+    @Test
+    public void movementOrCellChangePassesThrough() {
+        filter.offer(point(0, -12.046374, -77.042793, -90));
+
+        assertTrue(filter.offer(point(70_000, -12.046874, -77.042793, -90)));   // ~55 m
+        assertTrue(filter.offer(point(140_000, -12.046874, -77.042793, -105))); // señal distinta
+        assertEquals(0, filter.suppressedCount());
+    }
+
+    @Test
+    public void forcesAnAnchorAfterMaxSuppress() {
+        filter.offer(point(0, -12.046374, -77.042793, -90));
+
+        assertFalse(filter.offer(point(29 * 60_000L, -12.046374, -77.042793, -90)));
+        assertTrue(filter.offer(point(30 * 60_000L, -12.046374, -77.042793, -90)));
+    }
+
+    @Test
+    public void heartbeatIsRateLimited() {
+        filter.offer(point(0, -12.046374, -77.042793, -90));
+        assertFalse(filter.heartbeatDue(1_000_000));
+
+        filter.offer(point(70_000, -12.046374, -77.042793, -90));
+        assertTrue(filter.heartbeatDue(1_000_000));
+        filter.offer(point(140_000, -12.046374, -77.042793, -90));
+        assertFalse(filter.heartbeatDue(1_000_000 + 60_000));
+        assertTrue(filter.heartbeatDue(1_000_000 + 5 * 60_000));
+    }
+
+    @Test
+    public void peekDoesNotConsumeTheHeartbeat() {
+        filter.offer(point(0, -12.046374, -77.042793, -90));
+        filter.offer(point(70_000, -12.046374, -77.042793, -90));
+
+        // Sin red: el latido sigue pendiente hasta que uno se confirme
+        assertTrue(filter.peekHeartbeatDue(1_000_000));
+        assertTrue(filter.peekHeartbeatDue(1_000_000 + 60_000));
+        filter.onHeartbeatSent(1_000_000 + 60_000);
+        assertFalse(filter.peekHeartbeatDue(1_000_000 + 2 * 60_000));
+        assertTrue(filter.peekHeartbeatDue(1_000_000 + 6 * 60_000));
+    }
+
+    private static DataPoint point(long timestampMs, double lat, double lon, int dbm) {
+        DataPoint p = new DataPoint();
+        p.timestampMs = timestampMs;
+        p.setLocation(lat, lon);
+        p.accuracyM = 10f;
+        p.dbm = dbm;
+        return p;
+    }
+}
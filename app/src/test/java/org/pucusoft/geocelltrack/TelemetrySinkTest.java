@@ -0,0 +1,133 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TelemetrySinkTest {
+
+    @Test
+    public void inMemory_rewritingAckedKeysDoesNotDuplicatePoints() throws Exception {
+        InMemoryTelemetrySink sink = new InMemoryTelemetrySink();
+        Map<String, Object> batch = batch("a", "b", "c");
+
+        TelemetrySink.awaitBatch(sink, "u1", batch, 1, TimeUnit.SECONDS);
+        TelemetrySink.awaitBatch(sink, "u1", batch, 1, TimeUnit.SECONDS);
+
+        assertEquals(3, sink.pointCount("u1"));
+        assertEquals(6, sink.points());
+        assertEquals(2, sink.batches());
+        assertEquals(batch.get("b"), sink.get("tracker/u1/b"));
+    }
+
+    @Test
+    public void inMemory_injectedFailureRejectsTheWholeBatch() throws Exception {
+        InMemoryTelemetrySink sink = new InMemoryTelemetrySink().failNext(1);
+        try {
+            TelemetrySink.awaitBatch(sink, "u1", batch("a", "b"), 1, TimeUnit.SECONDS);
+            fail("Se esperaba la falla inyectada");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertEquals(0, sink.pointCount("u1"));
+        assertEquals(1, sink.failures());
+
+        TelemetrySink.awaitBatch(sink, "u1", batch("a", "b"), 1, TimeUnit.SECONDS);
+        assertEquals(2, sink.pointCount("u1"));
+    }
+
+    @Test
+    public void inMemory_failureRateIsReproducibleWithSeed() {
+        int first = failuresOver(100, 0.3, 7);
+        assertEquals(first, failuresOver(100, 0.3, 7));
+        assertTrue("fallas " + first, first > 10 && first < 50);
+    }
+
+    @Test
+    public void inMemory_latencyDelaysAckOnTheRequestedExecutor() throws Exception {
+        try (InMemoryTelemetrySink sink = new InMemoryTelemetrySink().latencyMs(50)) {
+            AtomicInteger acks = new AtomicInteger();
+            long start = System.nanoTime();
+            sink.writeBatch("u1", batch("a"), Runnable::run, callback(acks));
+            assertEquals(0, acks.get());
+
+            TelemetrySink.awaitBatch(sink, "u1", batch("b"), 1, TimeUnit.SECONDS);
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        }
+    }
+
+    @Test
+    public void ndjson_writesOneLinePerPointAndHeartbeat() throws Exception {
+        File file = Files.createTempFile("telemetry", ".ndjson").toFile();
+        try (NdjsonFileSink sink = new NdjsonFileSink(file, false)) {
+            TelemetrySink.awaitBatch(sink, "u1", batch("a", "b"), 1, TimeUnit.SECONDS);
+            Map<String, Object> heartbeat = new HashMap<>();
+            heartbeat.put("modo", "STILL");
+            AtomicInteger acks = new AtomicInteger();
+            sink.writeHeartbeat("u1", "dev", heartbeat, Runnable::run, callback(acks));
+            assertEquals(1, acks.get());
+        }
+
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        JsonObject last = JsonParser.parseString(lines.get(2)).getAsJsonObject();
+        assertEquals("geocelltrack/latidos/u1/dev", last.get("ruta").getAsString());
+        assertEquals("STILL", last.getAsJsonObject("valor").get("modo").getAsString());
+        for (String line : lines.subList(0, 2)) {
+            JsonObject point = JsonParser.parseString(line).getAsJsonObject();
+            assertTrue(point.get("ruta").getAsString().startsWith("geocelltrack/tracker/u1/"));
+            assertEquals(-91, point.getAsJsonObject("valor").get("dbm").getAsInt());
+            assertNull(point.getAsJsonObject("valor").get("sin_valor"));
+        }
+        file.delete();
+    }
+
+    private static int failuresOver(int writes, double rate, long seed) {
+        InMemoryTelemetrySink sink = new InMemoryTelemetrySink().failureRate(rate, seed);
+        AtomicInteger acks = new AtomicInteger();
+        for (int i = 0; i < writes; i++) sink.writeBatch("u1", batch("k" + i), Runnable::run, callback(acks));
+        assertEquals(writes, acks.get() + sink.failures());
+        return (int) sink.failures();
+    }
+
+    private static TelemetrySink.Callback callback(AtomicInteger acks) {
+        return new TelemetrySink.Callback() {
+            @Override
+            public void onAck() {
+                acks.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+            }
+        };
+    }
+
+    private static Map<String, Object> batch(String... keys) {
+        Map<String, Object> batch = new HashMap<>();
+        for (String key : keys) {
+            Map<String, Object> point = new HashMap<>();
+            point.put("dbm", -91L);
+            point.put("sin_valor", null);
+            batch.put(key, point);
+        }
+        return batch;
+    }
+}
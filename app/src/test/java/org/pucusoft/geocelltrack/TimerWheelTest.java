@@ -0,0 +1,118 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TimerWheelTest {
+
+    private static final long S = 1000;
+
+    @Test
+    public void overlappingWindowsShareOneWakeup() {
+        TimerWheel wheel = new TimerWheel();
+        List<String> ran = new ArrayList<>();
+        wheel.schedule("tick", 70 * S, 7 * S, true, 70 * S, () -> ran.add("tick"));
+        wheel.schedule("otro", 72 * S, 1 * S, true, 72 * S, () -> ran.add("otro"));
+
+        // El plazo más cercano es el de "otro" (73 s); "tick" ya venció y viaja con él
+        TimerWheel.Timer next = wheel.nextTimer(true);
+        assertEquals("otro", next.name);
+        assertEquals(2, wheel.runDue(next.deadlineMs()));
+        assertEquals(2, ran.size());
+        assertEquals(1, wheel.windows());
+    }
+
+    @Test
+    public void timersNeverRunBeforeDueAndPeriodCountsFromTheDueTime() {
+        TimerWheel wheel = new TimerWheel();
+        int[] runs = new int[1];
+        TimerWheel.Timer t = wheel.schedule("tick", 20 * S, 2 * S, true, 20 * S, () -> runs[0]++);
+
+        assertEquals(0, wheel.runDue(19 * S));
+        assertEquals(1, wheel.runDue(21 * S));
+        assertEquals(40 * S, t.dueMs());
+        assertEquals(42 * S, t.deadlineMs());
+        assertEquals(1, runs[0]);
+    }
+
+    @Test
+    public void wakingAtTheDeadlineDoesNotStretchThePeriod() {
+        TimerWheel wheel = new TimerWheel();
+        List<Long> runs = new ArrayList<>();
+        long[] now = {0};
+        wheel.schedule("tick", 70 * S, 7 * S, true, 70 * S, () -> runs.add(now[0]));
+
+        // Despierto, el Handler apunta siempre al plazo: cada ejecución usa toda la holgura
+        for (int i = 0; i < 10; i++) {
+            now[0] = wheel.nextTimer(false).deadlineMs();
+            wheel.runDue(now[0]);
+        }
+        assertEquals(77 * S, (long) runs.get(0));
+        assertEquals(70 * S * 9, runs.get(9) - runs.get(0));
+    }
+
+    @Test
+    public void aLateWakeupSkipsMissedPeriodsInsteadOfBursting() {
+        TimerWheel wheel = new TimerWheel();
+        int[] runs = new int[1];
+        TimerWheel.Timer t = wheel.schedule("tick", 70 * S, 7 * S, true, 70 * S, () -> runs[0]++);
+
+        assertEquals(1, wheel.runDue(500 * S));
+        assertEquals(570 * S, t.dueMs());
+        assertEquals(0, wheel.runDue(501 * S));
+        assertEquals(1, runs[0]);
+    }
+
+    @Test
+    public void coalescingCutsWakeupsOverAnHour() {
+        TimerWheel wheel = new TimerWheel();
+        wheel.schedule("tick", 70 * S, 7 * S, true, 0, () -> { });
+        wheel.schedule("latido", 60 * S, 15 * S, true, 0, () -> { });
+        wheel.schedule("reloj", S, S / 4, false, 0, () -> { });
+
+        // Solo los timers wakeup despiertan; el reloj corre cuando ya hay un despertar
+        long now = 0;
+        while (now < 3600 * S) {
+            wheel.runDue(now);
+            now = wheel.nextTimer(true).deadlineMs();
+        }
+        long separate = 3600 / 70 + 3600 / 60;
+        assertTrue("despertares " + wheel.windows(), wheel.windows() < separate);
+    }
+
+    @Test
+    public void nextTimerSkipsNonWakeupTimersAndFindsFarDeadlines() {
+        TimerWheel wheel = new TimerWheel(1000, 8);
+        TimerWheel.Timer clock = wheel.schedule("reloj", S, 0, false, S, () -> { });
+        TimerWheel.Timer still = wheel.schedule("quieto", 300 * S, 30 * S, true, 300 * S, () -> { });
+
+        assertSame(clock, wheel.nextTimer(false));
+        // 330 s está a muchas vueltas de una rueda de 8 ranuras
+        assertSame(still, wheel.nextTimer(true));
+    }
+
+    @Test
+    public void rescheduleToNowAndCancel() {
+        TimerWheel wheel = new TimerWheel();
+        int[] runs = new int[1];
+        TimerWheel.Timer t = wheel.schedule("tick", 70 * S, 7 * S, true, 70 * S, () -> runs[0]++);
+
+        t.setPeriod(20 * S, 2 * S);
+        wheel.reschedule(t, 5 * S);
+        assertEquals(1, wheel.runDue(5 * S));
+        assertEquals(25 * S, t.dueMs());
+
+        wheel.cancel(t);
+        assertEquals(0, wheel.size());
+        assertNull(wheel.nextTimer(false));
+        assertEquals(0, wheel.runDue(100 * S));
+        assertEquals(1, runs[0]);
+    }
+}
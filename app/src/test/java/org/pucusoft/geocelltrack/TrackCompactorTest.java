@@ -0,0 +1,232 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrackCompactorTest {
+
+    // 2023-11-14T22:13:20Z
+    private static final long T0 = 1700000000000L;
+    private static final long MIN = TimeUnit.MINUTES.toMillis(1);
+
+    private final TrackCompactor compactor = new TrackCompactor(MIN, TimeUnit.HOURS.toMillis(2), false, false);
+
+    @Test
+    public void partitionIsTheUtcHour() {
+        assertEquals("20231114/22", TrackPartition.of(T0));
+        assertEquals("20231114/22/dev_7", TrackPartition.path(T0, "dev_7"));
+        assertEquals(1699999200000L, TrackPartition.startMs("20231114/22"));
+        assertEquals(-1, TrackPartition.startMs("dev_7"));
+        assertFalse(TrackPartition.isHour("24"));
+
+        long end = TrackPartition.startMs("20231114/22") + TrackPartition.HOUR_MS;
+        assertFalse(TrackPartition.isClosed("20231114/22", end + 59 * MIN, TimeUnit.HOURS.toMillis(1)));
+        assertTrue(TrackPartition.isClosed("20231114/22", end + 60 * MIN, TimeUnit.HOURS.toMillis(1)));
+    }
+
+    @Test
+    public void summaryKeepsTheLastFixPerIntervalAndAggregatesSignal() {
+        List<Object> points = new ArrayList<>();
+        // 10 puntos cada 20 s hacia el norte, ~11 m entre cada uno; el último sin GPS
+        for (int i = 0; i < 10; i++) points.add(point(i, T0 + i * 20_000, -12.0 + i * 1e-4, -90 + i));
+        ((Map<?, ?>) ((Map<?, ?>) points.get(9)).get("gps")).clear();
+
+        Map<String, Object> summary = compactor.summarize(points, T0 + TimeUnit.HOURS.toMillis(5));
+
+        assertEquals(10L, summary.get("puntos"));
+        assertEquals(9L, summary.get("con_gps"));
+        assertEquals(T0, summary.get("desde_ms"));
+        assertEquals(T0 + 180_000, summary.get("hasta_ms"));
+        assertEquals(8 * 11.1, (Double) summary.get("distancia_m"), 1.0);
+        assertEquals(-90L, summary.get("dbm_min"));
+        assertEquals(-81L, summary.get("dbm_max"));
+        assertEquals(-85.5, (Double) summary.get("dbm_prom"), 1e-9);
+        // T0 cae a los 20 s de su minuto: los fixes de 0-160 s tocan cuatro minutos distintos
+        List<?> track = (List<?>) summary.get("traza");
+        assertEquals(4, track.size());
+        assertEquals(T0 + 20_000, ((Map<?, ?>) track.get(0)).get("t"));
+        assertEquals(T0 + 160_000, ((Map<?, ?>) track.get(3)).get("t"));
+    }
+
+    @Test
+    public void compactSummarizesOnlyClosedHoursAndPurgesWhenAsked() {
+        // 22 h y la hora siguiente cerradas (2 h de gracia); 02 h sigue abierta
+        long now = T0 + TimeUnit.HOURS.toMillis(4);
+        Map<String, Object> tracker = new HashMap<>();
+        Map<String, Object> user = new HashMap<>();
+        put(user, T0, "dev_1", point(1, T0, -12.0, -90));
+        put(user, now, "dev_2", point(2, now, -12.0, -90));
+        tracker.put("u1", user);
+
+        Map<String, Object> updates = new TrackCompactor(MIN, TimeUnit.HOURS.toMillis(2), true, false).compact(tracker, now);
+
+        assertEquals(2, updates.size());
+        assertTrue(updates.containsKey("tracker_resumen/u1/20231114/22"));
+        assertTrue(updates.containsKey("tracker/u1/20231114/22"));
+        assertNull(updates.get("tracker/u1/20231114/22"));
+    }
+
+    @Test
+    public void migrateMovesFlatPointsIntoTheirPartition() {
+        long now = T0 + TimeUnit.HOURS.toMillis(1);
+        Map<String, Object> user = new HashMap<>();
+        user.put("dev_1", point(1, T0, -12.0, -90));
+        Map<String, Object> tracker = new HashMap<>();
+        tracker.put("u1", user);
+
+        Map<String, Object> updates = new TrackCompactor(MIN, TimeUnit.HOURS.toMillis(2), false, true).compact(tracker, now);
+
+        assertEquals(2, updates.size());
+        assertTrue(updates.containsKey("tracker/u1/dev_1"));
+        assertNull(updates.get("tracker/u1/dev_1"));
+        assertEquals(user.get("dev_1"), updates.get("tracker/u1/20231114/22/dev_1"));
+    }
+
+    @Test
+    public void migrateAcceptsTheOriginalPushFormat() {
+        // Nodo de sendFinalData: push() con "timestamp" y "location", sin seq ni red
+        Map<String, Object> location = new HashMap<>();
+        location.put("lat", -12.046374);
+        location.put("lon", -77.042793);
+        Map<String, Object> legacy = new HashMap<>();
+        legacy.put("timestamp", (double) T0);
+        legacy.put("location", location);
+        legacy.put("hardware", new HashMap<>());
+        legacy.put("sim", new HashMap<>());
+        Map<String, Object> user = new HashMap<>();
+        user.put("-NjX3aQ9legacy", legacy);
+        Map<String, Object> tracker = new HashMap<>();
+        tracker.put("u1", user);
+
+        Map<String, Object> updates = new TrackCompactor(MIN, TimeUnit.HOURS.toMillis(2), false, true)
+                .compact(tracker, T0 + TimeUnit.HOURS.toMillis(4));
+
+        assertNull(updates.get("tracker/u1/-NjX3aQ9legacy"));
+        assertTrue(updates.containsKey("tracker/u1/-NjX3aQ9legacy"));
+        assertEquals(legacy, updates.get("tracker/u1/20231114/22/-NjX3aQ9legacy"));
+        Map<?, ?> summary = (Map<?, ?>) updates.get("tracker_resumen/u1/20231114/22");
+        assertEquals(1L, summary.get("con_gps"));
+        assertEquals(T0, summary.get("desde_ms"));
+    }
+
+    @Test
+    public void purgeKeepsDeltaChainsResolvableOnTheNextRun() {
+        // Cadena continua por tres horas: 22 h (clave + deltas), 23 h y 00 h solo deltas
+        long h22 = TrackPartition.startMs("20231114/22");
+        PointDeltaEncoder encoder = new PointDeltaEncoder("dev", 100);
+        encoder.begin().frame(0, point(0, h22 - MIN, -12.0, -90));
+        encoder.onSessionWriting("dev_0");
+        encoder.onSessionWritten("dev_0", true);
+        PointDeltaEncoder.Batch batch = encoder.begin();
+        Map<String, Object> user = new HashMap<>();
+        for (int i = 1; i <= 9; i++) {
+            long ts = h22 + (i - 1) * 20 * MIN;
+            put(user, ts, "dev_" + i, batch.frame(i, point(i, ts, -12.0 + i * 1e-3, -80 - i)));
+        }
+        Map<String, Object> tracker = new HashMap<>();
+        tracker.put("u1", user);
+        TrackCompactor purging = new TrackCompactor(MIN, TimeUnit.HOURS.toMillis(2), true, false);
+
+        // 22 h y 23 h cerradas, 00 h no: solo se purga 22 h
+        Map<String, Object> first = purging.compact(tracker, h22 + TimeUnit.HOURS.toMillis(4));
+        assertTrue(first.containsKey("tracker/u1/20231114/22"));
+        assertFalse(first.containsKey("tracker/u1/20231114/23"));
+        Map<?, ?> summary23 = (Map<?, ?>) first.get("tracker_resumen/u1/20231114/23");
+        assertEquals(3L, summary23.get("con_gps"));
+        // El primer delta de 23 h apuntaba a 22 h: queda como frame clave
+        Map<?, ?> rebased = (Map<?, ?>) first.get("tracker/u1/20231114/23/dev_4");
+        assertEquals(PointDeltaEncoder.FRAME_KEY, rebased.get(PointDeltaEncoder.FIELD_FRAME));
+        assertEquals(-84L, ((Map<?, ?>) rebased.get("red")).get("potencia_dbm"));
+        apply(tracker, first);
+
+        Map<String, Object> second = purging.compact(tracker, h22 + TimeUnit.HOURS.toMillis(6));
+        Map<?, ?> again23 = (Map<?, ?>) second.get("tracker_resumen/u1/20231114/23");
+        assertEquals(summary23.get("con_gps"), again23.get("con_gps"));
+        assertEquals(summary23.get("traza"), again23.get("traza"));
+        assertEquals(summary23.get("dbm_prom"), again23.get("dbm_prom"));
+        Map<?, ?> summary00 = (Map<?, ?>) second.get("tracker_resumen/u1/20231115/00");
+        assertEquals(3L, summary00.get("con_gps"));
+        assertEquals(-89L, summary00.get("dbm_min"));
+    }
+
+    @Test
+    public void deltaFramesAreRebuiltAcrossHoursBeforeSummarizing() {
+        PointDeltaEncoder encoder = new PointDeltaEncoder("dev", 100);
+        encoder.begin().frame(0, point(0, T0 - TimeUnit.HOURS.toMillis(1), -12.0, -90));
+        encoder.onSessionWriting("dev_0");
+        encoder.onSessionWritten("dev_0", true);
+
+        Map<String, Object> user = new HashMap<>();
+        PointDeltaEncoder.Batch batch = encoder.begin();
+        // El frame clave queda en la hora anterior; los deltas de esta hora dependen de él
+        long keyTs = TrackPartition.startMs("20231114/22") - MIN;
+        put(user, keyTs, "dev_1", batch.frame(1, point(1, keyTs, -12.0, -85)));
+        for (int i = 2; i < 5; i++) {
+            long ts = T0 + i * MIN;
+            put(user, ts, "dev_" + i, batch.frame(i, point(i, ts, -12.0 + i * 1e-4, -85)));
+        }
+        assertFalse(((Map<?, ?>) ((Map<?, ?>) ((Map<?, ?>) user.get("20231114")).get("22")).get("dev_2")).containsKey("red"));
+        Map<String, Object> tracker = new HashMap<>();
+        tracker.put("u1", user);
+
+        Map<String, Object> updates = compactor.compact(tracker, T0 + TimeUnit.HOURS.toMillis(4));
+
+        Map<?, ?> summary = (Map<?, ?>) updates.get("tracker_resumen/u1/20231114/22");
+        assertEquals(3L, summary.get("puntos"));
+        assertEquals(3L, summary.get("con_gps"));
+        assertEquals(-85L, summary.get("dbm_max"));
+    }
+
+    /** Aplica las rutas {@code tracker/...} de una actualización multi-ruta sobre el export. */
+    @SuppressWarnings("unchecked")
+    private static void apply(Map<String, Object> tracker, Map<String, Object> updates) {
+        for (Map.Entry<String, Object> update : updates.entrySet()) {
+            if (!update.getKey().startsWith("tracker/")) continue;
+            String[] path = update.getKey().substring("tracker/".length()).split("/");
+            Map<String, Object> node = tracker;
+            for (int i = 0; i < path.length - 1 && node != null; i++) node = (Map<String, Object>) node.get(path[i]);
+            if (node == null) continue;
+            if (update.getValue() == null) {
+                node.remove(path[path.length - 1]);
+            } else {
+                node.put(path[path.length - 1], update.getValue());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void put(Map<String, Object> user, long ts, String key, Map<String, Object> point) {
+        String[] partition = TrackPartition.of(ts).split("/");
+        Map<String, Object> hours = (Map<String, Object>) user.get(partition[0]);
+        if (hours == null) user.put(partition[0], hours = new HashMap<>());
+        Map<String, Object> points = (Map<String, Object>) hours.get(partition[1]);
+        if (points == null) hours.put(partition[1], points = new HashMap<>());
+        points.put(key, point);
+    }
+
+    private static Map<String, Object> point(long seq, long ts, double lat, long dbm) {
+        Map<String, Object> gps = new HashMap<>();
+        gps.put("lat", lat);
+        gps.put("lon", -77.0);
+        Map<String, Object> red = new HashMap<>();
+        red.put("potencia_dbm", dbm);
+        red.put("tipo", "LTE");
+        Map<String, Object> p = new HashMap<>();
+        p.put(DataPoint.FIELD_SEQ, seq);
+        p.put("timestamp_ms", ts);
+        p.put("gps", gps);
+        p.put("red", red);
+        p.put("hardware", new HashMap<>());
+        return p;
+    }
+}
@@ -0,0 +1,56 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WakeTimeAccountingTest {
+
+    private static final long MIN = 60 * 1000;
+
+    @Test
+    public void awakeTimeIsAttributedToTheModeInEffect() {
+        WakeTimeAccounting accounting = new WakeTimeAccounting(MotionStateMachine.Mode.STILL, 0);
+        accounting.onCycleStarted();
+        accounting.onAwake(2000);
+
+        accounting.onModeChanged(MotionStateMachine.Mode.IN_VEHICLE, 30 * MIN);
+        for (int i = 0; i < 3; i++) {
+            accounting.onCycleStarted();
+            accounting.onAwake(1500);
+        }
+        accounting.onCycleTimedOut();
+
+        assertEquals(2000, accounting.awakeMs(MotionStateMachine.Mode.STILL));
+        assertEquals(4500, accounting.awakeMs(MotionStateMachine.Mode.IN_VEHICLE));
+        assertEquals(3, accounting.cycles(MotionStateMachine.Mode.IN_VEHICLE));
+        assertEquals(1, accounting.timeouts(MotionStateMachine.Mode.IN_VEHICLE));
+        assertEquals(30 * MIN, accounting.modeMs(MotionStateMachine.Mode.STILL, 45 * MIN));
+        assertEquals(15 * MIN, accounting.modeMs(MotionStateMachine.Mode.IN_VEHICLE, 45 * MIN));
+    }
+
+    @Test
+    public void awakeSecondsPerHour_normalizesByTimeSpentInTheMode() {
+        WakeTimeAccounting accounting = new WakeTimeAccounting(MotionStateMachine.Mode.WALKING, 0);
+        accounting.onAwake(3000);
+
+        // 3 s despierto en 30 min de caminata = 6 s/h
+        assertEquals(6.0, accounting.awakeSecondsPerHour(MotionStateMachine.Mode.WALKING, 30 * MIN), 1e-9);
+        assertTrue(Double.isNaN(accounting.awakeSecondsPerHour(MotionStateMachine.Mode.RUNNING, 30 * MIN)));
+    }
+
+    @Test
+    public void summary_listsOnlyModesThatWereUsed() {
+        WakeTimeAccounting accounting = new WakeTimeAccounting(MotionStateMachine.Mode.STILL, 0);
+        accounting.onModeChanged(MotionStateMachine.Mode.RUNNING, 10 * MIN);
+        accounting.onCycleStarted();
+        accounting.onAwake(1000);
+
+        String summary = accounting.summary(20 * MIN);
+        assertTrue(summary.contains("STILL"));
+        assertTrue(summary.contains("RUNNING: 6.0 s/h"));
+        assertFalse(summary.contains("IN_VEHICLE"));
+    }
+}
@@ -0,0 +1,114 @@
+package org.pucusoft.geocelltrack;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WriteCoalescerTest {
+
+    private final List<Map<String, Object>> sent = new ArrayList<>();
+    private final List<TelemetrySink.Callback> pending = new ArrayList<>();
+    private final AtomicInteger acks = new AtomicInteger();
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private final WriteCoalescer coalescer = new WriteCoalescer((updates, callback) -> {
+        sent.add(updates);
+        pending.add(callback);
+    }, 64 * 1024);
+
+    @Test
+    public void writesInOneWindowGoOutAsOneRootUpdate() {
+        assertTrue(coalescer.add("/latidos/u1/dev", "a", callback()));
+        assertFalse(coalescer.add("tracker/u1/k1", 1L, callback()));
+        Map<String, Object> children = new HashMap<>();
+        children.put("tracker/u1/k2", 2L);
+        children.put("tracker/u1/k3", 3L);
+        assertFalse(coalescer.addAll(children, callback()));
+
+        coalescer.flush();
+
+        assertEquals(1, sent.size());
+        assertEquals(4, sent.get(0).size());
+        assertEquals("a", sent.get(0).get("latidos/u1/dev"));
+        assertEquals(3L, coalescer.writes());
+        assertEquals(1L, coalescer.batches());
+    }
+
+    @Test
+    public void laterWriteToTheSamePathReplacesTheEarlierOneButBothComplete() {
+        coalescer.add("estado/u1", "corriendo", callback());
+        coalescer.add("estado/u1", "detenido", callback());
+        coalescer.flush();
+        pending.get(0).onAck();
+
+        assertEquals(1, sent.get(0).size());
+        assertEquals("detenido", sent.get(0).get("estado/u1"));
+        assertEquals(2, acks.get());
+    }
+
+    @Test
+    public void ancestorWriteDropsPendingDescendants() {
+        coalescer.add("perfil/u1/nombre", "Ana", callback());
+        coalescer.add("perfil/u1", new HashMap<>(), callback());
+        coalescer.flush();
+
+        assertEquals(1, sent.size());
+        assertEquals(1, sent.get(0).size());
+        assertTrue(sent.get(0).containsKey("perfil/u1"));
+    }
+
+    @Test
+    public void writeUnderAPendingPathSendsThePendingBatchFirst() {
+        coalescer.add("perfil/u1", new HashMap<>(), callback());
+        assertTrue(coalescer.add("perfil/u1/nombre", "Ana", callback()));
+
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0).containsKey("perfil/u1"));
+        coalescer.flush();
+        assertEquals("Ana", sent.get(1).get("perfil/u1/nombre"));
+    }
+
+    @Test
+    public void byteBudgetFlushesInsideAdd() {
+        WriteCoalescer small = new WriteCoalescer((updates, callback) -> sent.add(updates), 100);
+        assertTrue(small.add("a/1", "0123456789", callback()));
+        assertFalse(small.add("a/2", new String(new char[120]), callback()));
+
+        assertEquals(1, sent.size());
+        assertEquals(0, small.pendingBytes());
+    }
+
+    @Test
+    public void failureReachesEveryCallbackOfTheBatch() {
+        coalescer.add("a/1", 1L, callback());
+        coalescer.add("a/2", 2L, callback());
+        coalescer.flush();
+        pending.get(0).onFailure(new IOException("sin red"));
+
+        assertEquals(0, acks.get());
+        assertEquals(2, failures.get());
+    }
+
+    private TelemetrySink.Callback callback() {
+        return new TelemetrySink.Callback() {
+            @Override
+            public void onAck() {
+                acks.incrementAndGet();
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                failures.incrementAndGet();
+            }
+        };
+    }
+}
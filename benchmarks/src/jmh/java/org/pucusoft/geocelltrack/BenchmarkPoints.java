@@ -0,0 +1,58 @@
+package org.pucusoft.geocelltrack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Puntos de muestra compartidos por los benchmarks. */
+final class BenchmarkPoints {
+
+    private BenchmarkPoints() {}
+
+    static Map<String, Object> hardwareBlock() {
+        Map<String, Object> hardware = new HashMap<>();
+        hardware.put("imei", "358240051111110");
+        hardware.put("modelo", "Pixel 7");
+        hardware.put("fabricante", "Google");
+        hardware.put("api_level", 34);
+        hardware.put("android_version", "14");
+        return hardware;
+    }
+
+    static Map<String, Object> simBlock() {
+        Map<String, Object> sim = new HashMap<>();
+        sim.put("mcc_red", "716");
+        sim.put("mnc_red", "10");
+        sim.put("operador_nombre", "Claro PE");
+        return sim;
+    }
+
+    /** Punto tipado como lo arma hoy {@code TrackerService}. */
+    static DataPoint dataPoint(long seq, Map<String, Object> hardware, Map<String, Object> sim) {
+        DataPoint p = new DataPoint();
+        p.seq = seq;
+        p.timestampMs = 1700000000123L + seq * 70_000L;
+        p.setLocation(-12.046374 + seq * 1e-6, -77.042793);
+        p.accuracyM = 8.5f;
+        p.altitudeM = 154f;
+        p.speedMps = 1.2f;
+        p.bearingDeg = 90f;
+        p.fixTimeMs = p.timestampMs - 1500;
+        p.dbm = -91;
+        p.hardware = hardware;
+        p.sim = sim;
+        return p;
+    }
+
+    /** Punto como {@code HashMap} anidado, tal como lo construía {@code TrackerService} antes del DataPoint. */
+    static Map<String, Object> legacyMap(long seq) {
+        Map<String, Object> point = new HashMap<>();
+        point.put("timestamp", 1700000000123L + seq * 70_000L);
+        point.put("hardware", hardwareBlock());
+        point.put("sim", simBlock());
+        Map<String, Object> location = new HashMap<>();
+        location.put("lat", -12.046374 + seq * 1e-6);
+        location.put("lon", -77.042793);
+        point.put("location", location);
+        return point;
+    }
+}
@@ -0,0 +1,84 @@
+package org.pucusoft.geocelltrack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Resolución local de la ubicación de una BTS sobre índices del tamaño de un país y del mundo, y
+ * posición por celdas de un tick típico (servidora + 5 vecinas con antena conocida).
+ */
+@State(Scope.Thread)
+public class CellTowerIndexBenchmark {
+
+    @Param({"100000", "5000000"})
+    public int towers;
+
+    private File file;
+    private CellTowerIndex index;
+    private long[] probes;
+    private int next;
+    private CellTrilateration trilateration;
+    private final CellObservation[] tick = new CellObservation[6];
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        CellTowerIndexBuilder builder = new CellTowerIndexBuilder().source("bench");
+        probes = new long[1024];
+        for (int i = 0; i < towers; i++) {
+            int area = random.nextInt(4000);
+            long cid = random.nextInt(1 << 28);
+            builder.add(716, 10, area, cid, -12 + random.nextDouble(), -77 + random.nextDouble());
+            if (i < probes.length) probes[i] = ((long) area << 32) | cid;
+        }
+        file = Files.createTempFile("celltowers-bench", ".idx").toFile();
+        builder.writeTo(file);
+        index = CellTowerIndex.open(file);
+
+        trilateration = new CellTrilateration(index);
+        for (int i = 0; i < tick.length; i++) {
+            CellObservation c = new CellObservation();
+            c.type = CellObservation.LTE;
+            c.registered = i == 0;
+            c.mcc = "716";
+            c.mnc = "10";
+            c.area = (int) (probes[i] >>> 32);
+            c.cid = probes[i] & 0xFFFFFFFFL;
+            c.dbm = -80 - 4 * i;
+            tick[i] = c;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public double findHit() {
+        long probe = probes[next++ & (probes.length - 1)];
+        int i = index.find(716, 10, (int) (probe >>> 32), probe & 0xFFFFFFFFL);
+        return index.lat(i);
+    }
+
+    @Benchmark
+    public int findMiss() {
+        long probe = probes[next++ & (probes.length - 1)];
+        return index.find(716, 11, (int) (probe >>> 32), probe & 0xFFFFFFFFL);
+    }
+
+    @Benchmark
+    public double trilaterate() {
+        trilateration.estimate(tick);
+        return trilateration.lat;
+    }
+}
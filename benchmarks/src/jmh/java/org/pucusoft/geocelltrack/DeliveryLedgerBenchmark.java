@@ -0,0 +1,52 @@
+package org.pucusoft.geocelltrack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Costo de la entrega exactly-once por punto: secuencia, clave determinista y ack por lote. */
+@State(Scope.Thread)
+public class DeliveryLedgerBenchmark {
+
+    private static final int BATCH = 200;
+
+    private File dir;
+    private SequenceGenerator sequence;
+    private AckLedger ledger;
+    private final long[] seqs = new long[BATCH];
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("ledger-bench").toFile();
+        sequence = SequenceGenerator.open(new File(dir, "tracker_seq"));
+        ledger = AckLedger.open(new File(dir, "ack_ledger"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Benchmark
+    public String nextSeqAndKey() throws IOException {
+        return SequenceGenerator.key("a1b2c3d4e5f6", sequence.next());
+    }
+
+    /** Un ack de lote como el del drenado (un solo persist por lote). Resultado por punto. */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int markAckedBatch() throws IOException {
+        for (int i = 0; i < BATCH; i++) seqs[i] = sequence.next();
+        ledger.markAcked(seqs, BATCH);
+        return ledger.rangeCount();
+    }
+}
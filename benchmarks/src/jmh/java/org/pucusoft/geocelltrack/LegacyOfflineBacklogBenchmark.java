@@ -0,0 +1,47 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * El {@code saveDataOffline} anterior: leer la lista JSON completa de SharedPreferences,
+ * deserializarla, agregar un punto y volver a serializarla. El String hace de SharedPreferences;
+ * no incluye la escritura del XML a disco, así que el costo real en el dispositivo es mayor.
+ */
+@State(Scope.Thread)
+public class LegacyOfflineBacklogBenchmark {
+
+    private static final Type TYPE = new TypeToken<ArrayList<Map<String, Object>>>(){}.getType();
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int backlogSize;
+
+    private String offlineDataJson;
+    private Map<String, Object> newPoint;
+
+    @Setup
+    public void setUp() {
+        List<Map<String, Object>> backlog = new ArrayList<>(backlogSize);
+        for (int i = 0; i < backlogSize; i++) backlog.add(BenchmarkPoints.legacyMap(i));
+        offlineDataJson = new Gson().toJson(backlog);
+        newPoint = BenchmarkPoints.legacyMap(backlogSize);
+    }
+
+    @Benchmark
+    public String saveDataOffline_readModifyWrite() {
+        List<Map<String, Object>> offlineData = new Gson().fromJson(offlineDataJson, TYPE);
+        offlineData.add(newPoint);
+        return new Gson().toJson(offlineData);
+    }
+}
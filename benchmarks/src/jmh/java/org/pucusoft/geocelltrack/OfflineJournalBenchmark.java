@@ -0,0 +1,99 @@
+package org.pucusoft.geocelltrack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Caja negra: costo por punto de escribir en el {@link OfflineJournal} y de leer un lote para el
+ * drenado (peek + decodificación columnar en {@link PendingBatch}), sin red.
+ */
+@State(Scope.Thread)
+public class OfflineJournalBenchmark {
+
+    private static final int BATCH = 200;
+
+    /** true: fsync por punto (durabilidad inmediata); false: solo el append. */
+    @Param({"false", "true"})
+    public boolean syncEachRecord;
+
+    private File dir;
+    private OfflineJournal journal;
+    private byte[] record;
+    private PendingBatch pending;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("journal-bench").toFile();
+        journal = OfflineJournal.open(dir);
+        record = BenchmarkPoints.dataPoint(1, BenchmarkPoints.hardwareBlock(), BenchmarkPoints.simBlock()).encode();
+        pending = new PendingBatch(BATCH);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    /**
+     * Escribe un lote de puntos y luego lo consume, para que el disco no crezca sin límite entre
+     * iteraciones. El resultado es por punto.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int appendThenCommit() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            journal.append(record);
+            if (syncEachRecord) journal.sync();
+        }
+        OfflineJournal.Batch batch = journal.peek(BATCH, Long.MAX_VALUE);
+        journal.commit(batch);
+        return batch.size();
+    }
+
+    /** Lee y decodifica un lote sin confirmarlo (el cursor no avanza, así que es repetible). */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public int peekAndDecode(PrefilledJournal prefilled) throws IOException {
+        OfflineJournal.Batch batch = prefilled.journal.peek(BATCH, Long.MAX_VALUE);
+        pending.clear();
+        for (byte[] r : batch.records) pending.addRecord(r);
+        return pending.size();
+    }
+
+    @State(Scope.Thread)
+    public static class PrefilledJournal {
+        File dir;
+        OfflineJournal journal;
+
+        @Setup
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("journal-bench-drain").toFile();
+            journal = OfflineJournal.open(dir);
+            for (int i = 0; i < BATCH; i++) {
+                journal.append(BenchmarkPoints.dataPoint(i, BenchmarkPoints.hardwareBlock(),
+                        BenchmarkPoints.simBlock()).encode());
+            }
+            journal.sync();
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            journal.close();
+            File[] files = dir.listFiles();
+            if (files != null) for (File f : files) f.delete();
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.pucusoft.geocelltrack;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Serialización de un punto: Gson sobre mapas (lo que hacía {@code TrackerService}, con un
+ * {@code new Gson()} por envío) frente a {@link PayloadEncoder}.
+ */
+@State(Scope.Thread)
+public class PayloadEncodingBenchmark {
+
+    private final Gson sharedGson = new Gson();
+    private Map<String, Object> legacyMap;
+    private DataPoint point;
+    private PayloadEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        legacyMap = BenchmarkPoints.legacyMap(1);
+        point = BenchmarkPoints.dataPoint(1, BenchmarkPoints.hardwareBlock(), BenchmarkPoints.simBlock());
+        encoder = new PayloadEncoder("agente-bench");
+    }
+
+    @Benchmark
+    public String gsonMap_newInstancePerCall() {
+        return new Gson().toJson(legacyMap);
+    }
+
+    @Benchmark
+    public String gsonMap_sharedInstance() {
+        return sharedGson.toJson(legacyMap);
+    }
+
+    @Benchmark
+    public byte[] payloadEncoder_json() {
+        return encoder.encode(point);
+    }
+
+    @Benchmark
+    public Map<String, Object> payloadEncoder_firebaseMap() {
+        return encoder.toFirebaseMap(point);
+    }
+
+    @Benchmark
+    public byte[] dataPoint_binaryRecord() {
+        return point.encode();
+    }
+}
@@ -0,0 +1,77 @@
+package org.pucusoft.geocelltrack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.networknt.schema.JsonSchema;
+import com.networknt.schema.JsonSchemaFactory;
+import com.networknt.schema.SpecVersion;
+import com.networknt.schema.ValidationMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Validación contra {@code payload-schema.json}, como en {@code PayloadSchemaTest}: el ejemplo ya
+ * parseado, el ejemplo desde bytes y el payload que produce {@link PayloadEncoder}.
+ */
+@State(Scope.Thread)
+public class SchemaValidationBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private JsonSchema schema;
+    private byte[] exampleBytes;
+    private JsonNode exampleNode;
+    private PayloadEncoder encoder;
+    private DataPoint point;
+
+    @Setup
+    public void setUp() throws IOException {
+        schema = JsonSchemaFactory.getInstance(SpecVersion.VersionFlag.V7)
+                .getSchema(mapper.readTree(resource("/payload-schema.json")));
+        exampleBytes = readAll(resource("/payload_example.json"));
+        exampleNode = mapper.readTree(exampleBytes);
+        encoder = new PayloadEncoder("agente-bench");
+        point = BenchmarkPoints.dataPoint(1, BenchmarkPoints.hardwareBlock(), BenchmarkPoints.simBlock());
+        if (!schema.validate(mapper.readTree(encoder.encode(point))).isEmpty()) {
+            throw new IllegalStateException("El payload de PayloadEncoder no cumple el schema");
+        }
+    }
+
+    @Benchmark
+    public Set<ValidationMessage> validate_parsedExample() {
+        return schema.validate(exampleNode);
+    }
+
+    @Benchmark
+    public Set<ValidationMessage> validate_exampleBytes() throws IOException {
+        return schema.validate(mapper.readTree(exampleBytes));
+    }
+
+    @Benchmark
+    public Set<ValidationMessage> encodeAndValidate() throws IOException {
+        return schema.validate(mapper.readTree(encoder.encode(point)));
+    }
+
+    private static InputStream resource(String name) {
+        InputStream in = SchemaValidationBenchmark.class.getResourceAsStream(name);
+        if (in == null) throw new IllegalStateException("No se encontró " + name);
+        return in;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) != -1) out.write(buffer, 0, n);
+            return out.toByteArray();
+        }
+    }
+}
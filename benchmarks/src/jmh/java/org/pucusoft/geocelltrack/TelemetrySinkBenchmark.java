@@ -0,0 +1,70 @@
+package org.pucusoft.geocelltrack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Subida de un lote de ubicación (6 puntos) sin Firebase: codificación al mapa más la escritura en
+ * los destinos locales, con el ack esperado como lo espera el drenado de la caja negra.
+ */
+@State(Scope.Thread)
+public class TelemetrySinkBenchmark {
+
+    private static final int BATCH = 6;
+
+    private final DataPoint[] points = new DataPoint[BATCH];
+    private PayloadEncoder encoder;
+    private InMemoryTelemetrySink memory;
+    private NdjsonFileSink ndjson;
+    private File file;
+    private long seq;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int i = 0; i < BATCH; i++) {
+            points[i] = BenchmarkPoints.dataPoint(i, BenchmarkPoints.hardwareBlock(), BenchmarkPoints.simBlock());
+        }
+        encoder = new PayloadEncoder("agente-bench");
+        memory = new InMemoryTelemetrySink();
+        file = Files.createTempFile("telemetry-bench", ".ndjson").toFile();
+        ndjson = new NdjsonFileSink(file, false);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ndjson.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long inMemory() throws InterruptedException, ExecutionException, TimeoutException {
+        TelemetrySink.awaitBatch(memory, "agente-bench", nextBatch(), 1, TimeUnit.SECONDS);
+        return memory.points();
+    }
+
+    @Benchmark
+    public void ndjsonFile() throws InterruptedException, ExecutionException, TimeoutException {
+        TelemetrySink.awaitBatch(ndjson, "agente-bench", nextBatch(), 1, TimeUnit.SECONDS);
+    }
+
+    private Map<String, Object> nextBatch() {
+        Map<String, Object> updates = new HashMap<>(BATCH * 2);
+        for (DataPoint p : points) {
+            p.seq = seq++;
+            updates.put(Long.toString(p.seq), encoder.toFirebaseMap(p));
+        }
+        return updates;
+    }
+}